@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.action.Action;
+import net.meta8.common.fsm.configuration.StateConfigurationDSL;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// s1 <-> s2 ping pong where both states own 'actions' entry actions and 'actions' exit actions (half of them guarded) :
+// each fire() performs 2 * actions actions
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActionFanOutBenchmark {
+  @Param({"0", "1", "4", "16"})
+  public int actions;
+
+  private StateMachine<BenchmarkStates, Character, Void, Void> machine;
+
+  @Setup
+  public void setup(final Blackhole blackhole) {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    final StateConfigurationDSL<BenchmarkStates, Character, Void, Void>     state1        = configuration.state(s1);
+    final StateConfigurationDSL<BenchmarkStates, Character, Void, Void>     state2        = configuration.state(s2);
+    final Action<BenchmarkStates, Character, Void, Void>                    action        = (event, transition, sourceContext, destinationContext, machineContext) -> blackhole.consume(event);
+
+    for (int i=0; i<actions; ++i) {
+      if (i % 2 == 0) {
+        state1.onEntry(action).onExit(action);
+        state2.onEntry(action).onExit(action);
+      }
+      else {
+        state1.onEntryIf((event, transition, sourceContext, destinationContext, machineContext) -> true, action)
+              .onExitIf((event, transition, sourceContext, destinationContext, machineContext) -> true, action);
+        state2.onEntryIf((event, transition, sourceContext, destinationContext, machineContext) -> true, action)
+              .onExitIf((event, transition, sourceContext, destinationContext, machineContext) -> true, action);
+      }
+    }
+    state1.when('a').moveTo(s2);
+    state2.when('a').moveTo(s1);
+
+    machine = new StateMachine<>(BenchmarkStates.class, configuration);
+  }
+
+  @Benchmark
+  public BenchmarkStates fire() {
+    return(machine.fire('a'));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// 4 threads sending batches of 16 events to the same machine, whose transition action burns 'actionTokens' of CPU :
+// synchronous fire() (producers wait for each other on the monitor) versus fireAsync() drained by a single thread
+// (producers only enqueue, then wait for the last event of their batch). Scores are per batch
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class AsyncFireBenchmark {
+  private static final int BATCH = 16;
+
+  @Param({"0", "200"})
+  public int actionTokens;
+
+  private StateMachine<BenchmarkStates, Character, Void, Void> machine;
+  private ExecutorService                                      executor;
+
+  @Setup
+  public void setup() {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    final int                                                               tokens        = actionTokens;
+
+    configuration.state(s1).when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> Blackhole.consumeCPU(tokens));
+    configuration.state(s2).when('a').moveTo(s1, (event, transition, sourceContext, destinationContext, machineContext) -> Blackhole.consumeCPU(tokens));
+
+    machine  = new StateMachine<>(configuration.compile());
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public BenchmarkStates fire() {
+    BenchmarkStates state = null;
+    for (int i=0; i<BATCH; ++i) {
+      state = machine.fire('a');
+    }
+    return(state);
+  }
+
+  @Benchmark
+  public BenchmarkStates fireAsync() {
+    CompletableFuture<BenchmarkStates> last = null;
+    for (int i=0; i<BATCH; ++i) {
+      last = machine.fireAsync('a', executor);
+    }
+    return(last.join());
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// s1 -a-> s2 -b-> s1 : on a machine nobody waits on, on a machine with 1000 callers waiting for s3 (never entered : every
+// transition looks its target up), and awaiting s2 before firing 'a' then joining the future, completed by the common pool
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AwaitStateBenchmark {
+  private StateMachine<BenchmarkStates, Character, Void, Void> idle;
+  private StateMachine<BenchmarkStates, Character, Void, Void> waited;
+  private StateMachine<BenchmarkStates, Character, Void, Void> awaiting;
+
+  @Setup
+  public void setup() {
+    idle     = new StateMachine<>(configuration().compile());
+    waited   = new StateMachine<>(configuration().compile());
+    awaiting = new StateMachine<>(configuration().compile());
+    for (int i=0; i<1000; ++i) {
+      waited.awaitState(s3);
+    }
+  }
+
+  private static StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration() {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .when('a').moveTo(s2)
+                 .when('c').moveTo(s3);
+    configuration.state(s2)
+                 .when('b').moveTo(s1);
+    configuration.state(s3);
+    return(configuration);
+  }
+
+  @Benchmark
+  public BenchmarkStates noWaiter() {
+    idle.fire('a');
+    return(idle.fire('b'));
+  }
+
+  @Benchmark
+  public BenchmarkStates otherStateWaited() {
+    waited.fire('a');
+    return(waited.fire('b'));
+  }
+
+  @Benchmark
+  public BenchmarkStates awaitAndJoin() {
+    final CompletableFuture<BenchmarkStates> entered = awaiting.awaitState(s2);
+    awaiting.fire('a');
+    entered.join();
+    return(awaiting.fire('b'));
+  }
+}
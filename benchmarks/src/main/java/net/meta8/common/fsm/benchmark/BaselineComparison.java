@@ -0,0 +1,220 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// compares two JMH JSON result files (java -jar target/benchmarks.jar -rf json -rff current.json) benchmark by benchmark :
+//   java -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.BaselineComparison baseline.json current.json [threshold %]
+// exits with 1 when a benchmark regressed by more than the threshold (10% by default) and beyond both score errors
+public final class BaselineComparison {
+  private BaselineComparison() {
+  }
+
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: BaselineComparison <baseline.json> <current.json> [threshold %]");
+      System.exit(2);
+    }
+
+    final Map<String, Score> baseline  = load(args[0]);
+    final Map<String, Score> current   = load(args[1]);
+    final double             threshold = (args.length > 2) ? Double.parseDouble(args[2]) : 10.0;
+
+    int regressions = 0;
+    System.out.println(String.format("%-80s %14s %14s %10s  %s", "benchmark", "baseline", "current", "change", "unit"));
+    for (final Map.Entry<String, Score> entry : current.entrySet()) {
+      final Score before = baseline.get(entry.getKey());
+      final Score after  = entry.getValue();
+      if (before == null) {
+        System.out.println(String.format("%-80s %14s %14.3f %10s  %s", entry.getKey(), "-", after.score, "new", after.unit));
+        continue;
+      }
+
+      // positive when better, whatever the mode
+      final double  change    = (after.higherIsBetter ? after.score - before.score : before.score - after.score) * 100.0 / before.score;
+      final boolean regressed = (-change > threshold)&&(Math.abs(after.score - before.score) > before.error + after.error);
+      if (regressed) {
+        ++regressions;
+      }
+      System.out.println(String.format("%-80s %14.3f %14.3f %+9.1f%%  %s%s", entry.getKey(), before.score, after.score, change, after.unit, regressed ? "  REGRESSION" : ""));
+    }
+
+    if (regressions > 0) {
+      System.err.println(regressions+" regression(s) above "+threshold+"%");
+      System.exit(1);
+    }
+  }
+
+  private static final class Score {
+    final double  score;
+    final double  error;
+    final String  unit;
+    final boolean higherIsBetter;
+
+    Score(final double score, final double error, final String unit, final boolean higherIsBetter) {
+      this.score          = score;
+      this.error          = error;
+      this.unit           = unit;
+      this.higherIsBetter = higherIsBetter;
+    }
+  }
+
+  // benchmark name [params] (mode) -> primary score
+  @SuppressWarnings("unchecked")
+  private static Map<String, Score> load(final String path) throws IOException {
+    final Map<String, Score> scores = new LinkedHashMap<>();
+
+    for (final Object element : (List<Object>) new JsonReader(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8)).read()) {
+      final Map<String, Object> result  = (Map<String, Object>) element;
+      final Map<String, Object> params  = (Map<String, Object>) result.get("params");
+      final Map<String, Object> primary = (Map<String, Object>) result.get("primaryMetric");
+      final String              mode    = (String) result.get("mode");
+
+      final String key = result.get("benchmark") + ((params == null) ? "" : " " + params) + " (" + mode + ")";
+      scores.put(key, new Score(number(primary.get("score")), number(primary.get("scoreError")), (String) primary.get("scoreUnit"), "thrpt".equals(mode)));
+    }
+    return(scores);
+  }
+
+  // JMH writes NaN (eg. score error of a single iteration) as a string
+  private static double number(final Object value) {
+    if (value instanceof Number) {
+      return(((Number) value).doubleValue());
+    }
+    try {
+      return(Double.parseDouble(String.valueOf(value)));
+    }
+    catch (final NumberFormatException notANumber) {
+      return(0.0);
+    }
+  }
+
+  // just enough JSON to read JMH result files : objects, arrays, strings, numbers, booleans and null
+  private static final class JsonReader {
+    private final String text;
+    private int          position;
+
+    JsonReader(final String text) {
+      this.text = text;
+    }
+
+    Object read() {
+      skipWhitespaces();
+      final char c = text.charAt(position);
+      switch (c) {
+        case '{' : return(readObject());
+        case '[' : return(readArray());
+        case '"' : return(readString());
+        case 't' : position += 4; return(Boolean.TRUE);
+        case 'f' : position += 5; return(Boolean.FALSE);
+        case 'n' : position += 4; return(null);
+        default  : return(readNumber());
+      }
+    }
+
+    private Map<String, Object> readObject() {
+      final Map<String, Object> object = new LinkedHashMap<>();
+      ++position;
+      skipWhitespaces();
+      if (text.charAt(position) == '}') {
+        ++position;
+        return(object);
+      }
+      for (;;) {
+        skipWhitespaces();
+        final String key = readString();
+        skipWhitespaces();
+        expect(':');
+        object.put(key, read());
+        skipWhitespaces();
+        if (text.charAt(position++) == '}') {
+          return(object);
+        }
+      }
+    }
+
+    private List<Object> readArray() {
+      final List<Object> array = new ArrayList<>();
+      ++position;
+      skipWhitespaces();
+      if (text.charAt(position) == ']') {
+        ++position;
+        return(array);
+      }
+      for (;;) {
+        array.add(read());
+        skipWhitespaces();
+        if (text.charAt(position++) == ']') {
+          return(array);
+        }
+      }
+    }
+
+    private String readString() {
+      expect('"');
+      final StringBuilder builder = new StringBuilder();
+      for (char c = text.charAt(position++); c != '"'; c = text.charAt(position++)) {
+        if (c == '\\') {
+          c = text.charAt(position++);
+          switch (c) {
+            case 'n' : builder.append('\n'); break;
+            case 't' : builder.append('\t'); break;
+            case 'r' : builder.append('\r'); break;
+            case 'b' : builder.append('\b'); break;
+            case 'f' : builder.append('\f'); break;
+            case 'u' : builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16)); position += 4; break;
+            default  : builder.append(c); break;
+          }
+        }
+        else {
+          builder.append(c);
+        }
+      }
+      return(builder.toString());
+    }
+
+    private Double readNumber() {
+      final int start = position;
+      while ((position < text.length())&&("+-0123456789.eE".indexOf(text.charAt(position)) >= 0)) {
+        ++position;
+      }
+      return(Double.valueOf(text.substring(start, position)));
+    }
+
+    private void expect(final char c) {
+      if (text.charAt(position++) != c) {
+        throw(new IllegalArgumentException("'"+c+"' expected at "+(position - 1)));
+      }
+    }
+
+    private void skipWhitespaces() {
+      while (Character.isWhitespace(text.charAt(position))) {
+        ++position;
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.ExecutionMode;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : 'machines' machines receive one event at once, whose entry action blocks 'blockMillis' (a JDBC or
+// HTTP call stand in). VIRTUAL_THREADS mode (Java 21+) runs every machine on its own virtual thread, PLATFORM_THREADS mode
+// runs them on a fixed pool of 'poolSize' platform threads given to fireAsync.
+//   java -Xmx2g -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.BlockedMachines [machines] [blockMillis] [poolSize]
+public final class BlockedMachines {
+  public static void main(final String[] args) throws Exception {
+    final int machines    = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+    final int blockMillis = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+    final int poolSize    = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .when('a').moveTo(s2);
+    configuration.state(s2)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   try {
+                     Thread.sleep(blockMillis);
+                   }
+                   catch (final InterruptedException interrupted) {
+                     Thread.currentThread().interrupt();
+                   }
+                 });
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> definition = configuration.compile();
+
+    System.out.printf("%-28s %10s %12s %12s %14s %14s%n", "mode", "machines", "block (ms)", "total (ms)", "events/s", "peak threads");
+
+    try {
+      run("VIRTUAL_THREADS", definition, ExecutionMode.VIRTUAL_THREADS, null, machines, blockMillis);
+    }
+    catch (final UnsupportedOperationException beforeJava21) {
+      System.out.printf("%-28s %s%n", "VIRTUAL_THREADS", beforeJava21.getMessage());
+    }
+
+    final ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+    try {
+      run("PLATFORM_THREADS, pool " + poolSize, definition, ExecutionMode.PLATFORM_THREADS, pool, machines, blockMillis);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void run(final String                                                    label,
+                          final MachineDefinition<BenchmarkStates, Character, Void, Void> definition,
+                          final ExecutionMode                                             executionMode,
+                          final ExecutorService                                           pool,
+                          final int                                                       machines,
+                          final int                                                       blockMillis) throws Exception {
+    final List<StateMachine<BenchmarkStates, Character, Void, Void>> instances = new ArrayList<>(machines);
+    for (int i=0; i<machines; ++i) {
+      instances.add(new StateMachine<>(definition, HashedWheelTimerService.shared(), executionMode));
+    }
+    ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+
+    final long                                     start   = System.nanoTime();
+    final List<CompletableFuture<BenchmarkStates>> futures = new ArrayList<>(machines);
+    for (final StateMachine<BenchmarkStates, Character, Void, Void> machine : instances) {
+      futures.add((pool == null) ? machine.fireAsync('a') : machine.fireAsync('a', pool));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    final long millis = (System.nanoTime() - start) / 1_000_000;
+
+    System.out.printf("%-28s %10d %12d %12d %14.0f %14d%n", label, machines, blockMillis, millis, machines * 1000.0 / millis,
+                      ManagementFactory.getThreadMXBean().getPeakThreadCount());
+  }
+}
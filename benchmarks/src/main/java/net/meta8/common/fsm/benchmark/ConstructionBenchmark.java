@@ -0,0 +1,84 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// cost of new StateMachine(...) for 4 states, without any context and with a global context plus one local context per state
+// (only the initial state one is cloned at construction, the others on first entry) : from the configuration (compiled for each
+// machine) and from a compiled MachineDefinition
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConstructionBenchmark {
+  private StateMachineConfiguration<BenchmarkStates, Character, Void, Void>       withoutContext;
+  private StateMachineConfiguration<BenchmarkStates, Character, long[], long[]>   withContexts;
+  private MachineDefinition<BenchmarkStates, Character, Void, Void>               withoutContextDefinition;
+  private MachineDefinition<BenchmarkStates, Character, long[], long[]>           withContextsDefinition;
+
+  @Setup
+  public void setup() {
+    withoutContext = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    withContexts   = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.of(new long[16]), Optional.of(long[]::clone));
+
+    for (final BenchmarkStates state : BenchmarkStates.values()) {
+      final BenchmarkStates next = BenchmarkStates.values()[(state.ordinal() + 1) % BenchmarkStates.values().length];
+
+      withoutContext.state(state)
+                    .when('a').moveTo(next);
+      withContexts.state(state)
+                  .initialContext(new long[16], long[]::clone)
+                  .when('a').moveTo(next);
+    }
+
+    withoutContextDefinition = withoutContext.compile();
+    withContextsDefinition   = withContexts.compile();
+  }
+
+  @Benchmark
+  public StateMachine<BenchmarkStates, Character, Void, Void> withoutContext() {
+    return(new StateMachine<>(BenchmarkStates.class, withoutContext));
+  }
+
+  @Benchmark
+  public StateMachine<BenchmarkStates, Character, long[], long[]> withContexts() {
+    return(new StateMachine<>(BenchmarkStates.class, withContexts));
+  }
+
+  @Benchmark
+  public StateMachine<BenchmarkStates, Character, Void, Void> withoutContextFromDefinition() {
+    return(new StateMachine<>(withoutContextDefinition));
+  }
+
+  @Benchmark
+  public StateMachine<BenchmarkStates, Character, long[], long[]> withContextsFromDefinition() {
+    return(new StateMachine<>(withContextsDefinition));
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// 4 threads firing on the same machine (s1 <-> s2 ping pong) : cost of the machine monitor under contention.
+// Compare with FireBenchmark.unguarded, and override the thread count with -t
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ContendedFireBenchmark {
+  private StateMachine<BenchmarkStates, Character, Void, Void> machine;
+
+  @Setup
+  public void setup() {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1).when('a').moveTo(s2);
+    configuration.state(s2).when('a').moveTo(s1);
+
+    machine = new StateMachine<>(BenchmarkStates.class, configuration);
+  }
+
+  @Benchmark
+  public BenchmarkStates fire() {
+    return(machine.fire('a'));
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateConfigurationDSL;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// s1 -a-> s2 -b-> s3 -c-> s1, with 'b' arriving before 'a' : deferred by s1 and replayed on entering s2, versus the caller
+// catching the UnknownTriggerException and firing 'b' again after 'a'. inOrder is the same round trip without early event,
+// on the machine deferring 'b'
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeferredEventBenchmark {
+  private StateMachine<BenchmarkStates, Character, Void, Void> deferring;
+  private StateMachine<BenchmarkStates, Character, Void, Void> refusing;
+
+  @Setup
+  public void setup() {
+    deferring = new StateMachine<>(configuration(true).compile());
+    refusing  = new StateMachine<>(configuration(false).compile());
+  }
+
+  private static StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration(final boolean defer) {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    final StateConfigurationDSL<BenchmarkStates, Character, Void, Void> first = configuration.state(s1);
+    if (defer) {
+      first.defer('b');
+    }
+    first.when('a').moveTo(s2);
+    configuration.state(s2)
+                 .when('b').moveTo(s3);
+    configuration.state(s3)
+                 .when('c').moveTo(s1);
+    return(configuration);
+  }
+
+  @Benchmark
+  public BenchmarkStates deferred() {
+    deferring.fire('b');
+    deferring.fire('a');
+    return(deferring.fire('c'));
+  }
+
+  @Benchmark
+  public BenchmarkStates retried() {
+    boolean pending = false;
+    try {
+      refusing.fire('b');
+    }
+    catch (final UnknownTriggerException unknownTrigger) {
+      pending = true;
+    }
+    refusing.fire('a');
+    if (pending) {
+      refusing.fire('b');
+    }
+    return(refusing.fire('c'));
+  }
+
+  @Benchmark
+  public BenchmarkStates inOrder() {
+    deferring.fire('a');
+    deferring.fire('b');
+    return(deferring.fire('c'));
+  }
+}
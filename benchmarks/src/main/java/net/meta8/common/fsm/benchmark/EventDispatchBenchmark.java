@@ -0,0 +1,84 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateConfigurationDSL;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// 'when' dispatch : ordinal indexed tables (enum events) versus HashMap lookups (Character and String events).
+// s1 and s2 both accept 16 events, half of them through guarded transitions
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventDispatchBenchmark {
+  @Param({"enum", "character", "string"})
+  public String eventKind;
+
+  private StateMachine<BenchmarkStates, Object, Void, Void> machine;
+  private Object[]                                          events;
+  private int                                               next;
+
+  @Setup
+  public void setup() {
+    final BenchmarkEvents[] enumEvents = BenchmarkEvents.values();
+
+    events = new Object[enumEvents.length];
+    for (int i=0; i<events.length; ++i) {
+      switch (eventKind) {
+        case "enum"      : events[i] = enumEvents[i];                       break;
+        case "character" : events[i] = Character.valueOf((char) ('a' + i)); break;
+        default          : events[i] = "event-" + i;                        break;
+      }
+    }
+
+    final StateMachineConfiguration<BenchmarkStates, Object, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    final StateConfigurationDSL<BenchmarkStates, Object, Void, Void>     state1        = configuration.state(s1);
+    final StateConfigurationDSL<BenchmarkStates, Object, Void, Void>     state2        = configuration.state(s2);
+
+    for (int i=0; i<events.length; ++i) {
+      if (i % 2 == 0) {
+        state1.when(events[i]).moveTo(s2);
+        state2.when(events[i]).moveTo(s1);
+      }
+      else {
+        state1.when(events[i]).moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+        state2.when(events[i]).moveToIf(s1, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+      }
+    }
+
+    machine = new StateMachine<>(BenchmarkStates.class, configuration);
+  }
+
+  @Benchmark
+  public BenchmarkStates fire() {
+    final Object event = events[next];
+    next = (next + 1) & (events.length - 1);
+    return(machine.fire(event));
+  }
+}
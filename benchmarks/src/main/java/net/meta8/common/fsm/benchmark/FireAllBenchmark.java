@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// 16 events on the s1 <-> s2 ping pong of TimeoutChurnBenchmark (both states own a timeout transition) :
+// one fire() per event (16 locks, 16 timeouts cancelled and armed) versus a single fireAll() (1 lock, 1 timeout)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FireAllBenchmark {
+  private static final int BATCH = 16;
+
+  private final Character[] events = new Character[BATCH];
+
+  private HashedWheelTimerService                              wheel;
+  private StateMachine<BenchmarkStates, Character, Void, Void> machine;
+
+  @Setup
+  public void setup() {
+    wheel = new HashedWheelTimerService();
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1).moveAfter(Duration.ofHours(1), s3).when('a').moveTo(s2);
+    configuration.state(s2).moveAfter(Duration.ofHours(1), s3).when('a').moveTo(s1);
+    configuration.state(s3);
+
+    machine = new StateMachine<>(configuration.compile(), wheel);
+    Arrays.fill(events, 'a');
+  }
+
+  @TearDown
+  public void tearDown() {
+    machine.close();
+    wheel.close();
+  }
+
+  @Benchmark
+  public BenchmarkStates fire() {
+    BenchmarkStates state = null;
+    for (int i=0; i<BATCH; ++i) {
+      state = machine.fire(events[i]);
+    }
+    return(state);
+  }
+
+  @Benchmark
+  public int fireAll() {
+    return(machine.fireAll(events));
+  }
+}
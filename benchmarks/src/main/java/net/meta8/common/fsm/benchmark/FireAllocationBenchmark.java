@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// steady state fire() must not allocate : sequence, guarded, unguarded and complement transitions with entry/exit actions.
+// run it through main() : it adds the gc profiler and fails if gc.alloc.rate.norm isn't 0 B/op
+//   java -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.FireAllocationBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FireAllocationBenchmark {
+  private static final Character[] EVENTS = {'x', 'y', 'a', 'c', 'b', 'c', 'z'};
+
+  private StateMachine<BenchmarkStates, Character, Void, Void> machine;
+
+  @Setup
+  public void setup(final Blackhole blackhole) {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> blackhole.consume(event))
+                 .onExitIf((event, transition, sourceContext, destinationContext, machineContext) -> true,
+                           (event, transition, sourceContext, destinationContext, machineContext) -> blackhole.consume(event))
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> blackhole.consume(event))
+                 .when('b').moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> true)
+                 .other().stay((event, transition, sourceContext, destinationContext, machineContext) -> blackhole.consume(event));
+
+    configuration.state(s2)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> blackhole.consume(event))
+                 .when('c').moveTo(s1);
+
+    machine = new StateMachine<>(BenchmarkStates.class, configuration);
+  }
+
+  // one full cycle through every kind of transition
+  @Benchmark
+  @OperationsPerInvocation(7)
+  public void fireCycle(final Blackhole blackhole) {
+    for (int i=0; i<EVENTS.length; ++i) {
+      blackhole.consume(machine.fire(EVENTS[i]));
+    }
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final Collection<RunResult> results = new Runner(new OptionsBuilder().include(FireAllocationBenchmark.class.getSimpleName())
+                                                                         .addProfiler(GCProfiler.class)
+                                                                         .build()).run();
+
+    for (final RunResult result : results) {
+      final Result<?> allocations = result.getSecondaryResults().get("gc.alloc.rate.norm");
+      System.out.println(result.getParams().getBenchmark()+" : "+allocations.getScore()+" "+allocations.getScoreUnit());
+      // JMH reports a few hundredths of byte per op of profiling noise
+      if (allocations.getScore() >= 0.5) {
+        System.err.println("fire() allocates");
+        System.exit(1);
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// fire() per kind of transition, without any action : s1 <-> s2 ping pong, or a sequence loop on s1.
+// Sequences can't restart by themselves : a 'when' transition on 'd' resets them, so 1 fire out of 4 is a 'when' one
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FireBenchmark {
+  private static final Character[] SEQUENCE = {'a', 'b', 'c', 'd'};
+
+  private StateMachine<BenchmarkStates, Character, Void, Void> unguardedMachine;
+  private StateMachine<BenchmarkStates, Character, Void, Void> guardedMachine;
+  private StateMachine<BenchmarkStates, Character, Void, Void> complementMachine;
+  private StateMachine<BenchmarkStates, Character, Void, Void> sequenceMachine;
+  private StateMachine<BenchmarkStates, Character, Void, Void> reentrantSequenceMachine;
+
+  @Setup
+  public void setup() {
+    {
+      final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = configuration();
+      configuration.state(s1).when('a').moveTo(s2);
+      configuration.state(s2).when('a').moveTo(s1);
+      unguardedMachine = new StateMachine<>(BenchmarkStates.class, configuration);
+    }
+    {
+      final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = configuration();
+      configuration.state(s1)
+                   .when('a').moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> false)
+                   .when('a').moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+      configuration.state(s2)
+                   .when('a').moveToIf(s1, (event, transition, sourceContext, destinationContext, machineContext) -> false)
+                   .when('a').moveToIf(s1, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+      guardedMachine = new StateMachine<>(BenchmarkStates.class, configuration);
+    }
+    {
+      final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = configuration();
+      configuration.state(s1).when('b').stay().other().moveTo(s2);
+      configuration.state(s2).when('b').stay().other().moveTo(s1);
+      complementMachine = new StateMachine<>(BenchmarkStates.class, configuration);
+    }
+    {
+      final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = configuration();
+      configuration.state(s1).acceptSequence('a', 'b', 'c').when('d').stay();
+      sequenceMachine = new StateMachine<>(BenchmarkStates.class, configuration);
+    }
+    {
+      final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = configuration();
+      configuration.state(s1).acceptReentrantSequence('a', 'b', 'c').when('d').stay();
+      reentrantSequenceMachine = new StateMachine<>(BenchmarkStates.class, configuration);
+    }
+  }
+
+  private static StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration() {
+    return(new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty()));
+  }
+
+  @Benchmark
+  public BenchmarkStates unguarded() {
+    return(unguardedMachine.fire('a'));
+  }
+
+  // the first guard always refuses, the second one accepts
+  @Benchmark
+  public BenchmarkStates guarded() {
+    return(guardedMachine.fire('a'));
+  }
+
+  @Benchmark
+  public BenchmarkStates complement() {
+    return(complementMachine.fire('z'));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(4)
+  public BenchmarkStates sequence() {
+    BenchmarkStates state = null;
+    for (int i=0; i<SEQUENCE.length; ++i) {
+      state = sequenceMachine.fire(SEQUENCE[i]);
+    }
+    return(state);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(4)
+  public BenchmarkStates reentrantSequence() {
+    BenchmarkStates state = null;
+    for (int i=0; i<SEQUENCE.length; ++i) {
+      state = reentrantSequenceMachine.fire(SEQUENCE[i]);
+    }
+    return(state);
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.flow.MachineSubscriber;
+import net.meta8.common.fsm.flow.TransitionPublisher;
+import net.meta8.common.fsm.flow.TransitionRecord;
+import net.meta8.common.fsm.machine.StateMachine;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark. First, 'events' events through a SubmissionPublisher into a MachineSubscriber for a few batch sizes, next
+// to a plain fire() loop. Then the same events fired while a TransitionPublisher feeds a subscriber spending 'slowMicros' per
+// batch : batches grow as the subscriber falls behind, and records are dropped once its buffer is full.
+//   java -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.FlowPipeline [events] [slowMicros]
+public final class FlowPipeline {
+  public static void main(final String[] args) throws Exception {
+    final int events     = (args.length > 0) ? Integer.parseInt(args[0]) : 5_000_000;
+    final int slowMicros = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> definition = configuration(null).compile();
+
+    System.out.printf("%-28s %10s %12s %12s%n", "events in", "events", "total (ms)", "events/s");
+    for (int warmup=0; warmup<2; ++warmup) {
+      final StateMachine<BenchmarkStates, Character, Void, Void> machine = new StateMachine<>(definition);
+      final long                                                 start   = System.nanoTime();
+      for (int i=0; i<events; ++i) {
+        machine.fire(((i & 1) == 0) ? 'a' : 'b');
+      }
+      report("fire() loop", events, start);
+
+      for (final int batch : new int[] { 1, 16, 256 }) {
+        final MachineSubscriber<BenchmarkStates, Character, Void, Void> subscriber = new MachineSubscriber<>(new StateMachine<>(definition), batch);
+        final long                                                      begin      = System.nanoTime();
+        try (final SubmissionPublisher<Character> publisher = new SubmissionPublisher<>()) {
+          publisher.subscribe(subscriber);
+          for (int i=0; i<events; ++i) {
+            publisher.submit(((i & 1) == 0) ? 'a' : 'b');
+          }
+        }
+        subscriber.completion().join();
+        report("MachineSubscriber, batch " + batch, events, begin);
+      }
+    }
+
+    final TransitionPublisher<BenchmarkStates, Character>          transitions = new TransitionPublisher<>();
+    final StateMachine<BenchmarkStates, Character, Void, Void>     machine     = new StateMachine<>(configuration(transitions).compile());
+    final AtomicLong                                               batches     = new AtomicLong();
+    final AtomicLong                                               records     = new AtomicLong();
+    final CompletableFuture<Void>                                  done        = new CompletableFuture<>();
+    transitions.subscribe(new Flow.Subscriber<List<TransitionRecord<BenchmarkStates, Character>>>() {
+      private Flow.Subscription subscription;
+
+      @Override
+      public void onSubscribe(final Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+      }
+
+      @Override
+      public void onNext(final List<TransitionRecord<BenchmarkStates, Character>> batch) {
+        batches.incrementAndGet();
+        records.addAndGet(batch.size());
+        final long end = System.nanoTime() + slowMicros * 1000L;
+        while (System.nanoTime() < end) {
+          // busy
+        }
+        subscription.request(1);
+      }
+
+      @Override
+      public void onError(final Throwable failure) {
+        done.completeExceptionally(failure);
+      }
+
+      @Override
+      public void onComplete() {
+        done.complete(null);
+      }
+    });
+
+    final long start = System.nanoTime();
+    for (int i=0; i<events; ++i) {
+      machine.fire(((i & 1) == 0) ? 'a' : 'b');
+    }
+    final long millis = (System.nanoTime() - start) / 1_000_000;
+    transitions.close();
+    done.join();
+
+    System.out.printf("%n%-28s %10s %12s %12s %12s %12s %12s%n", "transitions out", "events", "total (ms)", "events/s", "batches", "mean batch", "dropped");
+    System.out.printf("%-28s %10d %12d %12.0f %12d %12.1f %12d%n", "slow subscriber, " + slowMicros + " us", events, millis, events * 1000.0 / Math.max(1, millis),
+                      batches.get(), records.get() / (double) batches.get(), transitions.droppedRecords());
+  }
+
+  private static StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration(final TransitionPublisher<BenchmarkStates, Character> transitions) {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    if (transitions != null) {
+      configuration.listener(transitions);
+    }
+    configuration.state(s1)
+                 .when('a').moveTo(s2);
+    configuration.state(s2)
+                 .when('b').moveTo(s1);
+    return(configuration);
+  }
+
+  private static void report(final String label,
+                             final int    events,
+                             final long   start) {
+    final long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+    System.out.printf("%-28s %10d %12d %12.0f%n", label, events, millis, events * 1000.0 / millis);
+  }
+}
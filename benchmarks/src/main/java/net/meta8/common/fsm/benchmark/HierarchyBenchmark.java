@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.action.Action;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// a round trip s2 -> s3 -> s2 ('a' then 'b', one entry and one exit action per state) : in a flat machine, with s2 and s3 nested
+// in s1 and their own transitions, and with s2 and s3 nested in s1 (itself in s4) inheriting the transitions of s1. Exit and entry
+// paths are precomputed, inherited transitions are merged in the dispatch table of each state : all three should cost the same
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HierarchyBenchmark {
+  private long                                                   actions;
+  private StateMachine<BenchmarkStates, Character, Void, Void>   flat;
+  private StateMachine<BenchmarkStates, Character, Void, Void>   nested;
+  private StateMachine<BenchmarkStates, Character, Void, Void>   inherited;
+
+  @Setup
+  public void setup() {
+    final Action<BenchmarkStates, Character, Void, Void> action = (event, transition, sourceContext, destinationContext, machineContext) -> ++actions;
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> flatConfiguration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    flatConfiguration.state(s2)
+                     .onEntry(action)
+                     .onExit(action)
+                     .when('a').moveTo(s3);
+    flatConfiguration.state(s3)
+                     .onEntry(action)
+                     .onExit(action)
+                     .when('b').moveTo(s2);
+    flat = new StateMachine<>(flatConfiguration.compile());
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> nestedConfiguration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    nestedConfiguration.state(s2)
+                       .parent(s1)
+                       .onEntry(action)
+                       .onExit(action)
+                       .when('a').moveTo(s3);
+    nestedConfiguration.state(s3)
+                       .parent(s1)
+                       .onEntry(action)
+                       .onExit(action)
+                       .when('b').moveTo(s2);
+    nestedConfiguration.state(s1)
+                       .onEntry(action)
+                       .onExit(action);
+    nested = new StateMachine<>(nestedConfiguration.compile());
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> inheritedConfiguration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    inheritedConfiguration.state(s2)
+                          .parent(s1)
+                          .onEntry(action)
+                          .onExit(action);
+    inheritedConfiguration.state(s3)
+                          .parent(s1)
+                          .onEntry(action)
+                          .onExit(action);
+    inheritedConfiguration.state(s1)
+                          .parent(s4)
+                          .onEntry(action)
+                          .onExit(action)
+                          .when('a').moveTo(s3)
+                          .when('b').moveTo(s2);
+    inheritedConfiguration.state(s4)
+                          .onEntry(action)
+                          .onExit(action);
+    inherited = new StateMachine<>(inheritedConfiguration.compile());
+  }
+
+  @Benchmark
+  public BenchmarkStates flat() {
+    flat.fire('a');
+    return(flat.fire('b'));
+  }
+
+  @Benchmark
+  public BenchmarkStates nested() {
+    nested.fire('a');
+    return(nested.fire('b'));
+  }
+
+  @Benchmark
+  public BenchmarkStates inherited() {
+    inherited.fire('a');
+    return(inherited.fire('b'));
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateConfigurationDSL;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// int opcodes : fire(Integer) boxes opcodes outside of the Integer cache and looks them up in HashMap(s),
+// fireInt looks them up in trove int maps. Run with -prof gc to compare allocation rates
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IntEventBenchmark {
+  private static final int OPCODES    = 16;
+  private static final int FIRST_CODE = 1000; // outside of the Integer cache
+
+  private StateMachine<BenchmarkStates, Integer, Void, Void> machine;
+  private int                                                next;
+
+  @Setup
+  public void setup() {
+    final StateMachineConfiguration<BenchmarkStates, Integer, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    final StateConfigurationDSL<BenchmarkStates, Integer, Void, Void>     state1        = configuration.state(s1);
+    final StateConfigurationDSL<BenchmarkStates, Integer, Void, Void>     state2        = configuration.state(s2);
+
+    for (int i=0; i<OPCODES; ++i) {
+      state1.when(FIRST_CODE + i).moveTo(s2);
+      state2.when(FIRST_CODE + i).moveTo(s1);
+    }
+
+    machine = new StateMachine<>(BenchmarkStates.class, configuration);
+  }
+
+  private int nextOpcode() {
+    next = (next + 1) & (OPCODES - 1);
+    return(FIRST_CODE + next);
+  }
+
+  @Benchmark
+  public BenchmarkStates fireBoxed() {
+    return(machine.fire(nextOpcode()));
+  }
+
+  @Benchmark
+  public BenchmarkStates fireInt() {
+    return(machine.fireInt(nextOpcode()));
+  }
+}
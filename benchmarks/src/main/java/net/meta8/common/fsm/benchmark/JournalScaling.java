@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.codec.Codecs;
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.journal.EventJournal;
+import net.meta8.common.fsm.machine.StateMachineRegistry;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : raw EventJournal appends, then random fires on N journaled StateMachineRegistry machines
+// (against the same fires without journal), then the recovery of a new registry from that journal.
+//   java -Xmx2g -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.JournalScaling [machines] [events] [directory]
+public final class JournalScaling {
+  public static void main(final String[] args) throws Exception {
+    final int  machines = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    final int  events   = (args.length > 1) ? Integer.parseInt(args[1]) : 10_000_000;
+    final Path parent   = (args.length > 2) ? Files.createDirectories(Paths.get(args[2])) : null;
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2);
+    configuration.state(s2)
+                 .when('a').moveTo(s1);
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> definition = configuration.compile();
+
+    final HashedWheelTimerService timer = new HashedWheelTimerService();
+    final Path                    raw   = (parent == null) ? Files.createTempDirectory("raw") : Files.createTempDirectory(parent, "raw");
+    final Path                    fired = (parent == null) ? Files.createTempDirectory("fired") : Files.createTempDirectory(parent, "fired");
+    try {
+      try (final EventJournal<Character> journal = EventJournal.open(raw, Codecs.characters())) {
+        final long start = System.nanoTime();
+        for (int i=0; i<events; ++i) {
+          journal.append(EventJournal.RecordType.FIRE, i % machines, 'a');
+        }
+        journal.sync();
+        print("raw appends", events, start);
+      }
+
+      try (final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, machines)) {
+        fire("fires", registry, machines, events);
+      }
+
+      try (final EventJournal<Character>                                     journal  = EventJournal.open(fired, Codecs.characters());
+           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, machines)) {
+        registry.recover(journal);
+        fire("journaled fires", registry, machines, events);
+        journal.sync();
+      }
+
+      try (final EventJournal<Character>                                     journal  = EventJournal.open(fired, Codecs.characters());
+           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, machines)) {
+        final long start = System.nanoTime();
+        registry.recover(journal);
+        print("recovery", machines + events, start);
+        System.out.printf("%-16s %12d machines, journal of %d MB%n", "", registry.size(), size(fired) >> 20);
+      }
+    }
+    finally {
+      timer.close();
+      delete(raw);
+      delete(fired);
+    }
+  }
+
+  private static void fire(final String                                                       label,
+                           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry,
+                           final int                                                          machines,
+                           final int                                                          events) {
+    for (int i=0; i<machines; ++i) {
+      registry.create(i);
+    }
+
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final long              start  = System.nanoTime();
+    for (int i=0; i<events; ++i) {
+      registry.fire(random.nextInt(machines), 'a');
+    }
+    print(label, events, start);
+  }
+
+  private static void print(final String label,
+                            final long   records,
+                            final long   start) {
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-16s %12d records %10.0f ms %14.0f records/s%n", label, records, seconds * 1000, records / seconds);
+  }
+
+  private static long size(final Path directory) throws Exception {
+    return(Files.list(directory).mapToLong(path -> path.toFile().length()).sum());
+  }
+
+  private static void delete(final Path directory) throws Exception {
+    Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.listener.TransitionRecorder;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// cost of the transition listener on the FireBenchmark unguarded and guarded ping pongs : no listener (the fire path
+// doesn't read the clock), a listener doing nothing (clock reads only), and the built-in TransitionRecorder
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListenerBenchmark {
+  @Param({"none", "noop", "recorder"})
+  public String listener;
+
+  private StateMachine<BenchmarkStates, Character, Void, Void> unguardedMachine;
+  private StateMachine<BenchmarkStates, Character, Void, Void> guardedMachine;
+
+  @Setup
+  public void setup() {
+    {
+      final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = configuration();
+      configuration.state(s1).when('a').moveTo(s2);
+      configuration.state(s2).when('a').moveTo(s1);
+      unguardedMachine = new StateMachine<>(configuration.compile());
+    }
+    {
+      final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = configuration();
+      configuration.state(s1)
+                   .when('a').moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> false)
+                   .when('a').moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+      configuration.state(s2)
+                   .when('a').moveToIf(s1, (event, transition, sourceContext, destinationContext, machineContext) -> false)
+                   .when('a').moveToIf(s1, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+      guardedMachine = new StateMachine<>(configuration.compile());
+    }
+  }
+
+  private StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration() {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    switch (listener) {
+      case "noop":
+        configuration.listener((source, target, event, guardNanos, actionNanos) -> {});
+        break;
+      case "recorder":
+        configuration.listener(new TransitionRecorder<>(BenchmarkStates.class));
+        break;
+      default:
+        break;
+    }
+    return(configuration);
+  }
+
+  @Benchmark
+  public BenchmarkStates unguarded() {
+    return(unguardedMachine.fire('a'));
+  }
+
+  @Benchmark
+  public BenchmarkStates guarded() {
+    return(guardedMachine.fire('a'));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.listener.LatencyHistogram;
+import net.meta8.common.fsm.machine.ExecutionMode;
+import net.meta8.common.fsm.machine.MailboxPolicy;
+import net.meta8.common.fsm.machine.OverflowPolicy;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : a producer gives 'events' events to fireAsync as fast as it can, while the action of the machine takes
+// 'workMicros' : a burst the machine can't keep up with. Events are their own send time (System.nanoTime), so that the action
+// records how long each one waited. Once with the default unbounded mailbox, then with a 'capacity' bounded one per OverflowPolicy
+// (COALESCE behaves as REJECT here : events are never equal).
+//   java -Xmx2g -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.MailboxBurst [events] [workMicros] [capacity]
+public final class MailboxBurst {
+  public static void main(final String[] args) throws Exception {
+    final int events     = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    final int workMicros = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+    final int capacity   = (args.length > 2) ? Integer.parseInt(args[2]) : 1024;
+
+    final LatencyHistogram waits = new LatencyHistogram();
+    final StateMachineConfiguration<BenchmarkStates, Long, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .other().stay((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   final long now = System.nanoTime();
+                   waits.record(now - event);
+                   while (System.nanoTime() - now < workMicros * 1000L) {
+                     // busy
+                   }
+                 });
+    final MachineDefinition<BenchmarkStates, Long, Void, Void> definition = configuration.compile();
+
+    System.out.printf("%-12s %10s %10s %10s %12s %12s %14s %14s%n", "mailbox", "events", "fired", "refused", "total (ms)", "peak depth", "p99 wait (us)", "max wait (us)");
+    run("unbounded", definition, null, events, waits);
+    for (final OverflowPolicy overflow : OverflowPolicy.values()) {
+      run(overflow.name(), definition, new MailboxPolicy(capacity, overflow), events, waits);
+    }
+  }
+
+  private static void run(final String                                               label,
+                          final MachineDefinition<BenchmarkStates, Long, Void, Void> definition,
+                          final MailboxPolicy                                        policy,
+                          final int                                                  events,
+                          final LatencyHistogram                                     waits) throws Exception {
+    final StateMachine<BenchmarkStates, Long, Void, Void> machine  = (policy == null) ? new StateMachine<>(definition)
+                                                                                      : new StateMachine<>(definition, HashedWheelTimerService.shared(), ExecutionMode.PLATFORM_THREADS, policy);
+    final ExecutorService                                 executor = Executors.newSingleThreadExecutor();
+    waits.reset();
+
+    final long start = System.nanoTime();
+    long       peak  = 0;
+    for (int i=0; i<events; ++i) {
+      machine.fireAsync(System.nanoTime(), executor);
+      if ((i & 1023) == 0) {
+        // unbounded : events given minus events fired, the consumer being the only writer of the histogram
+        peak = Math.max(peak, (policy == null) ? i - waits.count() : machine.mailboxDepth());
+      }
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    final long millis = (System.nanoTime() - start) / 1_000_000;
+
+    System.out.printf("%-12s %10d %10d %10d %12d %12d %14d %14d%n", label, events, waits.count(), events - waits.count(), millis, peak,
+                      waits.valueAtPercentile(99) / 1000, waits.max() / 1000);
+  }
+}
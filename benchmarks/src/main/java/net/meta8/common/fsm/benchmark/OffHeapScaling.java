@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.OffHeapStateTable;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : N context free machines in a direct then in a file backed OffHeapStateTable.
+// Reports heap retained by the table, creation time, then random fires per second and the GC activity meanwhile.
+//   java -Xmx1g -XX:MaxDirectMemorySize=1g -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.OffHeapScaling [machines] [fires]
+public final class OffHeapScaling {
+  public static void main(final String[] args) throws Exception {
+    final int machines = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000_000;
+    final int fires    = (args.length > 1) ? Integer.parseInt(args[1]) : 50_000_000;
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2);
+    configuration.state(s2)
+                 .when('a').moveTo(s1);
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> definition = configuration.compile();
+
+    System.out.printf("%-12s %12s %12s %12s %12s %14s %10s %10s%n", "table", "machines", "heap (MB)", "table (MB)", "create (ms)", "fires/s", "gc count", "gc (ms)");
+
+    final long heapBefore = usedHeap();
+    try (final OffHeapStateTable<BenchmarkStates, Character> table = OffHeapStateTable.allocate(definition, machines)) {
+      run("direct", table, machines, fires, heapBefore);
+    }
+
+    final Path file = Files.createTempFile("states", ".table");
+    try {
+      try (final OffHeapStateTable<BenchmarkStates, Character> table = OffHeapStateTable.open(definition, file, machines)) {
+        run("mapped", table, machines, fires, heapBefore);
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
+  private static void run(final String                                       label,
+                          final OffHeapStateTable<BenchmarkStates, Character> table,
+                          final int                                          machines,
+                          final int                                          fires,
+                          final long                                         heapBefore) throws Exception {
+    final long createStart = System.nanoTime();
+    for (int i=0; i<machines; ++i) {
+      table.create(i);
+    }
+    final long createMillis = (System.nanoTime() - createStart) / 1_000_000;
+    final long heap         = usedHeap() - heapBefore;
+
+    final ThreadLocalRandom random        = ThreadLocalRandom.current();
+    final long              gcCountBefore = gcCount();
+    final long              gcTimeBefore  = gcMillis();
+    final long              fireStart     = System.nanoTime();
+    for (int i=0; i<fires; ++i) {
+      table.fire(random.nextInt(machines), 'a');
+    }
+    final double seconds = (System.nanoTime() - fireStart) / 1e9;
+
+    System.out.printf("%-12s %12d %12.1f %12.1f %12d %14.0f %10d %10d%n",
+                      label, machines, heap / (1024.0 * 1024.0), (4.0 * machines) / (1024.0 * 1024.0), createMillis,
+                      fires / seconds, gcCount() - gcCountBefore, gcMillis() - gcTimeBefore);
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += collector.getCollectionCount();
+    }
+    return(count);
+  }
+
+  private static long gcMillis() {
+    long millis = 0;
+    for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += collector.getCollectionTime();
+    }
+    return(millis);
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    for (int i=0; i<3; ++i) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    final Runtime runtime = Runtime.getRuntime();
+    return(runtime.totalMemory() - runtime.freeMemory());
+  }
+}
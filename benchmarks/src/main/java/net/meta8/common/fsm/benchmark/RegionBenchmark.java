@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.RegionStateMachine;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// one event dispatched to 4 orthogonal regions, each one performing an action burning 'work' Blackhole tokens : regions fired
+// one after the other by the caller thread, and concurrently on a 4 threads ForkJoinPool. The pool only pays off once actions
+// outweigh the fork/join hand-off, and only with spare cores
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegionBenchmark {
+  @Param({"0", "10000"})
+  private int work;
+
+  private ForkJoinPool                                                pool;
+  private RegionStateMachine<BenchmarkStates, Character, Void, Void> sequential;
+  private RegionStateMachine<BenchmarkStates, Character, Void, Void> concurrent;
+
+  @Setup
+  public void setup() {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.regions(BenchmarkStates.values());
+    for (final BenchmarkStates state : BenchmarkStates.values()) {
+      configuration.state(state)
+                   .when('a').stay((event, transition, sourceContext, destinationContext, machineContext) -> Blackhole.consumeCPU(work));
+    }
+
+    pool       = new ForkJoinPool(BenchmarkStates.values().length);
+    sequential = new RegionStateMachine<>(configuration.compileRegions());
+    concurrent = new RegionStateMachine<>(configuration.compileRegions(), HashedWheelTimerService.shared(), pool);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public int sequential() {
+    return(sequential.fire('a'));
+  }
+
+  @Benchmark
+  public int concurrent() {
+    return(concurrent.fire('a'));
+  }
+}
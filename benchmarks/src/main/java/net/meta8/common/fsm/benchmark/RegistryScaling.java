@@ -0,0 +1,130 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.machine.StateMachineRegistry;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : heap retained per machine by N StateMachine objects versus N instances of a StateMachineRegistry,
+// for idle machines and for machines waiting on a timeout.
+//   java -Xmx4g -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.RegistryScaling [machines...]
+public final class RegistryScaling {
+  public static void main(final String[] args) throws Exception {
+    final int[] counts = new int[Math.max(1, args.length)];
+    counts[0] = 1_000_000;
+    for (int i=0; i<args.length; ++i) {
+      counts[i] = Integer.parseInt(args[i]);
+    }
+
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> idle    = definition(false);
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> timeout = definition(true);
+
+    // warm up class loading and the JIT, so that the first row isn't noise
+    measureObjects(null, 10_000, idle);
+    measureRegistry(null, 10_000, idle);
+
+    System.out.printf("%-32s %12s %14s %16s %12s%n", "machines", "count", "heap (MB)", "bytes/machine", "build (ms)");
+    for (final int count : counts) {
+      measureObjects("StateMachine, idle", count, idle);
+      measureRegistry("registry, idle", count, idle);
+      measureObjects("StateMachine, pending timeout", count, timeout);
+      measureRegistry("registry, pending timeout", count, timeout);
+    }
+  }
+
+  private static MachineDefinition<BenchmarkStates, Character, Void, Void> definition(final boolean withTimeout) {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    if (withTimeout) {
+      configuration.state(s1)
+                   .moveAfter(Duration.ofHours(1), s2)
+                   .acceptSequence('x', 'y')
+                   .when('a').moveTo(s2);
+    }
+    else {
+      configuration.state(s1)
+                   .acceptSequence('x', 'y')
+                   .when('a').moveTo(s2);
+    }
+    configuration.state(s2)
+                 .when('b').moveTo(s1);
+    return(configuration.compile());
+  }
+
+  private static void measureObjects(final String                                                    label,
+                                     final int                                                       count,
+                                     final MachineDefinition<BenchmarkStates, Character, Void, Void> definition) throws Exception {
+    final long heapBefore = usedHeap();
+    final long start      = System.nanoTime();
+
+    // machines are indexed by their position : an array rather than a map keyed by id, in favour of StateMachine
+    final List<StateMachine<BenchmarkStates, Character, Void, Void>> machines = new ArrayList<>(count);
+    for (int i=0; i<count; ++i) {
+      machines.add(new StateMachine<>(definition, HashedWheelTimerService.shared()));
+    }
+
+    report(label, count, heapBefore, start);
+    machines.forEach(StateMachine::close);
+  }
+
+  private static void measureRegistry(final String                                                    label,
+                                      final int                                                       count,
+                                      final MachineDefinition<BenchmarkStates, Character, Void, Void> definition) throws Exception {
+    final long heapBefore = usedHeap();
+    final long start      = System.nanoTime();
+
+    final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, HashedWheelTimerService.shared(), count);
+    for (long id=0; id<count; ++id) {
+      registry.create(id * 31);
+    }
+
+    report(label, count, heapBefore, start);
+    registry.close();
+  }
+
+  private static void report(final String label,
+                             final int    count,
+                             final long   heapBefore,
+                             final long   start) throws InterruptedException {
+    final long buildMillis = (System.nanoTime() - start) / 1_000_000;
+    final long heap        = usedHeap() - heapBefore;
+
+    if (label != null) {
+      System.out.printf("%-32s %12d %14.1f %16d %12d%n", label, count, heap / (1024.0 * 1024.0), heap / count, buildMillis);
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    for (int i=0; i<3; ++i) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    final Runtime runtime = Runtime.getRuntime();
+    return(runtime.totalMemory() - runtime.freeMemory());
+  }
+}
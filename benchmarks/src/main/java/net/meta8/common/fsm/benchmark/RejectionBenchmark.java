@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.machine.FireResult;
+import net.meta8.common.fsm.machine.StateMachine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// cost of a refused event : fire() throwing a (stackless) UnknownTriggerException versus tryFire() returning a FireResult,
+// next to an accepted event for reference
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RejectionBenchmark {
+  private StateMachine<BenchmarkStates, Character, Void, Void> machine;
+
+  @Setup
+  public void setup() {
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .when('a').stay();
+
+    machine = new StateMachine<>(BenchmarkStates.class, configuration);
+  }
+
+  @Benchmark
+  public Object accepted() {
+    return(machine.fire('a'));
+  }
+
+  @Benchmark
+  public Object rejectedFire() {
+    try {
+      return(machine.fire('z'));
+    }
+    catch (final UnknownTriggerException unknownTrigger) {
+      return(unknownTrigger);
+    }
+  }
+
+  @Benchmark
+  public FireResult rejectedTryFire() {
+    return(machine.tryFire('z'));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.ShardedMachineExecutor;
+import net.meta8.common.fsm.machine.StateMachineRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : events per second on 'machines' machines spread over 1, 2, 4 ... 'maxShards' shards of a
+// ShardedMachineExecutor, fed by as many producer threads as shards. The same producers firing directly on a single
+// (synchronized) StateMachineRegistry give the baseline of each row.
+//   java -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.ShardScaling [maxShards] [machines] [events]
+public final class ShardScaling {
+  public static void main(final String[] args) throws Exception {
+    final int maxShards = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    final int machines  = (args.length > 1) ? Integer.parseInt(args[1]) : 100_000;
+    final int events    = (args.length > 2) ? Integer.parseInt(args[2]) : 20_000_000;
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1).when('a').moveTo(s2);
+    configuration.state(s2).when('a').moveTo(s1);
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> definition = configuration.compile();
+
+    // warm up both paths
+    sharded(definition, 1, machines, events / 4);
+    registry(definition, 1, machines, events / 4);
+
+    System.out.printf("%8s %10s %18s %18s%n", "shards", "producers", "sharded (ev/s)", "registry (ev/s)");
+    for (int shards=1; shards<=maxShards; shards*=2) {
+      System.out.printf("%8d %10d %18.0f %18.0f%n", shards, shards, sharded(definition, shards, machines, events), registry(definition, shards, machines, events));
+    }
+  }
+
+  private static double sharded(final MachineDefinition<BenchmarkStates, Character, Void, Void> definition,
+                                final int                                                       shards,
+                                final int                                                       machines,
+                                final int                                                       events) throws Exception {
+    final ShardedMachineExecutor<BenchmarkStates, Character, Void, Void> executor = new ShardedMachineExecutor<>(definition, shards);
+    try {
+      for (long key=0; key<machines; ++key) {
+        executor.create(key);
+      }
+      executor.flush().get();
+
+      final long start = System.nanoTime();
+      produce(shards, events, () -> executor.send(ThreadLocalRandom.current().nextInt(machines), 'a'));
+      executor.flush().get();
+      return(events / ((System.nanoTime() - start) / 1e9));
+    }
+    finally {
+      executor.close();
+    }
+  }
+
+  private static double registry(final MachineDefinition<BenchmarkStates, Character, Void, Void> definition,
+                                 final int                                                       producers,
+                                 final int                                                       machines,
+                                 final int                                                       events) throws Exception {
+    try (final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition)) {
+      for (long key=0; key<machines; ++key) {
+        registry.create(key);
+      }
+
+      final long start = System.nanoTime();
+      produce(producers, events, () -> registry.fire(ThreadLocalRandom.current().nextInt(machines), 'a'));
+      return(events / ((System.nanoTime() - start) / 1e9));
+    }
+  }
+
+  private static void produce(final int      producers,
+                              final int      events,
+                              final Runnable event) throws InterruptedException {
+    final List<Thread> threads = new ArrayList<>();
+    for (int i=0; i<producers; ++i) {
+      threads.add(new Thread(() -> {
+        for (int j=0; j<events / producers; ++j) {
+          event.run();
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+  }
+}
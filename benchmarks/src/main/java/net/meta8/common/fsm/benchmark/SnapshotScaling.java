@@ -0,0 +1,113 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.codec.Codec;
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.ExecutionMode;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : a checkpoint of N machines (a local and a global context each, half of them with a pending timeout)
+// in a direct buffer, then their restoration, against the construction of as many new machines.
+//   java -Xmx2g -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.SnapshotScaling [machines]
+public final class SnapshotScaling {
+  private static final Codec<AtomicLong> CODEC = new Codec<AtomicLong>() {
+    @Override
+    public void encode(final AtomicLong value, final ByteBuffer buffer) {
+      buffer.putLong(value.get());
+    }
+
+    @Override
+    public AtomicLong decode(final ByteBuffer buffer) {
+      return(new AtomicLong(buffer.getLong()));
+    }
+  };
+
+  @SuppressWarnings("unchecked")
+  public static void main(final String[] args) throws Exception {
+    final int machines = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+
+    final StateMachineConfiguration<BenchmarkStates, Character, AtomicLong, AtomicLong> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.of(new AtomicLong()), Optional.of(context -> new AtomicLong(context.get())));
+    configuration.state(s1)
+                 .initialContext(new AtomicLong(), context -> new AtomicLong(context.get()))
+                 .when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> machineContext.get().incrementAndGet());
+    configuration.state(s2)
+                 .moveAfter(Duration.ofHours(1), s1)
+                 .when('a').moveTo(s1);
+    final MachineDefinition<BenchmarkStates, Character, AtomicLong, AtomicLong> definition = configuration.compile();
+
+    final HashedWheelTimerService                                            timer    = new HashedWheelTimerService();
+    final StateMachine<BenchmarkStates, Character, AtomicLong, AtomicLong>[] restored = (StateMachine<BenchmarkStates, Character, AtomicLong, AtomicLong>[]) new StateMachine<?, ?, ?, ?>[machines];
+    try {
+      long start = System.nanoTime();
+      final StateMachine<BenchmarkStates, Character, AtomicLong, AtomicLong>[] running = (StateMachine<BenchmarkStates, Character, AtomicLong, AtomicLong>[]) new StateMachine<?, ?, ?, ?>[machines];
+      for (int i=0; i<machines; ++i) {
+        running[i] = new StateMachine<>(definition, timer);
+        if ((i & 1) == 0) {
+          running[i].fire('a');
+        }
+      }
+      print("construction", machines, start);
+
+      final ByteBuffer checkpoint = ByteBuffer.allocateDirect(machines * 64);
+      start = System.nanoTime();
+      for (final StateMachine<BenchmarkStates, Character, AtomicLong, AtomicLong> machine : running) {
+        machine.snapshot(checkpoint, CODEC, CODEC);
+      }
+      print("snapshot", machines, start);
+      System.out.printf("%-16s %12d bytes per machine%n", "", checkpoint.position() / machines);
+
+      for (final StateMachine<BenchmarkStates, Character, AtomicLong, AtomicLong> machine : running) {
+        machine.close();
+      }
+
+      checkpoint.flip();
+      start = System.nanoTime();
+      for (int i=0; i<machines; ++i) {
+        restored[i] = new StateMachine<>(definition, timer, ExecutionMode.PLATFORM_THREADS, checkpoint, CODEC, CODEC);
+      }
+      print("restore", machines, start);
+    }
+    finally {
+      for (final StateMachine<BenchmarkStates, Character, AtomicLong, AtomicLong> machine : restored) {
+        if (machine != null) {
+          machine.close();
+        }
+      }
+      timer.close();
+    }
+  }
+
+  private static void print(final String label,
+                            final long   machines,
+                            final long   start) {
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-16s %12d machines %10.0f ms %14.0f machines/s%n", label, machines, seconds * 1000, machines / seconds);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.ScheduledExecutorTimerService;
+import net.meta8.common.fsm.timer.TimerService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// s1 <-> s2 ping pong where both states own a (never reached) timeout transition :
+// every fire() cancels the pending timeout and schedules the one of the new state
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeoutChurnBenchmark {
+  @Param({"wheel", "executor"})
+  public String timerKind;
+
+  private HashedWheelTimerService     wheel;
+  private ScheduledThreadPoolExecutor executor;
+
+  private StateMachine<BenchmarkStates, Character, Void, Void> machine;
+
+  @Setup
+  public void setup() {
+    final TimerService timer;
+    if ("wheel".equals(timerKind)) {
+      wheel = new HashedWheelTimerService();
+      timer = wheel;
+    }
+    else {
+      executor = new ScheduledThreadPoolExecutor(1);
+      executor.setRemoveOnCancelPolicy(true);
+      timer    = new ScheduledExecutorTimerService(executor);
+    }
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1).moveAfter(Duration.ofHours(1), s3).when('a').moveTo(s2);
+    configuration.state(s2).moveAfter(Duration.ofHours(1), s3).when('a').moveTo(s1);
+    configuration.state(s3);
+
+    machine = new StateMachine<>(BenchmarkStates.class, configuration, timer);
+  }
+
+  @TearDown
+  public void tearDown() {
+    machine.close();
+    if (wheel != null) {
+      wheel.close();
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Benchmark
+  public BenchmarkStates fire() {
+    return(machine.fire('a'));
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.codec.Codecs;
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.journal.EventJournal;
+import net.meta8.common.fsm.journal.TimeoutStore;
+import net.meta8.common.fsm.machine.StateMachineRegistry;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : random fires on N journaled StateMachineRegistry machines, every other transition arming a timeout,
+// without and with a TimeoutStore. Then the recovery of a new registry, once the shortest timeouts are overdue.
+//   java -Xmx2g -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.TimeoutStoreScaling [machines] [events] [store sync interval ms] [directory]
+public final class TimeoutStoreScaling {
+  public static void main(final String[] args) throws Exception {
+    final int  machines = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    final int  events   = (args.length > 1) ? Integer.parseInt(args[1]) : 10_000_000;
+    final long syncMs   = (args.length > 2) ? Long.parseLong(args[2]) : TimeoutStore.DEFAULT_SYNC_INTERVAL.toMillis();
+    final Path parent   = (args.length > 3) ? Files.createDirectories(Paths.get(args[3])) : null;
+
+    final Duration syncInterval = Duration.ofMillis(syncMs);
+
+    // 'a' arms a long timeout, 'b' a short one : both are pending on half the machines
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .when('a').moveTo(s2)
+                 .when('b').moveTo(s3);
+    configuration.state(s2)
+                 .moveAfter(Duration.ofHours(1), s1)
+                 .when('a', 'b').moveTo(s1);
+    configuration.state(s3)
+                 .moveAfter(Duration.ofSeconds(2), s1)
+                 .when('a', 'b').moveTo(s1);
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> definition = configuration.compile();
+
+    final HashedWheelTimerService timer     = new HashedWheelTimerService();
+    final Path                    plain     = (parent == null) ? Files.createTempDirectory("plain") : Files.createTempDirectory(parent, "plain");
+    final Path                    durable   = (parent == null) ? Files.createTempDirectory("durable") : Files.createTempDirectory(parent, "durable");
+    final Path                    deadlines = durable.resolve("timeouts");
+    try {
+      try (final EventJournal<Character>                                     journal  = EventJournal.open(plain, Codecs.characters());
+           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, machines)) {
+        registry.recover(journal);
+        fire("fires", registry, machines, events);
+      }
+
+      try (final EventJournal<Character>                                     journal  = EventJournal.open(durable.resolve("journal"), Codecs.characters());
+           final TimeoutStore                                                store    = TimeoutStore.open(deadlines, machines, syncInterval);
+           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, machines)) {
+        registry.recover(journal, store);
+        fire("durable fires", registry, machines, events);
+        System.out.printf("%-16s %12d timeout records%n", "", store.size());
+      }
+      Thread.sleep(2_000); // the short timeouts are overdue
+
+      try (final EventJournal<Character>                                     journal  = EventJournal.open(plain, Codecs.characters());
+           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, machines)) {
+        final long start = System.nanoTime();
+        registry.recover(journal);
+        print("recovery", machines + events, start);
+      }
+
+      try (final EventJournal<Character>                                     journal  = EventJournal.open(durable.resolve("journal"), Codecs.characters());
+           final TimeoutStore                                                store    = TimeoutStore.open(deadlines, machines, syncInterval);
+           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, machines)) {
+        final int  pending = store.size();
+        final long start   = System.nanoTime();
+        registry.recover(journal, store);
+        print("durable recovery", machines + events, start);
+        System.out.printf("%-16s %12d timeout records, %d left (overdue fired, stale dropped)%n", "", pending, store.size());
+      }
+    }
+    finally {
+      timer.close();
+      delete(plain);
+      delete(durable);
+    }
+  }
+
+  private static void fire(final String                                                       label,
+                           final StateMachineRegistry<BenchmarkStates, Character, Void, Void> registry,
+                           final int                                                          machines,
+                           final int                                                          events) {
+    for (int i=0; i<machines; ++i) {
+      registry.create(i);
+    }
+
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final long              start  = System.nanoTime();
+    for (int i=0; i<events; ++i) {
+      registry.fire(random.nextInt(machines), random.nextBoolean() ? 'a' : 'b');
+    }
+    print(label, events, start);
+  }
+
+  private static void print(final String label,
+                            final long   records,
+                            final long   start) {
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-16s %12d records %10.0f ms %14.0f records/s%n", label, records, seconds * 1000, records / seconds);
+  }
+
+  private static void delete(final Path directory) throws Exception {
+    Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+  }
+}
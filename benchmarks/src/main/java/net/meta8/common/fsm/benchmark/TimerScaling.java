@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateMachineConfiguration;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.ScheduledExecutorTimerService;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static net.meta8.common.fsm.benchmark.BenchmarkStates.*;
+
+// not a JMH benchmark : builds N live machines waiting on a timeout and reports threads and heap they hold.
+//   java -cp target/benchmarks.jar net.meta8.common.fsm.benchmark.TimerScaling [maxMachines] [maxMachinesWithOwnExecutor]
+// run it with a large heap (-Xmx4g) for 1M machines
+public final class TimerScaling {
+  public static void main(final String[] args) throws Exception {
+    final int maxMachines                = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    final int maxMachinesWithOwnExecutor = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+    final StateMachineConfiguration<BenchmarkStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(BenchmarkStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .moveAfter(Duration.ofHours(1), s2)
+                 .when('a').moveTo(s2);
+    configuration.state(s2);
+
+    final MachineDefinition<BenchmarkStates, Character, Void, Void> definition = configuration.compile();
+
+    // warm up class loading and the JIT, so that the first row isn't noise
+    measure(null, 10_000, definition, false);
+
+    System.out.printf("%-22s %12s %14s %14s %16s %12s%n", "timer", "machines", "live threads", "heap (MB)", "bytes/machine", "build (ms)");
+
+    for (int machines = 1_000; machines <= maxMachines; machines *= 10) {
+      measure("shared wheel", machines, definition, false);
+    }
+    for (int machines = 1_000; machines <= maxMachinesWithOwnExecutor; machines *= 10) {
+      measure("executor per machine", machines, definition, true);
+    }
+  }
+
+  private static void measure(final String                                                    label,
+                              final int                                                       machineCount,
+                              final MachineDefinition<BenchmarkStates, Character, Void, Void> definition,
+                              final boolean                                                   ownExecutor) throws Exception {
+    final long heapBefore    = usedHeap();
+
+    final List<StateMachine<BenchmarkStates, Character, Void, Void>> machines  = new ArrayList<>(machineCount);
+    final List<ScheduledThreadPoolExecutor>                           executors = new ArrayList<>();
+
+    final long start = System.nanoTime();
+    for (int i=0; i<machineCount; ++i) {
+      if (ownExecutor) {
+        // what every StateMachine used to do
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executors.add(executor);
+        machines.add(new StateMachine<>(definition, new ScheduledExecutorTimerService(executor)));
+      }
+      else {
+        machines.add(new StateMachine<>(definition, HashedWheelTimerService.shared()));
+      }
+    }
+    final long buildMillis = (System.nanoTime() - start) / 1_000_000;
+
+    final long threads = ManagementFactory.getThreadMXBean().getThreadCount();
+    final long heap    = usedHeap() - heapBefore;
+
+    if (label != null) {
+      System.out.printf("%-22s %12d %14d %14.1f %16d %12d%n", label, machineCount, threads, heap / (1024.0 * 1024.0), heap / machineCount, buildMillis);
+    }
+
+    machines.forEach(StateMachine::close);
+    executors.forEach(ScheduledThreadPoolExecutor::shutdownNow);
+    Thread.sleep(200);
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    for (int i=0; i<3; ++i) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    final Runtime runtime = Runtime.getRuntime();
+    return(runtime.totalMemory() - runtime.freeMemory());
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.benchmark;
+
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.ScheduledExecutorTimerService;
+import net.meta8.common.fsm.timer.TimerHandle;
+import net.meta8.common.fsm.timer.TimerService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// schedule + cancel of a timeout, which is what every fire() does on a state owning a timeout transition
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimerServiceBenchmark {
+  @Param({"wheel", "executor"})
+  public String timerKind;
+
+  private TimerService                timer;
+  private HashedWheelTimerService     wheel;
+  private ScheduledThreadPoolExecutor executor;
+
+  private static final Runnable NOTHING = () -> {};
+
+  @Setup
+  public void setup() {
+    if ("wheel".equals(timerKind)) {
+      wheel = new HashedWheelTimerService();
+      timer = wheel;
+    }
+    else {
+      executor = new ScheduledThreadPoolExecutor(1);
+      executor.setRemoveOnCancelPolicy(true);
+      timer    = new ScheduledExecutorTimerService(executor);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (wheel != null) {
+      wheel.close();
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Benchmark
+  public boolean scheduleThenCancel() {
+    final TimerHandle handle = timer.schedule(NOTHING, 30, TimeUnit.SECONDS);
+    return(handle.cancel());
+  }
+}
@@ -24,7 +24,6 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.Optional;
-import static net.meta8.common.fsm.util.RichOptional.ifPresent;
 
 public final class ExecutableAction<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
   public final Optional<Guard<TState, TEvent, TLocalContext, TGlobalContext>> guard;
@@ -41,9 +40,9 @@ public final class ExecutableAction<TState extends Enum<TState> & States, TEvent
                       final @NonNull Optional<TLocalContext>                                   sourceContext,
                       final @NonNull Optional<TLocalContext>                                   destinationContext,
                       final @NonNull Optional<TGlobalContext>                                  machineContext) {
-    ifPresent(guard, (someGuard) -> {if (someGuard.check(event, transition, sourceContext, destinationContext, machineContext)) {
+    // no RichOptional here : entry/exit actions are performed on every transition and must not allocate
+    if ((! guard.isPresent())||(guard.get().check(event, transition, sourceContext, destinationContext, machineContext))) {
       action.perform(event, transition, sourceContext, destinationContext, machineContext);
-    }})
-      .orElse(() -> action.perform(event, transition, sourceContext, destinationContext, machineContext) );
+    }
   }
 }
@@ -0,0 +1,32 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.codec;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.nio.ByteBuffer;
+
+// binary form of events and contexts, written to and read from journals and snapshots.
+// encode writes at the buffer position and moves it past the value : a BufferOverflowException tells the caller to retry in a
+// larger buffer (or the next journal segment), so nothing has to be sized up front. decode reads what encode wrote, from the position
+public interface Codec<T> {
+  void encode(final @NonNull T value, final @NonNull ByteBuffer buffer);
+
+  @NonNull T decode(final @NonNull ByteBuffer buffer);
+}
@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.codec;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// codecs of the usual event types
+public final class Codecs {
+  private static final Codec<Character> CHARACTERS = new Codec<Character>() {
+    @Override
+    public void encode(final @NonNull Character value, final @NonNull ByteBuffer buffer) {
+      buffer.putChar(value);
+    }
+
+    @Override
+    public @NonNull Character decode(final @NonNull ByteBuffer buffer) {
+      return(buffer.getChar());
+    }
+  };
+
+  private static final Codec<Integer> INTEGERS = new Codec<Integer>() {
+    @Override
+    public void encode(final @NonNull Integer value, final @NonNull ByteBuffer buffer) {
+      buffer.putInt(value);
+    }
+
+    @Override
+    public @NonNull Integer decode(final @NonNull ByteBuffer buffer) {
+      return(buffer.getInt());
+    }
+  };
+
+  private static final Codec<Long> LONGS = new Codec<Long>() {
+    @Override
+    public void encode(final @NonNull Long value, final @NonNull ByteBuffer buffer) {
+      buffer.putLong(value);
+    }
+
+    @Override
+    public @NonNull Long decode(final @NonNull ByteBuffer buffer) {
+      return(buffer.getLong());
+    }
+  };
+
+  // UTF-8, after its length in bytes
+  private static final Codec<String> STRINGS = new Codec<String>() {
+    @Override
+    public void encode(final @NonNull String value, final @NonNull ByteBuffer buffer) {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      if (buffer.remaining() < 4 + bytes.length) {
+        throw(new BufferOverflowException());
+      }
+      buffer.putInt(bytes.length).put(bytes);
+    }
+
+    @Override
+    public @NonNull String decode(final @NonNull ByteBuffer buffer) {
+      final byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      return(new String(bytes, StandardCharsets.UTF_8));
+    }
+  };
+
+  private Codecs() {
+  }
+
+  public static @NonNull Codec<Character> characters() {
+    return(CHARACTERS);
+  }
+
+  public static @NonNull Codec<Integer> integers() {
+    return(INTEGERS);
+  }
+
+  public static @NonNull Codec<Long> longs() {
+    return(LONGS);
+  }
+
+  public static @NonNull Codec<String> strings() {
+    return(STRINGS);
+  }
+
+  // by ordinal : constants may be renamed, not reordered
+  public static <E extends Enum<E>> @NonNull Codec<E> enums(final @NonNull Class<E> enumClass) {
+    final E[] constants = enumClass.getEnumConstants();
+    return(new Codec<E>() {
+      @Override
+      public void encode(final @NonNull E value, final @NonNull ByteBuffer buffer) {
+        buffer.putShort((short) value.ordinal());
+      }
+
+      @Override
+      public @NonNull E decode(final @NonNull ByteBuffer buffer) {
+        return(constants[buffer.getShort()]);
+      }
+    });
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.configuration;
+
+import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.transition.EventTransition;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.Map;
+
+// 'when' transitions of a state indexed by event ordinal, used instead of the HashMap(s) when events are enum constants.
+// All fields are final and arrays are never written after construction : a table can be shared between threads without any synchronization
+final class EnumEventTable<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+  private final @NonNull Class<?>                                                                 eventClass;
+  private final @Nullable EventTransition<TState, TEvent, TLocalContext, TGlobalContext>[]        transitionsWithoutGuards;
+  private final @Nullable List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>[]  transitionsWithGuards;
+
+  private EnumEventTable(final @NonNull Class<?>                                                                eventClass,
+                         final @NonNull EventTransition<TState, TEvent, TLocalContext, TGlobalContext>[]        transitionsWithoutGuards,
+                         final @NonNull List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>[]  transitionsWithGuards) {
+    this.eventClass               = eventClass;
+    this.transitionsWithoutGuards = transitionsWithoutGuards;
+    this.transitionsWithGuards    = transitionsWithGuards;
+  }
+
+  // return null if there's no 'when' transition or if triggers are not all constants of the same enum
+  @SuppressWarnings("unchecked")
+  static <TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext>
+  @Nullable EnumEventTable<TState, TEvent, TLocalContext, TGlobalContext> compile(final @NonNull Map<TEvent, EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>       transitionsWithoutGuards,
+                                                                                  final @NonNull Map<TEvent, List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>> transitionsWithGuards) {
+    final Class<?> eventClass = enumClassOf(transitionsWithoutGuards, enumClassOf(transitionsWithGuards, null));
+    if ((eventClass == null)||(eventClass == Object.class)) {
+      return(null);
+    }
+
+    final int size = eventClass.getEnumConstants().length;
+    final EventTransition<TState, TEvent, TLocalContext, TGlobalContext>[]       withoutGuards = (EventTransition<TState, TEvent, TLocalContext, TGlobalContext>[]) Array.newInstance(EventTransition.class, size);
+    final List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>[] withGuards    = (List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>[]) Array.newInstance(List.class, size);
+
+    transitionsWithoutGuards.forEach((event, transition) -> withoutGuards[((Enum<?>) event).ordinal()] = transition);
+    transitionsWithGuards.forEach((event, transitions) -> withGuards[((Enum<?>) event).ordinal()] = transitions);
+
+    return(new EnumEventTable<>(eventClass, withoutGuards, withGuards));
+  }
+
+  // common enum class of the map keys : null if there's no key yet, Object.class if keys are not constants of a single enum
+  private static @Nullable Class<?> enumClassOf(final @NonNull Map<?, ?> transitions,
+                                                final @Nullable Class<?>  enumClass) {
+    Class<?> result = enumClass;
+    for (final Object event : transitions.keySet()) {
+      if (! (event instanceof Enum)) {
+        return(Object.class);
+      }
+      final Class<?> eventClass = ((Enum<?>) event).getDeclaringClass();
+      if (result == null) {
+        result = eventClass;
+      }
+      else if (result != eventClass) {
+        return(Object.class);
+      }
+    }
+    return(result);
+  }
+
+  // true if event can be looked up by ordinal in this table
+  boolean accepts(final @NonNull TEvent event) {
+    return((event instanceof Enum)&&(((Enum<?>) event).getDeclaringClass() == eventClass));
+  }
+
+  @Nullable EventTransition<TState, TEvent, TLocalContext, TGlobalContext> transitionWithoutGuard(final @NonNull TEvent event) {
+    return(transitionsWithoutGuards[((Enum<?>) event).ordinal()]);
+  }
+
+  @Nullable List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>> transitionsWithGuards(final @NonNull TEvent event) {
+    return(transitionsWithGuards[((Enum<?>) event).ordinal()]);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.configuration;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.transition.EventTransition;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+// 'when' transitions of a state keyed by primitive int, used by fireInt when events are Integer(s) : no boxing on lookup.
+// Each entry keeps the Integer instance used in the configuration, it's the one given to guards and actions.
+// Read only once built : a table can be shared between threads without any synchronization
+final class IntEventTable<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+  static final class Entry<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+    final @NonNull  TEvent                                                                    event;
+    @Nullable EventTransition<TState, TEvent, TLocalContext, TGlobalContext>                  transitionWithoutGuard;
+    @Nullable List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>            transitionsWithGuards;
+
+    Entry(final @NonNull TEvent event) {
+      this.event = event;
+    }
+  }
+
+  private final @NonNull TIntObjectHashMap<Entry<TState, TEvent, TLocalContext, TGlobalContext>> entries;
+
+  private IntEventTable(final @NonNull TIntObjectHashMap<Entry<TState, TEvent, TLocalContext, TGlobalContext>> entries) {
+    this.entries = entries;
+  }
+
+  // return null if there's no 'when' transition or if some trigger is not an Integer
+  static <TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext>
+  @Nullable IntEventTable<TState, TEvent, TLocalContext, TGlobalContext> compile(final @NonNull Map<TEvent, EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>       transitionsWithoutGuards,
+                                                                                 final @NonNull Map<TEvent, List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>> transitionsWithGuards) {
+    if ((transitionsWithoutGuards.isEmpty() && transitionsWithGuards.isEmpty())||
+        (! allIntegers(transitionsWithoutGuards))||
+        (! allIntegers(transitionsWithGuards))) {
+      return(null);
+    }
+
+    final TIntObjectHashMap<Entry<TState, TEvent, TLocalContext, TGlobalContext>> entries = new TIntObjectHashMap<>(2 * (transitionsWithoutGuards.size() + transitionsWithGuards.size()));
+
+    transitionsWithoutGuards.forEach((event, transition) -> entry(entries, event).transitionWithoutGuard = transition);
+    transitionsWithGuards.forEach((event, transitions) -> entry(entries, event).transitionsWithGuards = transitions);
+
+    return(new IntEventTable<>(entries));
+  }
+
+  private static boolean allIntegers(final @NonNull Map<?, ?> transitions) {
+    for (final Object event : transitions.keySet()) {
+      if (! (event instanceof Integer)) {
+        return(false);
+      }
+    }
+    return(true);
+  }
+
+  private static <TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext>
+  @NonNull Entry<TState, TEvent, TLocalContext, TGlobalContext> entry(final @NonNull TIntObjectHashMap<Entry<TState, TEvent, TLocalContext, TGlobalContext>> entries,
+                                                                      final @NonNull TEvent                                                                    event) {
+    final int key = (Integer) event;
+    Entry<TState, TEvent, TLocalContext, TGlobalContext> entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry<>(event);
+      entries.put(key, entry);
+    }
+    return(entry);
+  }
+
+  @Nullable Entry<TState, TEvent, TLocalContext, TGlobalContext> get(final int event) {
+    return(entries.get(event));
+  }
+}
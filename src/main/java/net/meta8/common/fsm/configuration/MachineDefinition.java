@@ -0,0 +1,201 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.configuration;
+
+import net.meta8.common.fsm.exception.MissingStateConfigurationException;
+import net.meta8.common.fsm.exception.StateConfigurationError;
+import net.meta8.common.fsm.listener.TransitionListener;
+import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.transition.EventTransition;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.reflect.Array;
+import java.util.Optional;
+import java.util.function.Function;
+
+// compiled, validated and frozen form of a StateMachineConfiguration : built once by StateMachineConfiguration.compile(),
+// then shared by every StateMachine stamped from it. It owns copies of the state configurations, so later changes
+// through the DSL only reach definitions compiled afterwards. Nothing is written after construction : a definition
+// can be shared between threads without any synchronization
+public final class MachineDefinition<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+  private final @NonNull TState[]                                                            states; // by ordinal
+  private final @NonNull TState                                                              initialState;
+  private final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] configurations;
+
+  private final @NonNull Optional<TGlobalContext>                           initialContext;
+  private final @NonNull Optional<Function<TGlobalContext, TGlobalContext>> cloneFunction;
+
+  private final boolean actions;          // false for the copy made by withoutActions()
+  private final int     deferredCapacity; // of the deferred events queue of each machine, 0 when no state defers any event
+
+  @SuppressWarnings("unchecked")
+  MachineDefinition(final @NonNull  TState[]                                                            states,
+                    final @NonNull  TState                                                              initialState,
+                    final @NonNull  StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] configurations,
+                    final @NonNull  Optional<TGlobalContext>                                            initialContext,
+                    final @NonNull  Optional<Function<TGlobalContext, TGlobalContext>>                  cloneFunction,
+                    final @Nullable TransitionListener<TState, TEvent>                                  listener,
+                    final           boolean                                                             actions,
+                    final           int                                                                 deferredCapacity) throws MissingStateConfigurationException {
+    this.states         = states;
+    this.initialState   = initialState;
+    this.initialContext = initialContext;
+    this.cloneFunction  = cloneFunction;
+    this.actions        = actions;
+    this.configurations = (StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[]) Array.newInstance(StateConfiguration.class, configurations.length);
+
+    for (int i=0; i<configurations.length; ++i) {
+      if (configurations[i] != null) {
+        this.configurations[i] = new StateConfiguration<>(configurations[i]);
+      }
+    }
+
+    if (this.configurations[initialState.ordinal()] == null) {
+      throw(new MissingStateConfigurationException(initialState.name()));
+    }
+    for (final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration : this.configurations) {
+      if (configuration != null) {
+        checkTargets(configuration);
+        checkSequence(configuration);
+        checkParents(configuration);
+      }
+    }
+    boolean defersEvents = false;
+    for (final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration : this.configurations) {
+      if (configuration != null) {
+        configuration.freeze(this.configurations, states, listener, actions);
+        defersEvents |= configuration.defersEvents();
+      }
+    }
+    this.deferredCapacity = defersEvents ? deferredCapacity : 0;
+  }
+
+  // every transition target must be configured : fire() never looks for a missing configuration
+  private void checkTargets(final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration) throws MissingStateConfigurationException {
+    configuration.forEachTransition(transition -> {
+      final TState target = transition.destination.isPresent() ? transition.destination.get() : transition.source;
+      if (configurations[target.ordinal()] == null) {
+        throw(new MissingStateConfigurationException(target.name()));
+      }
+    });
+  }
+
+  // parents must be configured, and a state can't be nested in itself : freeze() walks the parent chain up to a root
+  private void checkParents(final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration) throws MissingStateConfigurationException {
+    StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> ancestor = configuration;
+    for (int depth=0; ancestor.parent.isPresent(); ++depth) {
+      final TState parent = ancestor.parent.get();
+      if ((depth == configurations.length)||(parent == configuration.state)) {
+        throw(new StateConfigurationError("State "+configuration.state.name()+" is nested in itself"));
+      }
+      ancestor = configurations[parent.ordinal()];
+      if (ancestor == null) {
+        throw(new MissingStateConfigurationException(parent.name()));
+      }
+    }
+  }
+
+  // the DSL checks a sequence against unguarded 'when' triggers only : guarded ones declared before the sequence would be shadowed by it
+  private void checkSequence(final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration) {
+    if (configuration.sequenceTransition.isPresent()) {
+      final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> sequence = configuration.sequenceTransition.get();
+      for (final TEvent event : sequence.triggers) {
+        if ((configuration.eventTransitionsWithoutGuards.containsKey(event))||(configuration.eventTransitionsWithGuards.containsKey(event))) {
+          throw(new StateConfigurationError("Sequence event "+event+" of state "+configuration.state.name()+" conflicts with existing 'when' triggers"));
+        }
+      }
+    }
+  }
+
+  // -----------------------
+
+  // same states and transitions, but no action is performed (guards are still evaluated) and no listener is told :
+  // replays events on machines whose actions already ran
+  public @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> withoutActions() {
+    if (! actions) {
+      return(this);
+    }
+    return(new MachineDefinition<>(states, initialState, configurations, initialContext, cloneFunction, null, false, deferredCapacity));
+  }
+
+  // -----------------------
+
+  public @NonNull TState getInitialState() {
+    return(initialState);
+  }
+
+  public @NonNull TState state(final int ordinal) {
+    return(states[ordinal]);
+  }
+
+  public int stateCount() {
+    return(states.length);
+  }
+
+  // frozen configuration of a state, null if the state is not configured
+  public StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration(final int ordinal) {
+    return(configurations[ordinal]);
+  }
+
+  // false when neither the machine nor any state carries a context : instances can then share empty contexts
+  public boolean hasContexts() {
+    if (initialContext.isPresent()) {
+      return(true);
+    }
+    for (final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration : configurations) {
+      if ((configuration != null)&&(configuration.hasContext())) {
+        return(true);
+      }
+    }
+    return(false);
+  }
+
+  // true if the state (configured or not) carries a local context
+  public boolean hasLocalContext(final int ordinal) {
+    return((configurations[ordinal] != null)&&(configurations[ordinal].hasContext()));
+  }
+
+  // slots of the deferred events queue allocated with each machine : 0 when no state defers any event
+  public int deferredCapacity() {
+    return(deferredCapacity);
+  }
+
+  public boolean hasGlobalContext() {
+    return(initialContext.isPresent());
+  }
+
+  public @NonNull Optional<TGlobalContext> cloneGlobalContext() {
+    assert(((! initialContext.isPresent())&&(! cloneFunction.isPresent()))||((initialContext.isPresent())&&(cloneFunction.isPresent())));
+    return(initialContext.map(someContext -> cloneFunction.get().apply(someContext)));
+  }
+
+  // local contexts of a new machine, by state ordinal : each one is cloned on first entry into its state, or first access from a
+  // guard or an action, so that a machine only pays for the states it visits. null until then
+  @SuppressWarnings("unchecked")
+  public @NonNull Optional<TLocalContext>[] newLocalContexts() {
+    return((Optional<TLocalContext>[]) new Optional<?>[configurations.length]);
+  }
+
+  // local context of a configured state, cloned if it's the first access
+  public @NonNull Optional<TLocalContext> localContext(final          int                       ordinal,
+                                                       final @NonNull Optional<TLocalContext>[] localContexts) {
+    return(configurations[ordinal].localContext(ordinal, localContexts));
+  }
+}
@@ -21,9 +21,10 @@ package net.meta8.common.fsm.configuration;
 import net.meta8.common.fsm.action.Action;
 import net.meta8.common.fsm.action.ExecutableAction;
 import net.meta8.common.fsm.action.Guard;
-import net.meta8.common.fsm.exception.MissingStateConfigurationException;
 import net.meta8.common.fsm.exception.StateConfigurationError;
 import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.jfr.FlightRecorderEvents;
+import net.meta8.common.fsm.listener.TransitionListener;
 import net.meta8.common.fsm.state.States;
 import net.meta8.common.fsm.transition.InitialTransition;
 import net.meta8.common.fsm.transition.TimeoutTransition;
@@ -32,13 +33,19 @@ import net.meta8.common.fsm.transition.EventTransition;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.lang.reflect.Array;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import static net.meta8.common.fsm.util.RichOptional.*;
 
 public final class StateConfiguration<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> implements StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> {
+  // tryFire codes, any value >= 0 is the ordinal of the new state
+  public static final int REJECTED        = -1; // no transition for this event
+  public static final int SEQUENCE_BROKEN = -2; // event of the sequence, but not the expected one
+
   final TState state;
 
   // state (optional) initialContext. Too bad there's no lazy val in java : can't make it final
@@ -49,10 +56,29 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
   final @NonNull Map<TEvent, EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>       eventTransitionsWithoutGuards = new HashMap<>();
   final @NonNull Map<TEvent, List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>> eventTransitionsWithGuards    = new HashMap<>();
 
+  // same EventTransition(s) indexed by event ordinal when events are enum constants, null otherwise (or when 'when' transitions changed since last compilation)
+  private @Nullable EnumEventTable<TState, TEvent, TLocalContext, TGlobalContext> enumEventTable;
+
+  // same EventTransition(s) keyed by primitive int when events are Integer(s), null otherwise (or when 'when' transitions changed since last compilation)
+  private @Nullable IntEventTable<TState, TEvent, TLocalContext, TGlobalContext> intEventTable;
+
   // store outgoing complement EventTransition (if any). Either (exclusive) complementTransitionWithoutGuard or complementTransitionsWithGuard
   @NonNull Optional<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>> complementTransitionWithoutGuard = Optional.empty();
   @NonNull List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>     complementTransitionsWithGuard   = new ArrayList<>();
 
+  // events queued rather than refused in this state, see defer()
+  private final @NonNull Set<TEvent> deferredEvents = new HashSet<>();
+
+  // enclosing state (if any) : events this state has no transition for bubble up to it
+  @NonNull Optional<TState> parent = Optional.empty();
+
+  // what fire() dispatches on : the 'when' and 'other' transitions above, followed by the ones inherited from the ancestors once
+  // frozen (see inherit). Unguarded transitions may end the guarded lists of a child
+  private @NonNull Map<TEvent, EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>       dispatchWithoutGuards         = eventTransitionsWithoutGuards;
+  private @NonNull Map<TEvent, List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>> dispatchWithGuards            = eventTransitionsWithGuards;
+  private @NonNull Optional<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>          dispatchComplementWithoutGuard = Optional.empty();
+  private @NonNull List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>>              dispatchComplementsWithGuard   = complementTransitionsWithGuard;
+
   // store outgoing TimeoutTransition (if any)
   @NonNull Optional<TimeoutTransition<TState, TEvent, TLocalContext, TGlobalContext>> timeoutTransition = Optional.empty();
 
@@ -65,19 +91,65 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
   // store list of exit optionalAction
   private final @NonNull List<ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>> onExitActions = new ArrayList<>();
 
+  // set once frozen by a MachineDefinition : exit actions of this state (and of its ancestors left) followed by entry actions of the
+  // destination (and of its ancestors entered), by destination ordinal. Entry actions of the ancestors then of this state, for the initial state
+  private @Nullable ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>[][] exitEntryActions;
+  private @Nullable ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>[]   initialEntryActions;
+  private @Nullable TState[]                                                            states;
+  private @Nullable StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] configurations;
+
+  // set once frozen by a MachineDefinition, null when the definition has no listener : transitions are then not timed at all
+  private @Nullable TransitionListener<TState, TEvent> listener;
+
+  // false in a definition without actions (MachineDefinition.withoutActions) : transitions only give their target
+  private boolean actions = true;
+
+  // DSL calls made on this configuration, see changed()
+  private int modifications;
+
   public StateConfiguration(final @NonNull TState state) {
     this.state = state;
   }
 
+  // copy made by MachineDefinition : later changes through the DSL don't reach compiled definitions
+  StateConfiguration(final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration) {
+    this.state                            = configuration.state;
+    this.initialContext                   = configuration.initialContext;
+    this.cloneFunction                    = configuration.cloneFunction;
+    this.complementTransitionWithoutGuard = configuration.complementTransitionWithoutGuard;
+    this.timeoutTransition                = configuration.timeoutTransition;
+    this.sequenceTransition               = configuration.sequenceTransition;
+    this.parent                           = configuration.parent;
+
+    deferredEvents.addAll(configuration.deferredEvents);
+
+    eventTransitionsWithoutGuards.putAll(configuration.eventTransitionsWithoutGuards);
+    configuration.eventTransitionsWithGuards.forEach((event, transitions) -> eventTransitionsWithGuards.put(event, new ArrayList<>(transitions)));
+    complementTransitionsWithGuard.addAll(configuration.complementTransitionsWithGuard);
+    onEntryActions.addAll(configuration.onEntryActions);
+    onExitActions.addAll(configuration.onExitActions);
+  }
+
   // -----------------------
 
+  // every DSL call (the ones of StateConfigurationWhen and StateConfigurationOther included) counts as a change :
+  // StateMachineConfiguration only compiles again after one
+  @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> changed() {
+    ++modifications;
+    return(this);
+  }
+
+  int modifications() {
+    return(modifications);
+  }
+
   // specify initialContext and it's clone function
   @Override
   public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> initialContext(final @NonNull TLocalContext initialContext,
                                                                                                       final @NonNull Function<TLocalContext, TLocalContext> cloneFunction) {
     this.initialContext = Optional.of(initialContext);
     this.cloneFunction = Optional.of(cloneFunction);
-    return (this);
+    return(changed());
   }
 
   // -----------------------
@@ -86,6 +158,10 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
   @SafeVarargs
   @Override
   public final @NonNull StateConfigurationWhenDSL<TState, TEvent, TLocalContext, TGlobalContext> when(final @NonNull TEvent... events) {
+    // 'when' transitions are about to change : fall back to maps until next compilation
+    enumEventTable = null;
+    intEventTable  = null;
+    changed();
     return (new StateConfigurationWhen<>(this, events));
   }
 
@@ -100,7 +176,7 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
         checkSequenceTransitionTriggers(events);
         sequenceTransition = Optional.of(new EventTransition<>(state, Optional.of(state), events));
       });
-    return (this);
+    return(changed());
   }
 
   @SafeVarargs
@@ -115,7 +191,7 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
         checkSequenceTransitionTriggers(events);
         sequenceTransition = Optional.of(new EventTransition<>(state, Optional.of(state), action, events));
       });
-    return (this);
+    return(changed());
   }
 
   @SafeVarargs
@@ -125,7 +201,7 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
     .orElse( () -> {
       checkSequenceTransitionTriggers(events);
       sequenceTransition = Optional.of(new EventTransition<>(state, Optional.<TState>empty(), events));});
-    return (this);
+    return(changed());
   }
 
   @SafeVarargs
@@ -140,16 +216,37 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
         checkSequenceTransitionTriggers(events);
         sequenceTransition = Optional.of(new EventTransition<>(state, Optional.<TState>empty(), action, events));
       });
-    return (this);
+    return(changed());
   }
 
   // define an outgoing transition on given triggers complements
   // complements are checked in declaration order after 'when' triggers
   @Override
   public final @NonNull StateConfigurationWhenDSL<TState, TEvent, TLocalContext, TGlobalContext> other() {
+    changed();
     return (new StateConfigurationOther<>(this));
   }
 
+  // events this state has no transition for (or whose guards all fail) are queued by the machine rather than refused, and
+  // replayed once it enters a state accepting them
+  @SafeVarargs
+  @Override
+  public final @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> defer(final @NonNull TEvent... events) {
+    Collections.addAll(deferredEvents, events);
+    return(changed());
+  }
+
+  // nest this state in another one : the 'when' and 'other' transitions of the parent apply to this state too, unless it handles
+  // the event itself. Sequences and timeout transitions are not inherited
+  @Override
+  public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> parent(final @NonNull TState parent) {
+    if (parent == state) {
+      throw(new StateConfigurationError("State "+state.name()+" can't be its own parent"));
+    }
+    this.parent = Optional.of(parent);
+    return(changed());
+  }
+
   // -----------------------
 
   @Override
@@ -160,7 +257,7 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
               new StateConfigurationError())
       // NONE
       .orElse(() -> timeoutTransition = Optional.of(new TimeoutTransition<>(state, Optional.of(target), duration)));
-    return (this);
+    return(changed());
   }
 
   @Override
@@ -172,10 +269,9 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
               new StateConfigurationError())
       // NONE
       .orElse(() -> timeoutTransition = Optional.of(new TimeoutTransition<>(state, Optional.of(target), action, duration)));
-    return(this);
+    return(changed());
   }
 
-  // TODO allow durable timeout transitions
   // define a timeout transition
   @Override
   public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> moveAfterIf(final @NonNull Duration                                             duration,
@@ -187,7 +283,7 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
               new StateConfigurationError())
       // NONE
       .orElse(() -> timeoutTransition = Optional.of(new TimeoutTransition<>(state, Optional.of(target), guard, action, duration)));
-    return(this);
+    return(changed());
   }
 
   // -----------------------
@@ -195,7 +291,7 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
   @Override
   public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> onEntry(final @NonNull Action<TState, TEvent, TLocalContext, TGlobalContext> action) {
     onEntryActions.add(new ExecutableAction<>(Optional.empty(), action));
-    return(this);
+    return(changed());
   }
 
   // define an entry action which will be performed if guard is true
@@ -203,13 +299,13 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
   public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> onEntryIf(final @NonNull Guard<TState, TEvent, TLocalContext, TGlobalContext>  guard,
                                                                                                  final @NonNull Action<TState, TEvent, TLocalContext, TGlobalContext> action) {
     onEntryActions.add(new ExecutableAction<>(Optional.of(guard), action));
-    return(this);
+    return(changed());
   }
 
   @Override
   public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> onExit(final @NonNull Action<TState, TEvent, TLocalContext, TGlobalContext> action) {
     onExitActions.add(new ExecutableAction<>(Optional.empty(), action));
-    return(this);
+    return(changed());
   }
 
   // define an exit action which will be performed if guard is true
@@ -217,7 +313,7 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
   public@NonNull  StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> onExitIf(final @NonNull Guard<TState, TEvent, TLocalContext, TGlobalContext>  guard,
                                                                                                 final @NonNull Action<TState, TEvent, TLocalContext, TGlobalContext> action) {
     onExitActions.add(new ExecutableAction<>(Optional.of(guard), action));
-    return(this);
+    return(changed());
   }
 
   // =====================================================
@@ -232,8 +328,175 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
     // create a 'pseudo' transition from 'initial void' to initial state
     final InitialTransition<TState, TEvent, TLocalContext, TGlobalContext> initialTransition = new InitialTransition<>(state);
 
-    // and perform all entry actions on initial state. Note : there's no event in this case
-    onEntryActions.forEach(action -> action.perform(null, initialTransition, localContext, localContext, machineContext));
+    // and perform all entry actions on initial state (its ancestors first). Note : there's no event in this case
+    final ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>[] actions = initialEntryActions;
+    for (int i=0; i<actions.length; ++i) {
+      actions[i].perform(null, initialTransition, localContext, localContext, machineContext);
+    }
+  }
+
+  // called once by MachineDefinition on its own copy, whose targets and parents are all configured : merges the transitions inherited
+  // from the ancestors, builds the ordinal indexed dispatch table when all 'when' triggers are constants of the same enum (or the int
+  // keyed one when they are all Integer(s)), and flattens exit + entry actions for each destination so that a transition doesn't need
+  // to look up its destination configuration (nor walk the state hierarchy) any more
+  @SuppressWarnings("unchecked")
+  void freeze(final @NonNull  StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] configurations,
+              final @NonNull  TState[]                                                            states,
+              final @Nullable TransitionListener<TState, TEvent>                                  listener,
+              final           boolean                                                             withActions) {
+    this.states         = states;
+    this.configurations = configurations;
+    this.listener       = listener;
+    this.actions        = withActions;
+
+    // this state then its ancestors, nearest first
+    final List<StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>> lineage = lineage(configurations);
+    inherit(lineage);
+    enumEventTable = EnumEventTable.compile(dispatchWithoutGuards, dispatchWithGuards);
+    intEventTable  = IntEventTable.compile(dispatchWithoutGuards, dispatchWithGuards);
+
+    exitEntryActions = (ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>[][]) Array.newInstance(ExecutableAction[].class, configurations.length);
+    for (int i=0; i<configurations.length; ++i) {
+      if (configurations[i] != null) {
+        exitEntryActions[i] = toArray(exitEntryActions(lineage, configurations[i].lineage(configurations)));
+      }
+    }
+
+    final List<ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>> entryActions = new ArrayList<>();
+    for (int i=lineage.size()-1; i>=0; --i) {
+      entryActions.addAll(lineage.get(i).onEntryActions);
+    }
+    initialEntryActions = toArray(entryActions);
+  }
+
+  private @NonNull List<StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>> lineage(final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] configurations) {
+    final List<StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>> lineage = new ArrayList<>();
+    for (StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration = this; ; configuration = configurations[configuration.parent.get().ordinal()]) {
+      lineage.add(configuration);
+      if (! configuration.parent.isPresent()) {
+        return(lineage);
+      }
+    }
+  }
+
+  // leave the states of the source lineage up to the nearest one enclosing the destination (the least common ancestor), then
+  // enter the states of the destination lineage below it, outermost first. A destination which is the source or one of its
+  // ancestors is left and entered again, as in a flat machine. Without any parent : source exit actions, destination entry actions
+  private static <TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext>
+  @NonNull List<ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>> exitEntryActions(final @NonNull List<StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>> sourceLineage,
+                                                                                                  final @NonNull List<StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>> destinationLineage) {
+    final List<ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>> actions = new ArrayList<>();
+    int entered = destinationLineage.size(); // states of the destination lineage below this index are entered
+    for (final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> left : sourceLineage) {
+      final int index = destinationLineage.indexOf(left);
+      if (index > 0) {
+        entered = index;
+        break;
+      }
+      actions.addAll(left.onExitActions);
+    }
+    for (int i=entered-1; i>=0; --i) {
+      actions.addAll(destinationLineage.get(i).onEntryActions);
+    }
+    return(actions);
+  }
+
+  // the 'when' and 'other' transitions of the lineage, nearest state first : an event this state has no transition for (or whose
+  // guards all fail) bubbles up to its ancestors. An unguarded transition ends the chain, an unguarded 'other' ends it for every
+  // event : the state handles them all. 'when' transitions come before 'other' ones, the inherited ones included.
+  // Events of this state sequence are not inherited
+  private void inherit(final @NonNull List<StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>> lineage) {
+    if (lineage.size() == 1) {
+      dispatchWithoutGuards          = eventTransitionsWithoutGuards;
+      dispatchWithGuards             = eventTransitionsWithGuards;
+      dispatchComplementWithoutGuard = complementTransitionWithoutGuard;
+      dispatchComplementsWithGuard   = complementTransitionsWithGuard;
+      return;
+    }
+
+    // states whose 'when' transitions are reachable : up to the first one with an unguarded 'other'
+    int reachable = 0;
+    while (reachable < lineage.size()) {
+      if (lineage.get(reachable++).complementTransitionWithoutGuard.isPresent()) {
+        break;
+      }
+    }
+
+    final Set<TEvent> events = new LinkedHashSet<>();
+    for (int i=0; i<reachable; ++i) {
+      events.addAll(lineage.get(i).eventTransitionsWithoutGuards.keySet());
+      events.addAll(lineage.get(i).eventTransitionsWithGuards.keySet());
+    }
+    if (sequenceTransition.isPresent()) {
+      events.removeAll(Arrays.asList(sequenceTransition.get().triggers));
+    }
+
+    dispatchWithoutGuards = new HashMap<>();
+    dispatchWithGuards    = new HashMap<>();
+    for (final TEvent event : events) {
+      final List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>> transitions = new ArrayList<>();
+      for (int i=0; i<reachable; ++i) {
+        final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> transitionWithoutGuard = lineage.get(i).eventTransitionsWithoutGuards.get(event);
+        if (transitionWithoutGuard != null) {
+          transitions.add(transitionWithoutGuard);
+          break;
+        }
+        final List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>> transitionsWithGuards = lineage.get(i).eventTransitionsWithGuards.get(event);
+        if (transitionsWithGuards != null) {
+          transitions.addAll(transitionsWithGuards);
+        }
+      }
+      if ((transitions.size() == 1)&&(! transitions.get(0).guard.isPresent())) {
+        dispatchWithoutGuards.put(event, transitions.get(0));
+      }
+      else {
+        dispatchWithGuards.put(event, transitions);
+      }
+    }
+
+    dispatchComplementWithoutGuard = Optional.empty();
+    dispatchComplementsWithGuard   = new ArrayList<>();
+    for (final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration : lineage) {
+      if (configuration.complementTransitionWithoutGuard.isPresent()) {
+        if (dispatchComplementsWithGuard.isEmpty()) {
+          dispatchComplementWithoutGuard = configuration.complementTransitionWithoutGuard;
+        }
+        else {
+          dispatchComplementsWithGuard.add(configuration.complementTransitionWithoutGuard.get());
+        }
+        break;
+      }
+      dispatchComplementsWithGuard.addAll(configuration.complementTransitionsWithGuard);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext>
+  @NonNull ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>[] toArray(final @NonNull List<ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>> actions) {
+    return(actions.toArray((ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>[]) new ExecutableAction<?, ?, ?, ?>[actions.size()]));
+  }
+
+  // every transition of this state, timeout and sequence ones included
+  void forEachTransition(final @NonNull Consumer<Transition<TState, TEvent, TLocalContext, TGlobalContext>> consumer) {
+    eventTransitionsWithoutGuards.values().forEach(consumer);
+    eventTransitionsWithGuards.values().forEach(transitions -> transitions.forEach(consumer));
+    complementTransitionWithoutGuard.ifPresent(consumer);
+    complementTransitionsWithGuard.forEach(consumer);
+    timeoutTransition.ifPresent(consumer);
+    sequenceTransition.ifPresent(consumer);
+  }
+
+  // the event was refused : is it deferred rather than lost ?
+  public boolean defers(final @NonNull Object event) {
+    return(deferredEvents.contains(event));
+  }
+
+  boolean defersEvents() {
+    return(! deferredEvents.isEmpty());
+  }
+
+  boolean hasContext() {
+    return(initialContext.isPresent());
   }
 
   public Optional<TLocalContext> cloneContext() {
@@ -241,11 +504,31 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
     return(initialContext.map(someContext -> cloneFunction.get().apply(someContext)));
   }
 
-  public TState fire(final @NonNull TEvent                                                              events,
-                     final @NonNull AtomicInteger                                                       sequenceIndex,
-                     final @NonNull Optional<TLocalContext>[]                                           localContexts,
-                     final @NonNull Optional<TGlobalContext>                                            globalContext,
-                     final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] destinationsConfiguration) throws UnknownTriggerException, MissingStateConfigurationException {
+  // local context of a state, cloned on first use (entry, guard or action) : machines hold null until then
+  Optional<TLocalContext> localContext(final          int                       ordinal,
+                                       final @NonNull Optional<TLocalContext>[] localContexts) {
+    Optional<TLocalContext> localContext = localContexts[ordinal];
+    if (localContext == null) {
+      localContext           = configurations[ordinal].cloneContext();
+      localContexts[ordinal] = localContext;
+    }
+    return(localContext);
+  }
+
+  // throwing flavour of tryFire : return the new state, or throw UnknownTriggerException
+  public TState fire(final @Nullable TEvent                    events,
+                     final @NonNull  AtomicInteger             sequenceIndex,
+                     final @NonNull  Optional<TLocalContext>[] localContexts,
+                     final @NonNull  Optional<TGlobalContext>  globalContext) throws UnknownTriggerException {
+    return(stateOf(tryFire(events, sequenceIndex, localContexts, globalContext), events));
+  }
+
+  // return the ordinal of the new state, or one of the (negative) REJECTED, SEQUENCE_BROKEN codes.
+  // Nothing is thrown nor allocated when an event is refused
+  public int tryFire(final @Nullable TEvent                    events,
+                     final @NonNull  AtomicInteger             sequenceIndex,
+                     final @NonNull  Optional<TLocalContext>[] localContexts,
+                     final @NonNull  Optional<TGlobalContext>  globalContext) {
     // event fired by timeout
     if (events == null) {
       final Transition<TState, TEvent, TLocalContext, TGlobalContext> transition = timeoutTransition.get();
@@ -255,184 +538,277 @@ public final class StateConfiguration<TState extends Enum<TState> & States, TEve
                                sourceLocalContext(transition, localContexts),
                                destinationLocalContext(transition, localContexts),
                                globalContext,
-                               destinationConfiguration(transition, destinationsConfiguration)));
+                               0));
     }
     else {
-      final TState sequenceTransitionTarget = processSequenceTransition(events, sequenceIndex, localContexts, globalContext, destinationsConfiguration);
-      if (sequenceTransitionTarget != null) {
+      final int sequenceTransitionTarget = processSequenceTransition(events, sequenceIndex, localContexts, globalContext);
+      if (sequenceTransitionTarget != REJECTED) {
         return(sequenceTransitionTarget);
       }
       else {
-        final TState triggerTransitionTarget = processTriggerTransition(events, localContexts, globalContext, destinationsConfiguration);
-        if (triggerTransitionTarget != null) {
+        final int triggerTransitionTarget = processTriggerTransition(events, localContexts, globalContext);
+        if (triggerTransitionTarget != REJECTED) {
           sequenceIndex.set(-1);
           return (triggerTransitionTarget);
         }
         else {
-          // try to get first transition satisfying complement events
-          final Transition<TState, TEvent, TLocalContext, TGlobalContext> complementTransition = getTriggerComplementsTransition(events, localContexts, globalContext);
-
-          if (complementTransition != null) {
-            sequenceIndex.set(-1);
-            return (performTransition(events,
-                                      complementTransition,
-                                      sourceLocalContext(complementTransition, localContexts),
-                                      destinationLocalContext(complementTransition, localContexts),
-                                      globalContext,
-                                      destinationConfiguration(complementTransition, destinationsConfiguration)));
-          }
-          else {
-            throw (new UnknownTriggerException(state.name(), "" + events));
-          }
+          return(processComplementTransition(events, sequenceIndex, localContexts, globalContext));
         }
       }
     }
   }
 
-  private TState processSequenceTransition(final @NonNull TEvent                                                              event,
-                                           final @NonNull AtomicInteger                                                       sequenceIndex,
-                                           final @NonNull Optional<TLocalContext>[]                                           localContexts,
-                                           final @NonNull Optional<TGlobalContext>                                            globalContext,
-                                           final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] destinationsConfiguration) throws MissingStateConfigurationException, UnknownTriggerException {
-    return(getOrElse(sequenceTransition,
-                     //SOME
-                     (someSequence) -> {
-                       final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> someSequenceTransition = sequenceTransition.get();
-                       final int index = someSequenceTransition.contains(event);
-                       if (index == -1) {
-                         return(null);
-                       }
-                       else {
-                         if (index == sequenceIndex.incrementAndGet()) {
-                           return (performTransition(event,
-                                                     someSequenceTransition,
-                                                     sourceLocalContext(someSequenceTransition, localContexts),
-                                                     destinationLocalContext(someSequenceTransition, localContexts),
-                                                     globalContext,
-                                                     destinationConfiguration(someSequenceTransition, destinationsConfiguration)));
-                         }
-                         else {
-                           throw(new UnknownTriggerException(state.name(), event.toString()));
-                         }}},
-                     //NONE
-                     null));
-  }
-
-  private TState processTriggerTransition(final @NonNull TEvent                                                              event,
-                                          final @NonNull Optional<TLocalContext>[]                                           localContexts,
-                                          final @NonNull Optional<TGlobalContext>                                            globalContext,
-                                          final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] destinationsConfiguration) throws MissingStateConfigurationException {
+  // same as fire(Integer.valueOf(event), ...) without boxing the event when the 'when' triggers of this state are Integer(s).
+  // Guards and actions are given the Integer instance used in the configuration. Only complement ('other') transitions need to box the event
+  public TState fireInt(final          int                       event,
+                        final @NonNull AtomicInteger             sequenceIndex,
+                        final @NonNull Optional<TLocalContext>[] localContexts,
+                        final @NonNull Optional<TGlobalContext>  globalContext) throws UnknownTriggerException {
+    return(stateOf(tryFireInt(event, sequenceIndex, localContexts, globalContext), event));
+  }
+
+  @SuppressWarnings("unchecked")
+  public int tryFireInt(final          int                       event,
+                        final @NonNull AtomicInteger             sequenceIndex,
+                        final @NonNull Optional<TLocalContext>[] localContexts,
+                        final @NonNull Optional<TGlobalContext>  globalContext) {
+    final IntEventTable<TState, TEvent, TLocalContext, TGlobalContext> table = intEventTable;
+    if (table == null) {
+      // events are not Integer(s) or tables are not compiled yet
+      return(tryFire((TEvent) Integer.valueOf(event), sequenceIndex, localContexts, globalContext));
+    }
+
+    if (sequenceTransition.isPresent()) {
+      final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> someSequenceTransition = sequenceTransition.get();
+      final int                                                            index                  = intSequenceIndex(someSequenceTransition, event);
+      if (index != -1) {
+        return(performSequenceTransition(someSequenceTransition.triggers[index], someSequenceTransition, index, sequenceIndex, localContexts, globalContext));
+      }
+    }
+
+    final IntEventTable.Entry<TState, TEvent, TLocalContext, TGlobalContext> entry = table.get(event);
+    if (entry != null) {
+      final int triggerTransitionTarget = performTriggerTransition(entry.event, entry.transitionWithoutGuard, entry.transitionsWithGuards, localContexts, globalContext);
+      if (triggerTransitionTarget != REJECTED) {
+        sequenceIndex.set(-1);
+        return(triggerTransitionTarget);
+      }
+    }
+
+    return(processComplementTransition((TEvent) Integer.valueOf(event), sequenceIndex, localContexts, globalContext));
+  }
+
+  // turn a tryFire code back into a state or an exception. Exceptions are built here only, off the tryFire path
+  private TState stateOf(final           int    target,
+                         final @Nullable Object event) throws UnknownTriggerException {
+    if (target >= 0) {
+      return(states[target]);
+    }
+    else {
+      FlightRecorderEvents.rejected(state, event);
+      throw(new UnknownTriggerException(state.name(), "" + event));
+    }
+  }
+
+  private static int intSequenceIndex(final @NonNull EventTransition<?, ?, ?, ?> sequence,
+                                      final          int                         event) {
+    final Object[] triggers = sequence.triggers;
+    for (int i=0; i<triggers.length; ++i) {
+      if ((triggers[i] instanceof Integer)&&((Integer) triggers[i] == event)) {
+        return(i);
+      }
+    }
+    return(-1);
+  }
+
+  private int processComplementTransition(final @NonNull TEvent                    event,
+                                          final @NonNull AtomicInteger             sequenceIndex,
+                                          final @NonNull Optional<TLocalContext>[] localContexts,
+                                          final @NonNull Optional<TGlobalContext>  globalContext) {
+    // try to get first transition satisfying complement events, guards are timed only when somebody listens
+    final long                                                      guardStart           = ((! timed())||(dispatchComplementWithoutGuard.isPresent())) ? 0 : System.nanoTime();
+    final Transition<TState, TEvent, TLocalContext, TGlobalContext> complementTransition = getTriggerComplementsTransition(event, localContexts, globalContext);
+
+    if (complementTransition != null) {
+      sequenceIndex.set(-1);
+      return (performTransition(event,
+                                complementTransition,
+                                sourceLocalContext(complementTransition, localContexts),
+                                destinationLocalContext(complementTransition, localContexts),
+                                globalContext,
+                                guardStart));
+    }
+    else {
+      return(REJECTED);
+    }
+  }
+
+  // hot path : no Optional combinator nor capturing lambda here (nor in the other fire helpers), a steady state fire() must not allocate
+  private int processSequenceTransition(final @NonNull TEvent                    event,
+                                        final @NonNull AtomicInteger             sequenceIndex,
+                                        final @NonNull Optional<TLocalContext>[] localContexts,
+                                        final @NonNull Optional<TGlobalContext>  globalContext) {
+    if (! sequenceTransition.isPresent()) {
+      return(REJECTED);
+    }
+
+    final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> someSequenceTransition = sequenceTransition.get();
+    final int                                                            index                  = someSequenceTransition.contains(event);
+    if (index == -1) {
+      return(REJECTED);
+    }
+    else {
+      return(performSequenceTransition(event, someSequenceTransition, index, sequenceIndex, localContexts, globalContext));
+    }
+  }
+
+  private int performSequenceTransition(final @NonNull TEvent                                                         event,
+                                        final @NonNull EventTransition<TState, TEvent, TLocalContext, TGlobalContext> sequence,
+                                        final          int                                                            index,
+                                        final @NonNull AtomicInteger                                                  sequenceIndex,
+                                        final @NonNull Optional<TLocalContext>[]                                      localContexts,
+                                        final @NonNull Optional<TGlobalContext>                                       globalContext) {
+    if (index == sequenceIndex.incrementAndGet()) {
+      return (performTransition(event,
+                                sequence,
+                                sourceLocalContext(sequence, localContexts),
+                                destinationLocalContext(sequence, localContexts),
+                                globalContext,
+                                0));
+    }
+    else {
+      return(SEQUENCE_BROKEN);
+    }
+  }
+
+  private int processTriggerTransition(final @NonNull TEvent                    event,
+                                       final @NonNull Optional<TLocalContext>[] localContexts,
+                                       final @NonNull Optional<TGlobalContext>  globalContext) {
+    final EnumEventTable<TState, TEvent, TLocalContext, TGlobalContext> table = enumEventTable;
+
+    if ((table != null)&&(table.accepts(event))) {
+      return(performTriggerTransition(event, table.transitionWithoutGuard(event), table.transitionsWithGuards(event), localContexts, globalContext));
+    }
+    else {
+      return(performTriggerTransition(event, dispatchWithoutGuards.get(event), dispatchWithGuards.get(event), localContexts, globalContext));
+    }
+  }
+
+  private int performTriggerTransition(final @NonNull  TEvent                                                               event,
+                                       final @Nullable EventTransition<TState, TEvent, TLocalContext, TGlobalContext>       transitionWithoutGuard,
+                                       final @Nullable List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>> transitionsWithGuards,
+                                       final @NonNull  Optional<TLocalContext>[]                                            localContexts,
+                                       final @NonNull  Optional<TGlobalContext>                                             globalContext) {
     // check if there's at least one event transition without guard associated with this event
-    final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> transitionWithoutGuard = eventTransitionsWithoutGuards.get(event);
     if (transitionWithoutGuard != null) {
       return (performTransition(event,
                                 transitionWithoutGuard,
                                 sourceLocalContext(transitionWithoutGuard, localContexts),
                                 destinationLocalContext(transitionWithoutGuard, localContexts),
                                 globalContext,
-                                destinationConfiguration(transitionWithoutGuard, destinationsConfiguration)));
+                                0));
     }
     // check if there's at least one event transition with guard associated with this event
     else {
-      final List<EventTransition<TState, TEvent, TLocalContext, TGlobalContext>> transitionsWithGuards = eventTransitionsWithGuards.get(event);
       if (transitionsWithGuards != null) {
-        for (final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> transition : transitionsWithGuards) {
+        final long guardStart = timed() ? System.nanoTime() : 0;
+        for (int i=0; i<transitionsWithGuards.size(); ++i) {
+          final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> transition = transitionsWithGuards.get(i);
           final Optional<TLocalContext> sourceLocalContext = sourceLocalContext(transition, localContexts);
           final Optional<TLocalContext> destinationLocalContext = destinationLocalContext(transition, localContexts);
 
-          // there's always a guard in this case
-          if (transition.guard.get().check(event, transition, sourceLocalContext, destinationLocalContext, globalContext)) {
+          // there's always a guard in this case, but for an unguarded one inherited from an ancestor at the end
+          if ((! transition.guard.isPresent())||(transition.guard.get().check(event, transition, sourceLocalContext, destinationLocalContext, globalContext))) {
             return (performTransition(event,
                                       transition,
                                       sourceLocalContext,
                                       destinationLocalContext,
                                       globalContext,
-                                      destinationConfiguration(transition, destinationsConfiguration)));
+                                      guardStart));
           }
         }
-        return (null);
+        return (REJECTED);
       }
       else {
-        return (null); // no event transitions were processed
+        return (REJECTED); // no event transitions were processed
       }
     }
   }
 
   private Optional<TLocalContext> sourceLocalContext(final @NonNull Transition<TState, TEvent, TLocalContext, TGlobalContext> transition,
                                                      final @NonNull Optional<TLocalContext>[]                                localContexts) {
-    return(localContexts[transition.source.ordinal()]);
+    return(localContext(transition.source.ordinal(), localContexts));
   }
 
   private Optional<TLocalContext> destinationLocalContext(final @NonNull Transition<TState, TEvent, TLocalContext, TGlobalContext> transition,
                                                           final @NonNull Optional<TLocalContext>[]                                localContexts) {
-    return(localContexts[(transition.destination.isPresent()?transition.destination.get():transition.source).ordinal()]);
-  }
-
-  // perform entry action(s) on this state configuration when a transition is triggered
-  private void performEntryActions(final @Nullable TEvent                                                    event,
-                                   final @NonNull  Transition<TState, TEvent, TLocalContext, TGlobalContext> transition,
-                                   final @NonNull  Optional<TLocalContext>                                   sourceContext,
-                                   final @NonNull  Optional<TLocalContext>                                   destinationContext,
-                                   final @NonNull  Optional<TGlobalContext>                                  machineContext) {
-    onEntryActions.forEach(action -> action.perform(event, transition, sourceContext, destinationContext, machineContext));
+    return(localContext((transition.destination.isPresent()?transition.destination.get():transition.source).ordinal(), localContexts));
   }
 
-  // perform exit action(s) on this state configuration when a transition is triggered
-  private void performExitActions(final @Nullable TEvent                                                    event,
-                                  final @NonNull  Transition<TState, TEvent, TLocalContext, TGlobalContext> transition,
-                                  final @NonNull  Optional<TLocalContext>                                   sourceContext,
-                                  final @NonNull  Optional<TLocalContext>                                   destinationContext,
-                                  final @NonNull  Optional<TGlobalContext>                                  machineContext) {
-    onExitActions.forEach(action -> action.perform(event, transition, sourceContext, destinationContext, machineContext));
+  // transitions are timed for listeners, or when JFR records transition events
+  private boolean timed() {
+    return((listener != null)||(FlightRecorderEvents.isTransitionRecorded()));
   }
 
-  private TState performTransition(final @Nullable TEvent                                                            event,
-                                   final @NonNull  Transition<TState, TEvent, TLocalContext, TGlobalContext>         transition,
-                                   final @NonNull  Optional<TLocalContext>                                           sourceContext,
-                                   final @NonNull  Optional<TLocalContext>                                           destinationContext,
-                                   final @NonNull  Optional<TGlobalContext>                                          machineContext,
-                                   final @NonNull  StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> destinationConfiguration) {
-    transition.perform(event, transition, sourceContext, destinationContext, machineContext);
-
-    transition.destination.ifPresent(destinationState -> {
-      performExitActions(event, transition, sourceContext, destinationContext, machineContext);
-      destinationConfiguration.performEntryActions(event, transition, sourceContext, destinationContext, machineContext);
-    });
+  // return the destination ordinal. Targets were all resolved by MachineDefinition : no configuration lookup here.
+  // guardStart is the clock before the guards of this transition were evaluated, 0 without guard or when not timed : the clock
+  // is only read for a listener or a JFR recording, and the end of the guards is the start of the actions
+  private int performTransition(final @Nullable TEvent                                                    event,
+                                final @NonNull  Transition<TState, TEvent, TLocalContext, TGlobalContext> transition,
+                                final @NonNull  Optional<TLocalContext>                                   sourceContext,
+                                final @NonNull  Optional<TLocalContext>                                   destinationContext,
+                                final @NonNull  Optional<TGlobalContext>                                  machineContext,
+                                final           long                                                      guardStart) {
+    if (! actions) {
+      return((transition.destination.isPresent() ? transition.destination.get() : state).ordinal());
+    }
 
-    return(transition.destination.isPresent()?transition.destination.get():transition.source);
-  }
+    final TransitionListener<TState, TEvent> someListener = listener;
+    final Object                             flightEvent  = FlightRecorderEvents.beginTransition(); // null unless recorded by JFR
+    final long                               actionStart  = ((someListener != null)||((flightEvent != null)&&(guardStart != 0))) ? System.nanoTime() : 0;
 
-  private StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> destinationConfiguration(final @NonNull Transition<TState, TEvent, TLocalContext, TGlobalContext>           transition,
-                                                                                                     final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] destinationsConfiguration) throws MissingStateConfigurationException {
-    StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> destConfig = destinationsConfiguration[(transition.destination.isPresent()?transition.destination.get():transition.source).ordinal()];
-    if (destConfig == null) {
+    transition.perform(event, transition, sourceContext, destinationContext, machineContext);
 
-      throw(new MissingStateConfigurationException((transition.destination.isPresent()?transition.destination.get():transition.source).name()));
+    final int target;
+    if (transition.destination.isPresent()) {
+      target = transition.destination.get().ordinal();
+      final ExecutableAction<TState, TEvent, TLocalContext, TGlobalContext>[] actions = exitEntryActions[target];
+      for (int i=0; i<actions.length; ++i) {
+        actions[i].perform(event, transition, sourceContext, destinationContext, machineContext);
+      }
     }
     else {
-      return(destConfig);
+      target = state.ordinal(); // an inherited 'stay' keeps this state, not the ancestor declaring it
+    }
+
+    final long guardNanos = (guardStart == 0) ? 0 : actionStart - guardStart;
+    if (someListener != null) {
+      someListener.onTransition(state, states[target], event, guardNanos, System.nanoTime() - actionStart);
+    }
+    if (flightEvent != null) {
+      FlightRecorderEvents.commitTransition(flightEvent, state, states[target], event, guardNanos);
     }
+    return(target);
   }
 
   private @Nullable Transition<TState, TEvent, TLocalContext, TGlobalContext> getTriggerComplementsTransition(final @NonNull TEvent                    event,
                                                                                                               final @NonNull Optional<TLocalContext>[] localContexts,
                                                                                                               final @NonNull Optional<TGlobalContext>  machineContext) {
-    return(getOrElseSupply(complementTransitionWithoutGuard,
-                           // SOME
-                           (someTransition) -> someTransition,
-                           // NONE
-                           () -> {
-                             for (final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> complementTriggerTransition : complementTransitionsWithGuard) {
-                               if (complementTriggerTransition.guard.get().check(event,
-                                                                                 complementTriggerTransition,
-                                                                                 sourceLocalContext(complementTriggerTransition, localContexts),
-                                                                                 destinationLocalContext(complementTriggerTransition, localContexts),
-                                                                                 machineContext)) {
-                                 return (complementTriggerTransition);
-                               }
-                             }
-                             return (null);
-                           }));
+    if (dispatchComplementWithoutGuard.isPresent()) {
+      return(dispatchComplementWithoutGuard.get());
+    }
+
+    for (int i=0; i<dispatchComplementsWithGuard.size(); ++i) {
+      final EventTransition<TState, TEvent, TLocalContext, TGlobalContext> complementTriggerTransition = dispatchComplementsWithGuard.get(i);
+      if ((! complementTriggerTransition.guard.isPresent())||complementTriggerTransition.guard.get().check(event,
+                                                        complementTriggerTransition,
+                                                        sourceLocalContext(complementTriggerTransition, localContexts),
+                                                        destinationLocalContext(complementTriggerTransition, localContexts),
+                                                        machineContext)) {
+        return (complementTriggerTransition);
+      }
+    }
+    return (null);
   }
 
   @SafeVarargs
@@ -44,6 +44,10 @@ public interface StateConfigurationDSL<TState extends Enum<TState> & States, TEv
 
   public @NonNull StateConfigurationWhenDSL<TState, TEvent, TLocalContext, TGlobalContext> other();
 
+  public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> defer(final @NonNull TEvent... events);
+
+  public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> parent(final @NonNull TState parent);
+
   public @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext>     moveAfter(final @NonNull Duration duration,
                                                                                                      final @NonNull TState   target);
 
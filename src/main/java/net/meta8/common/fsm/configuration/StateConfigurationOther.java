@@ -41,7 +41,7 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     }
     configuration.complementTransitionWithoutGuard = Optional.of(new EventTransition<>(configuration.state, Optional.<TState>empty()));
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -51,7 +51,7 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     }
     configuration.complementTransitionWithoutGuard = Optional.of(new EventTransition<>(configuration.state, Optional.<TState>empty(), action));
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -61,7 +61,7 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     }
     configuration.complementTransitionsWithGuard.add(new EventTransition<>(configuration.state, Optional.<TState>empty(), guard));
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -72,7 +72,7 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     }
     configuration.complementTransitionsWithGuard.add(new EventTransition<>(configuration.state, Optional.<TState>empty(), guard, action));
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -84,7 +84,7 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     configuration.complementTransitionWithoutGuard = Optional.of(new EventTransition<>(configuration.state, Optional.of(target)));
 
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -95,7 +95,7 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     }
     configuration.complementTransitionWithoutGuard = Optional.of(new EventTransition<>(configuration.state, Optional.of(target), action));
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -106,7 +106,7 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     }
     configuration.complementTransitionsWithGuard.add(new EventTransition<>(configuration.state, Optional.of(target), guard));
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -118,6 +118,6 @@ public final class StateConfigurationOther<TState extends Enum<TState> & States,
     }
     configuration.complementTransitionsWithGuard.add(new EventTransition<>(configuration.state, Optional.of(target), guard, action));
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 }
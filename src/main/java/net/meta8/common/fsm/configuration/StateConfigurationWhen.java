@@ -50,7 +50,7 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       configuration.eventTransitionsWithoutGuards.put(trigger, new EventTransition<>(configuration.state, Optional.<TState>empty(), triggers));
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -61,7 +61,7 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       };
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -74,7 +74,7 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       configuration.eventTransitionsWithGuards.get(trigger).add(new EventTransition<>(configuration.state, Optional.<TState>empty(), guard, triggers));
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -88,7 +88,7 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       configuration.eventTransitionsWithGuards.get(trigger).add(new EventTransition<>(configuration.state, Optional.<TState>empty(), guard, action, triggers));
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -99,7 +99,7 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       };
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -112,7 +112,7 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       };
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -126,7 +126,7 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       configuration.eventTransitionsWithGuards.get(trigger).add(new EventTransition<>(configuration.state,  Optional.of(target), guard, triggers));
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 
   @Override
@@ -141,6 +141,6 @@ public final class StateConfigurationWhen<TState extends Enum<TState> & States,
       configuration.eventTransitionsWithGuards.get(trigger).add(new EventTransition<>(configuration.state,  Optional.of(target), guard, action, triggers));
     }
 
-    return(this.configuration);
+    return(configuration.changed());
   }
 }
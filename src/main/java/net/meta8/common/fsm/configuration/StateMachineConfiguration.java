@@ -19,11 +19,21 @@
 package net.meta8.common.fsm.configuration;
 
 import net.meta8.common.fsm.exception.MissingStateConfigurationException;
+import net.meta8.common.fsm.exception.StateConfigurationError;
+import net.meta8.common.fsm.listener.TransitionListener;
 import net.meta8.common.fsm.state.States;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 
@@ -37,19 +47,36 @@ public final class StateMachineConfiguration<TState extends Enum<TState> & State
 
   // states configurations : an array of StateConfiguration for each state
   private final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] stateMachineConfiguration;
+  private final @NonNull TState[]                                                            states;
 
+  // initial states of the orthogonal regions, see regions()
+  private final @NonNull List<TState> regions = new ArrayList<>();
+
+  // slots of the deferred events queue of each machine, see deferredCapacity()
+  public static final int DEFAULT_DEFERRED_CAPACITY = 16;
+  private int deferredCapacity = DEFAULT_DEFERRED_CAPACITY;
+
+  // transition listeners, handed to the definitions compiled afterwards
+  private final @NonNull List<TransitionListener<TState, TEvent>> listeners = new ArrayList<>();
+
+  // last compile() result, handed out again until the DSL changes, see modifications()
+  private @Nullable MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition;
+  private long definitionModifications;
+  private long modifications; // DSL calls made on this configuration
 
   @SuppressWarnings("unchecked")
   public StateMachineConfiguration(final @NonNull Class<TState>                                      enumStateClazz,
                                    final @NonNull Optional<TGlobalContext>                           initialContext,
                                    final @NonNull Optional<Function<TGlobalContext, TGlobalContext>> cloneFunction) {
-    stateMachineConfiguration = (StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[]) Array.newInstance(StateConfiguration.class, enumStateClazz.getEnumConstants().length);
+    states                    = enumStateClazz.getEnumConstants();
+    stateMachineConfiguration = (StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[]) Array.newInstance(StateConfiguration.class, states.length);
     this.initialContext       = initialContext;
     this.cloneFunction        = cloneFunction;
   }
 
   // -----------------------
 
+  @Deprecated // each machine clones the context of its MachineDefinition
   public Optional<TGlobalContext> cloneContext() {
     assert(((! initialContext.isPresent())&&(! cloneFunction.isPresent()))||((initialContext.isPresent())&&(cloneFunction.isPresent())));
     return(initialContext.map(someContext -> cloneFunction.get().apply(someContext)));
@@ -62,10 +89,43 @@ public final class StateMachineConfiguration<TState extends Enum<TState> & State
     }
 
     final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> stateConfiguration = new StateConfiguration<>(state);
+    final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> replaced           = stateMachineConfiguration[state.ordinal()];
+    // keep counting the changes of a replaced configuration, so that modifications() never goes back
+    modifications += 1 + ((replaced == null) ? 0 : replaced.modifications());
     stateMachineConfiguration[state.ordinal()] = stateConfiguration;
     return(stateConfiguration);
   }
 
+  @Override
+  public @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> listener(final @NonNull TransitionListener<TState, TEvent> listener) {
+    listeners.add(listener);
+    ++modifications;
+    return(this);
+  }
+
+  // events deferred by the states (see StateConfigurationDSL.defer) are queued by each machine in a ring buffer of 'capacity'
+  // slots, allocated with the machine : a deferred event is refused when the queue is full
+  @Override
+  public @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> deferredCapacity(final int capacity) {
+    if (capacity <= 0) {
+      throw(new StateConfigurationError("Deferred events capacity must be positive : "+capacity));
+    }
+    deferredCapacity = capacity;
+    ++modifications;
+    return(this);
+  }
+
+  // split the machine into orthogonal regions, one per initial state, each with its own current state : a region is made of the
+  // states reachable from its initial state (through transitions and parents) and two regions can't share a state. Only
+  // compileRegions() honours them
+  @SafeVarargs
+  @Override
+  public final @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> regions(final @NonNull TState... initialStates) {
+    Collections.addAll(regions, initialStates);
+    ++modifications;
+    return(this);
+  }
+
   // -----------------------
 
   public @NonNull TState getInitialState() throws MissingStateConfigurationException {
@@ -73,7 +133,90 @@ public final class StateMachineConfiguration<TState extends Enum<TState> & State
     return(initialState);
   }
 
+  @Deprecated // compile() freezes the configurations, see MachineDefinition
   public @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] getStateMachineConfigurationClone() {
     return(Arrays.copyOf(stateMachineConfiguration, stateMachineConfiguration.length));
   }
+
+  // validate and freeze the current configuration : every transition target must be configured (MissingStateConfigurationException)
+  // and sequences must not overlap 'when' triggers (StateConfigurationError). Compile once, then stamp as many machines as needed.
+  // The same definition is returned until the configuration changes through the DSL : the StateMachine constructors taking a
+  // configuration don't compile it again for each machine
+  @Override
+  public @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> compile() throws MissingStateConfigurationException {
+    final long current = modifications();
+    if ((definition == null)||(definitionModifications != current)) {
+      definition              = new MachineDefinition<>(states, getInitialState(), stateMachineConfiguration, initialContext, cloneFunction, listener(), true, deferredCapacity);
+      definitionModifications = current;
+    }
+    return(definition);
+  }
+
+  // grows with every DSL call, on this configuration or on the state configurations
+  private long modifications() {
+    long total = modifications;
+    for (final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration : stateMachineConfiguration) {
+      if (configuration != null) {
+        total += configuration.modifications();
+      }
+    }
+    return(total);
+  }
+
+  // one definition per region (in declaration order), holding the configurations of the states of that region only. A single
+  // definition, as compile(), without regions. Throws MissingStateConfigurationException for a reachable state which is not
+  // configured, StateConfigurationError for a state reachable from two regions
+  @SuppressWarnings("unchecked")
+  @Override
+  public @NonNull List<MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext>> compileRegions() throws MissingStateConfigurationException {
+    if (regions.isEmpty()) {
+      return(Collections.singletonList(compile()));
+    }
+
+    final TransitionListener<TState, TEvent>                                   listener    = listener();
+    final Map<TState, TState>                                                  owners      = new HashMap<>(); // region (initial state) of each state
+    final List<MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext>> definitions = new ArrayList<>(regions.size());
+    for (final TState region : regions) {
+      final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] configurations = (StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[]) Array.newInstance(StateConfiguration.class, states.length);
+      final Deque<TState>                                                       pending        = new ArrayDeque<>();
+      pending.add(region);
+      while (! pending.isEmpty()) {
+        final TState state = pending.poll();
+        if (configurations[state.ordinal()] != null) {
+          continue;
+        }
+        final TState owner = owners.putIfAbsent(state, region);
+        if (owner != null) {
+          throw(new StateConfigurationError("State "+state.name()+" belongs to regions "+owner.name()+" and "+region.name()));
+        }
+        final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration = stateMachineConfiguration[state.ordinal()];
+        if (configuration == null) {
+          throw(new MissingStateConfigurationException(state.name()));
+        }
+        configurations[state.ordinal()] = configuration;
+        configuration.parent.ifPresent(pending::add);
+        configuration.forEachTransition(transition -> pending.add(transition.destination.isPresent() ? transition.destination.get() : transition.source));
+      }
+      definitions.add(new MachineDefinition<>(states, region, configurations, initialContext, cloneFunction, listener, true, deferredCapacity));
+    }
+    return(definitions);
+  }
+
+  // null without listener, so that the fire path can skip timing altogether
+  @SuppressWarnings("unchecked")
+  private @Nullable TransitionListener<TState, TEvent> listener() {
+    switch (listeners.size()) {
+      case 0:
+        return(null);
+      case 1:
+        return(listeners.get(0));
+      default:
+        final TransitionListener<TState, TEvent>[] all = listeners.toArray((TransitionListener<TState, TEvent>[]) new TransitionListener<?, ?>[listeners.size()]);
+        return((source, target, event, guardNanos, actionNanos) -> {
+          for (final TransitionListener<TState, TEvent> listener : all) {
+            listener.onTransition(source, target, event, guardNanos, actionNanos);
+          }
+        });
+    }
+  }
 }
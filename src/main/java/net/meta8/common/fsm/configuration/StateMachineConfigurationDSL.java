@@ -18,9 +18,40 @@
 
 package net.meta8.common.fsm.configuration;
 
+import net.meta8.common.fsm.exception.MissingStateConfigurationException;
+import net.meta8.common.fsm.listener.TransitionListener;
 import net.meta8.common.fsm.state.States;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.util.Collections;
+import java.util.List;
+
+// only state() is abstract : the methods added afterwards throw UnsupportedOperationException by default, so that existing
+// implementations still compile. StateMachineConfiguration implements them all
 public interface StateMachineConfigurationDSL<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
   @NonNull StateConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> state(final @NonNull TState state);
+
+  // every transition of the machines compiled afterwards is reported to the listener(s), in registration order
+  default @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> listener(final @NonNull TransitionListener<TState, TEvent> listener) {
+    throw(new UnsupportedOperationException("listener() is not supported by "+getClass().getName()));
+  }
+
+  default @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> compile() throws MissingStateConfigurationException {
+    throw(new UnsupportedOperationException("compile() is not supported by "+getClass().getName()));
+  }
+
+  default @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> deferredCapacity(final int capacity) {
+    throw(new UnsupportedOperationException("deferredCapacity() is not supported by "+getClass().getName()));
+  }
+
+  // orthogonal regions, each one starting from one of 'initialStates' : see compileRegions() and RegionStateMachine
+  @SuppressWarnings("unchecked")
+  default @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> regions(final @NonNull TState... initialStates) {
+    throw(new UnsupportedOperationException("regions() is not supported by "+getClass().getName()));
+  }
+
+  // a single definition, without regions
+  default @NonNull List<MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext>> compileRegions() throws MissingStateConfigurationException {
+    return(Collections.singletonList(compile()));
+  }
 }
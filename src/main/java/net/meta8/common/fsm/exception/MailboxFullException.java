@@ -0,0 +1,29 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.exception;
+
+public final class MailboxFullException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  // stackless : a full mailbox is a load shedding signal, handed back through the future of fireAsync
+  public MailboxFullException(final int capacity) {
+    super("Mailbox is full ("+capacity+" events)", null, false, false);
+  }
+}
@@ -20,7 +20,8 @@
 package net.meta8.common.fsm.exception;
 
 public class MissingStateConfigurationException extends RuntimeException {
+  // stackless, as UnknownTriggerException
   public MissingStateConfigurationException(final String stateName) {
-    super("State ["+stateName+"] is not configured");
+    super("State ["+stateName+"] is not configured", null, false, false);
   }
 }
\ No newline at end of file
@@ -19,7 +19,8 @@
 package net.meta8.common.fsm.exception;
 
 public final class UnknownTriggerException extends RuntimeException {
+  // stackless : refused events are part of the normal traffic of a machine, filling a stack trace costs more than the fire() itself
   public UnknownTriggerException(final String stateName, final String triggerAsText) {
-    super("State ["+stateName+"] is not configured for trigger ["+triggerAsText+"]");
+    super("State ["+stateName+"] is not configured for trigger ["+triggerAsText+"]", null, false, false);
   }
 }
@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.jfr;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// Java Flight Recorder events of the engine (category "State Machine") :
+//   net.meta8.fsm.Transition       transitions and their actions, above 10 ms by default
+//   net.meta8.fsm.Timeout          timeouts scheduled, fired and cancelled, disabled by default
+//   net.meta8.fsm.RejectedTrigger  events refused by fire()
+// Enable or tune them with the usual JFR settings (-XX:StartFlightRecording:settings=..., jcmd JFR.configure ...).
+// When an event is disabled, or no recording runs, a call costs a field read and nothing is allocated.
+// The library is built for Java 8 : the events and their JfrSink are built for Java 11 (src/main/java11) and looked up
+// by reflection. Without them, or without jdk.jfr at run time, every call is a no-op
+public final class FlightRecorderEvents {
+  private static final @Nullable FlightRecorderSink SINK = newSink();
+
+  public static final boolean AVAILABLE = (SINK != null);
+
+  private FlightRecorderEvents() {
+  }
+
+  private static @Nullable FlightRecorderSink newSink() {
+    try {
+      Class.forName("jdk.jfr.FlightRecorder");
+      return((FlightRecorderSink) Class.forName("net.meta8.common.fsm.jfr.JfrSink").getDeclaredConstructor().newInstance());
+    }
+    catch (final ReflectiveOperationException | LinkageError missing) {
+      return(null);
+    }
+  }
+
+  // true when transitions are recorded, their guards then need to be timed
+  public static boolean isTransitionRecorded() {
+    final FlightRecorderSink sink = SINK;
+    return((sink != null)&&(sink.isTransitionEnabled()));
+  }
+
+  // started before the actions of a transition, null when transitions are not recorded
+  public static @Nullable Object beginTransition() {
+    final FlightRecorderSink sink = SINK;
+    if ((sink == null)||(! sink.isTransitionEnabled())) {
+      return(null);
+    }
+    return(sink.beginTransition());
+  }
+
+  // after the actions of the transition : committed if above the threshold
+  public static void commitTransition(final @NonNull  Object  transition,
+                                      final @NonNull  Enum<?> source,
+                                      final @NonNull  Enum<?> target,
+                                      final @Nullable Object  trigger,
+                                      final           long    guardNanos) {
+    final FlightRecorderSink sink = SINK;
+    if (sink != null) {
+      sink.commitTransition(transition, source, target, trigger, guardNanos);
+    }
+  }
+
+  public static void timeoutScheduled(final @NonNull Enum<?> state,
+                                      final          long    delayMillis) {
+    timeout("scheduled", state, delayMillis);
+  }
+
+  public static void timeoutFired(final @NonNull Enum<?> state) {
+    timeout("fired", state, 0);
+  }
+
+  public static void timeoutCancelled(final @NonNull Enum<?> state) {
+    timeout("cancelled", state, 0);
+  }
+
+  private static void timeout(final @NonNull String  action,
+                              final @NonNull Enum<?> state,
+                              final          long    delayMillis) {
+    final FlightRecorderSink sink = SINK;
+    if ((sink != null)&&(sink.isTimeoutEnabled())) {
+      sink.timeout(action, state, delayMillis);
+    }
+  }
+
+  public static void rejected(final @NonNull  Enum<?> state,
+                              final @Nullable Object  trigger) {
+    final FlightRecorderSink sink = SINK;
+    if ((sink != null)&&(sink.isRejectedEnabled())) {
+      sink.rejected(state, trigger);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.jfr;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// what FlightRecorderEvents needs from jdk.jfr. The library core is built for Java 8 : the only implementation,
+// JfrSink, lives in src/main/java11 and is instantiated by reflection once jdk.jfr is known to be there
+interface FlightRecorderSink {
+  boolean isTransitionEnabled();
+
+  // started before the actions of a transition
+  @NonNull Object beginTransition();
+
+  void commitTransition(final @NonNull  Object  transition,
+                        final @NonNull  Enum<?> source,
+                        final @NonNull  Enum<?> target,
+                        final @Nullable Object  trigger,
+                        final           long    guardNanos);
+
+  boolean isTimeoutEnabled();
+
+  void timeout(final @NonNull String  action,
+               final @NonNull Enum<?> state,
+               final          long    delayMillis);
+
+  boolean isRejectedEnabled();
+
+  void rejected(final @NonNull  Enum<?> state,
+                final @Nullable Object  trigger);
+}
@@ -0,0 +1,404 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.journal;
+
+import net.meta8.common.fsm.codec.Codec;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+// append only log of machine changes (creation, event fired, timeout transition, removal), memory mapped in fixed size segments
+// of a directory. Appending is a few puts in the mapped segment : the page cache takes the data at once, a background thread
+// forces it to the storage device every syncInterval for all the records appended meanwhile (group commit), so a JVM crash
+// loses nothing and a power loss at most syncInterval of records. sync() forces it on demand.
+//
+// segment : magic, version, segment number, then records
+// record  : payload length, CRC32 of the payload, payload = type, machine id, timestamp (epoch ms), event through the codec.
+// A zero length ends the segment. A record whose checksum doesn't match (torn by a crash) ends the journal
+public final class EventJournal<TEvent> implements AutoCloseable {
+  public enum RecordType {
+    CREATE,  // no event
+    FIRE,
+    TIMEOUT, // no event
+    REMOVE   // no event
+  }
+
+  @FunctionalInterface
+  public interface Reader<TEvent> {
+    void read(final @NonNull  RecordType type,
+              final           long       id,
+              final           long       timestamp,
+              final @Nullable TEvent     event);
+  }
+
+  public static final int      DEFAULT_SEGMENT_SIZE  = 64 << 20;
+  public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(10);
+
+  private static final int          MAGIC          = 0x46534D4A; // FSMJ
+  private static final int          VERSION        = 1;
+  private static final int          HEADER         = 16;         // magic, version, segment number
+  private static final int          RECORD_HEADER  = 8;          // payload length, CRC32
+  private static final int          PAYLOAD_HEADER = 17;         // type, id, timestamp
+  private static final String       SUFFIX         = ".journal";
+  private static final RecordType[] TYPES          = RecordType.values();
+
+  private final @NonNull Path          directory;
+  private final @NonNull Codec<TEvent> codec;
+  private final          int           segmentSize;
+  private final          long          syncNanos;
+  private final @NonNull CRC32         crc = new CRC32();
+
+  private          long             segmentNumber;
+  private @NonNull MappedByteBuffer segment;
+  private          boolean          closed;
+
+  // records appended since the last force
+  private volatile boolean dirty;
+
+  private final @Nullable Thread syncer;
+
+  private EventJournal(final @NonNull Path             directory,
+                       final @NonNull Codec<TEvent>    codec,
+                       final          int              segmentSize,
+                       final @NonNull Duration         syncInterval,
+                       final          long             segmentNumber,
+                       final @NonNull MappedByteBuffer segment) {
+    this.directory     = directory;
+    this.codec         = codec;
+    this.segmentSize   = segmentSize;
+    this.syncNanos     = syncInterval.toNanos();
+    this.segmentNumber = segmentNumber;
+    this.segment       = segment;
+
+    if (syncNanos > 0) {
+      syncer = new Thread(this::syncLoop, "fsm-journal-sync");
+      syncer.setDaemon(true);
+      syncer.start();
+    }
+    else {
+      syncer = null;
+    }
+  }
+
+  public static <TEvent> @NonNull EventJournal<TEvent> open(final @NonNull Path          directory,
+                                                            final @NonNull Codec<TEvent> codec) throws IOException {
+    return(open(directory, codec, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL));
+  }
+
+  // appends after the last valid record found in the directory, created if needed.
+  // A zero syncInterval forces every record to the storage device before append returns (no group commit)
+  public static <TEvent> @NonNull EventJournal<TEvent> open(final @NonNull Path          directory,
+                                                            final @NonNull Codec<TEvent> codec,
+                                                            final          int           segmentSize,
+                                                            final @NonNull Duration      syncInterval) throws IOException {
+    if (segmentSize < HEADER + RECORD_HEADER + PAYLOAD_HEADER) {
+      throw(new IllegalArgumentException("Segment size too small: "+segmentSize));
+    }
+    Files.createDirectories(directory);
+
+    final List<Path> segments = segments(directory);
+    if (segments.isEmpty()) {
+      return(new EventJournal<>(directory, codec, segmentSize, syncInterval, 0, createSegment(directory, 0, segmentSize)));
+    }
+
+    final Path last = segments.get(segments.size() - 1);
+    if (blank(last)) {
+      // created right before a power loss, its header never reached the storage device : start it again
+      final long number = segmentNumber(last);
+      Files.delete(last);
+      return(new EventJournal<>(directory, codec, segmentSize, syncInterval, number, createSegment(directory, number, segmentSize)));
+    }
+
+    final MappedByteBuffer buffer = mapSegment(last, MapMode.READ_WRITE);
+    if (buffer.capacity() != segmentSize) {
+      throw(new IOException(last+" is not a segment of "+segmentSize+" bytes"));
+    }
+
+    final int end = scan(buffer, new CRC32(), null, null);
+    if ((end + 4 <= buffer.capacity())&&(buffer.getInt(end) != 0)) {
+      // torn record left by a crash : wipe it so that it can't be mistaken for a record later
+      for (int i=end; i<buffer.capacity(); ++i) {
+        buffer.put(i, (byte) 0);
+      }
+    }
+    buffer.position(end);
+    return(new EventJournal<>(directory, codec, segmentSize, syncInterval, segmentNumber(buffer), buffer));
+  }
+
+  // -----------------------
+
+  // CREATE, TIMEOUT and REMOVE records take no event
+  public synchronized void append(final @NonNull  RecordType type,
+                                  final           long       id,
+                                  final @Nullable TEvent     event) {
+    if (closed) {
+      throw(new IllegalStateException("Journal is closed"));
+    }
+
+    final long timestamp = System.currentTimeMillis();
+    if (! tryAppend(type, id, timestamp, event)) {
+      roll();
+      if (! tryAppend(type, id, timestamp, event)) {
+        throw(new IllegalArgumentException("Record of machine "+id+" doesn't fit in a segment of "+segmentSize+" bytes"));
+      }
+    }
+
+    if (syncer == null) {
+      segment.force();
+    }
+    else {
+      dirty = true;
+    }
+  }
+
+  // force every record appended so far to the storage device
+  public void sync() {
+    final MappedByteBuffer current;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      current = segment;
+      dirty   = false;
+    }
+    current.force();
+  }
+
+  // every record, in append order. Meant to run before appending : records appended meanwhile may or may not be read.
+  // Segments are complete on the storage device before the next one starts, only the last one may end with a torn record
+  public void replay(final @NonNull Reader<TEvent> reader) throws IOException {
+    final List<Path> segments;
+    final long       current;
+    final int        end;
+    synchronized (this) {
+      segments = segments(directory);
+      current  = segmentNumber;
+      end      = segment.position();
+    }
+
+    final CRC32 checksum = new CRC32();
+    for (final Path path : segments) {
+      final ByteBuffer buffer = mapSegment(path, MapMode.READ_ONLY);
+      if (segmentNumber(buffer) == current) {
+        buffer.limit(end);
+      }
+      scan(buffer, checksum, codec, reader);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    if (syncer != null) {
+      LockSupport.unpark(syncer);
+      try {
+        syncer.join();
+      }
+      catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    segment.force();
+  }
+
+  // -----------------------
+
+  private boolean tryAppend(final @NonNull  RecordType type,
+                            final           long       id,
+                            final           long       timestamp,
+                            final @Nullable TEvent     event) {
+    final MappedByteBuffer buffer = segment;
+    final int              start  = buffer.position();
+    if (buffer.remaining() < RECORD_HEADER + PAYLOAD_HEADER) {
+      return(false);
+    }
+
+    buffer.position(start + RECORD_HEADER);
+    buffer.put((byte) type.ordinal()).putLong(id).putLong(timestamp);
+    if (event != null) {
+      try {
+        codec.encode(event, buffer);
+      }
+      catch (final BufferOverflowException full) {
+        buffer.position(start); // the length is still 0 : the bytes written so far end the segment
+        return(false);
+      }
+    }
+
+    final int end = buffer.position();
+    buffer.position(start + RECORD_HEADER);
+    buffer.limit(end);
+    crc.reset();
+    crc.update(buffer);
+    buffer.limit(buffer.capacity());
+    buffer.position(end);
+
+    buffer.putInt(start + 4, (int) crc.getValue());
+    buffer.putInt(start, end - start - RECORD_HEADER);
+    return(true);
+  }
+
+  private void roll() {
+    segment.force(); // a segment is complete on the storage device before the next one starts
+    try {
+      segment = createSegment(directory, segmentNumber + 1, segmentSize);
+      ++segmentNumber;
+    }
+    catch (final IOException failure) {
+      throw(new IllegalStateException("Can't create journal segment "+(segmentNumber + 1)+" in "+directory, failure));
+    }
+  }
+
+  private void syncLoop() {
+    while (true) {
+      LockSupport.parkNanos(syncNanos);
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+      }
+      if (dirty) {
+        sync();
+      }
+    }
+  }
+
+  // read the records from HEADER on, handing them to the reader when there's one. Return the position after the last valid record
+  private static <TEvent> int scan(final @NonNull  ByteBuffer        buffer,
+                                   final @NonNull  CRC32             checksum,
+                                   final @Nullable Codec<TEvent>     codec,
+                                   final @Nullable Reader<TEvent>    reader) {
+    final int limit    = buffer.limit();
+    int       position = HEADER;
+    while (position + RECORD_HEADER + PAYLOAD_HEADER <= limit) {
+      final int length = buffer.getInt(position);
+      if ((length < PAYLOAD_HEADER)||(length > limit - position - RECORD_HEADER)) {
+        break;
+      }
+
+      final int payload = position + RECORD_HEADER;
+      buffer.limit(payload + length);
+      buffer.position(payload);
+      checksum.reset();
+      checksum.update(buffer);
+      if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+        buffer.limit(limit);
+        break;
+      }
+
+      if (reader != null) {
+        buffer.position(payload);
+        final RecordType type      = TYPES[buffer.get()];
+        final long       id        = buffer.getLong();
+        final long       timestamp = buffer.getLong();
+        final TEvent     event     = (length > PAYLOAD_HEADER) ? codec.decode(buffer) : null;
+        reader.read(type, id, timestamp, event);
+      }
+      buffer.limit(limit);
+      position = payload + length;
+    }
+    return(position);
+  }
+
+  private static @NonNull List<Path> segments(final @NonNull Path directory) throws IOException {
+    final List<Path> segments = new ArrayList<>();
+    try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      stream.forEach(segments::add);
+    }
+    Collections.sort(segments); // zero padded numbers
+    return(segments);
+  }
+
+  // the header and the file size are forced to the storage device before any record is appended
+  private static @NonNull MappedByteBuffer createSegment(final @NonNull Path directory,
+                                                         final          long segmentNumber,
+                                                         final          int  segmentSize) throws IOException {
+    final Path path = directory.resolve(String.format("%020d%s", segmentNumber, SUFFIX));
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, segmentSize); // the mapping outlives the channel
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putLong(segmentNumber);
+      buffer.force();
+      channel.force(true);
+      return(buffer);
+    }
+  }
+
+  // true when the header is only made of zeros (or missing) : the segment holds no record
+  private static boolean blank(final @NonNull Path path) throws IOException {
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER);
+      while ((header.hasRemaining())&&(channel.read(header) >= 0)) {
+        // until HEADER bytes or the end of the file
+      }
+      for (int i=0; i<header.position(); ++i) {
+        if (header.get(i) != 0) {
+          return(false);
+        }
+      }
+      return(true);
+    }
+  }
+
+  private static @NonNull MappedByteBuffer mapSegment(final @NonNull Path    path,
+                                                      final @NonNull MapMode mode) throws IOException {
+    final StandardOpenOption[] options = (mode == MapMode.READ_ONLY) ? new StandardOpenOption[] {StandardOpenOption.READ}
+                                                                     : new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE};
+    try (final FileChannel channel = FileChannel.open(path, options)) {
+      final MappedByteBuffer buffer = channel.map(mode, 0, channel.size());
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if ((buffer.capacity() < HEADER)||(buffer.getInt(0) != MAGIC)||(buffer.getInt(4) != VERSION)) {
+        throw(new IOException(path+" is not a journal segment"));
+      }
+      return(buffer);
+    }
+  }
+
+  private static long segmentNumber(final @NonNull ByteBuffer buffer) {
+    return(buffer.getLong(8));
+  }
+
+  // from the file name, zero padded
+  private static long segmentNumber(final @NonNull Path path) {
+    final String name = path.getFileName().toString();
+    return(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+  }
+}
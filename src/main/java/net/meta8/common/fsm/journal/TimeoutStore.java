@@ -0,0 +1,353 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.journal;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// absolute deadlines of the pending timeout transitions of a StateMachineRegistry, so that a restart goes on with what's left
+// of them rather than their whole duration. A memory mapped file of fixed size records, at most one per machine id :
+// put and remove are a few puts in place, group committed to the storage device like the EventJournal records. Records are
+// spread over the whole file rather than appended : each force writes every page touched meanwhile, hence a longer default
+// sync interval than the journal one. A power loss loses at most that much of the changes, a JVM crash none.
+// Records are read back in deadline order, so only the machines with a record are visited on restart, not every machine.
+//
+// file   : magic, version, then records
+// record : machine id, deadline (epoch ms, 0 for a free record), state ordinal, unused. The deadline is written last
+public final class TimeoutStore implements AutoCloseable {
+  @FunctionalInterface
+  public interface Visitor {
+    void visit(final long id,
+               final int  state,
+               final long deadline);
+  }
+
+  public static final int      DEFAULT_CAPACITY      = 1024;
+  public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(1);
+
+  private static final int  MAGIC    = 0x46534D54; // FSMT
+  private static final int  VERSION  = 1;
+  private static final int  HEADER   = 16;         // magic, version, unused
+  private static final int  RECORD   = 24;
+  private static final int  DEADLINE = 8;          // offset in the record
+  private static final int  STATE    = 16;
+  private static final int  NO_INDEX = -1;
+
+  private final @NonNull Path             file;
+  private final          long             syncNanos;
+  private @NonNull       MappedByteBuffer buffer;
+  private                int              capacity;
+  private                boolean          closed;
+
+  // id -> record index, free record indexes below recordCount
+  private final @NonNull TLongIntHashMap records;
+  private                int[]           freeRecords = new int[16];
+  private                int             freeCount;
+  private                int             recordCount;
+
+  // records changed since the last force
+  private volatile boolean dirty;
+
+  private final @Nullable Thread syncer;
+
+  private TimeoutStore(final @NonNull Path             file,
+                       final @NonNull Duration         syncInterval,
+                       final @NonNull MappedByteBuffer buffer) {
+    this.file      = file;
+    this.syncNanos = syncInterval.toNanos();
+    this.buffer    = buffer;
+    this.capacity  = (buffer.capacity() - HEADER) / RECORD;
+    this.records   = new TLongIntHashMap(Math.max(16, capacity), 0.5f, Long.MIN_VALUE, NO_INDEX);
+
+    if (syncNanos > 0) {
+      syncer = new Thread(this::syncLoop, "fsm-timeouts-sync");
+      syncer.setDaemon(true);
+      syncer.start();
+    }
+    else {
+      syncer = null;
+    }
+  }
+
+  public static @NonNull TimeoutStore open(final @NonNull Path file) throws IOException {
+    return(open(file, DEFAULT_CAPACITY, DEFAULT_SYNC_INTERVAL));
+  }
+
+  // load the records of the file, created with room for initialCapacity records if needed (it grows by doubling).
+  // A zero syncInterval forces every change to the storage device before put or remove returns
+  public static @NonNull TimeoutStore open(final @NonNull Path     file,
+                                           final          int      initialCapacity,
+                                           final @NonNull Duration syncInterval) throws IOException {
+    if (! Files.exists(file)) {
+      final TimeoutStore store = new TimeoutStore(file, syncInterval, map(file, HEADER + (long) Math.max(16, initialCapacity) * RECORD));
+      store.buffer.putInt(0, MAGIC);
+      store.buffer.putInt(4, VERSION);
+      return(store);
+    }
+
+    final MappedByteBuffer buffer = map(file, Files.size(file));
+    if ((buffer.capacity() < HEADER)||(buffer.getInt(0) != MAGIC)||(buffer.getInt(4) != VERSION)) {
+      throw(new IOException(file+" is not a timeout store"));
+    }
+    final TimeoutStore store = new TimeoutStore(file, syncInterval, buffer);
+    store.load();
+    return(store);
+  }
+
+  // -----------------------
+
+  // deadline of the pending timeout of a machine in a state, replacing the former one of this machine (if any)
+  public synchronized void put(final long id,
+                               final int  state,
+                               final long deadline) {
+    if (closed) {
+      throw(new IllegalStateException("Timeout store is closed"));
+    }
+    if (deadline <= 0) {
+      throw(new IllegalArgumentException("Invalid deadline: "+deadline));
+    }
+
+    int index = records.get(id);
+    if (index == NO_INDEX) {
+      index = allocateRecord();
+      records.put(id, index);
+    }
+    final int position = HEADER + index * RECORD;
+    buffer.putLong(position, id);
+    buffer.putInt(position + STATE, state);
+    buffer.putLong(position + DEADLINE, deadline);
+    changed();
+  }
+
+  public synchronized boolean remove(final long id) {
+    if (closed) {
+      throw(new IllegalStateException("Timeout store is closed"));
+    }
+
+    final int index = records.remove(id);
+    if (index == NO_INDEX) {
+      return(false);
+    }
+    final int position = HEADER + index * RECORD;
+    buffer.putLong(position + DEADLINE, 0);
+    releaseRecord(index);
+    changed();
+    return(true);
+  }
+
+  public synchronized int size() {
+    return(records.size());
+  }
+
+  // every record, by increasing deadline. The visitor may put or remove records, it sees the ones of the call time
+  public void forEach(final @NonNull Visitor visitor) {
+    final long[] ids;
+    final int[]  states;
+    final long[] deadlines;
+    synchronized (this) {
+      final int count = records.size();
+      ids       = new long[count];
+      states    = new int[count];
+      deadlines = new long[count];
+
+      final int[] order = records.values();
+      sortByDeadline(order);
+      for (int i=0; i<count; ++i) {
+        final int position = HEADER + order[i] * RECORD;
+        ids[i]       = buffer.getLong(position);
+        states[i]    = buffer.getInt(position + STATE);
+        deadlines[i] = buffer.getLong(position + DEADLINE);
+      }
+    }
+
+    for (int i=0; i<ids.length; ++i) {
+      visitor.visit(ids[i], states[i], deadlines[i]);
+    }
+  }
+
+  // force every change made so far to the storage device
+  public void sync() {
+    final MappedByteBuffer current;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      current = buffer;
+      dirty   = false;
+    }
+    current.force();
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    if (syncer != null) {
+      LockSupport.unpark(syncer);
+      try {
+        syncer.join();
+      }
+      catch (final InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    buffer.force();
+  }
+
+  // -----------------------
+
+  private void load() {
+    for (int index=0; index<capacity; ++index) {
+      final int  position = HEADER + index * RECORD;
+      final long deadline = buffer.getLong(position + DEADLINE);
+      if (deadline != 0) {
+        // a record moved by a crash between the put of the new one and the release of the former one : the last one wins
+        final int former = records.put(buffer.getLong(position), index);
+        if (former != NO_INDEX) {
+          buffer.putLong(HEADER + former * RECORD + DEADLINE, 0);
+        }
+        recordCount = index + 1;
+      }
+    }
+    for (int index=0; index<recordCount; ++index) {
+      if (buffer.getLong(HEADER + index * RECORD + DEADLINE) == 0) {
+        releaseRecord(index);
+      }
+    }
+  }
+
+  private void changed() {
+    if (syncer == null) {
+      buffer.force();
+    }
+    else {
+      dirty = true;
+    }
+  }
+
+  private int allocateRecord() {
+    if (freeCount > 0) {
+      return(freeRecords[--freeCount]);
+    }
+    if (recordCount == capacity) {
+      try {
+        buffer.force(); // as the journal segments : what was written is on the storage device before the file grows
+        buffer   = map(file, HEADER + (long) capacity * 2 * RECORD);
+        capacity = capacity * 2;
+      }
+      catch (final IOException failure) {
+        throw(new IllegalStateException("Can't grow timeout store "+file, failure));
+      }
+    }
+    return(recordCount++);
+  }
+
+  private void releaseRecord(final int index) {
+    if (freeCount == freeRecords.length) {
+      freeRecords = Arrays.copyOf(freeRecords, freeCount * 2);
+    }
+    freeRecords[freeCount++] = index;
+  }
+
+  // record indexes by deadline : deadlines are read once in a parallel array, then both are sorted together (no boxing)
+  private void sortByDeadline(final int[] order) {
+    final long[] deadlines = new long[order.length];
+    for (int i=0; i<order.length; ++i) {
+      deadlines[i] = buffer.getLong(HEADER + order[i] * RECORD + DEADLINE);
+    }
+    if (order.length > 1) {
+      sort(deadlines, order, 0, order.length - 1);
+    }
+  }
+
+  private static void sort(final long[] keys,
+                           final int[]  values,
+                           final int    low,
+                           final int    high) {
+    int  i     = low;
+    int  j     = high;
+    long pivot = keys[(low + high) >>> 1];
+    while (i <= j) {
+      while (keys[i] < pivot) {
+        ++i;
+      }
+      while (keys[j] > pivot) {
+        --j;
+      }
+      if (i <= j) {
+        final long key   = keys[i];
+        final int  value = values[i];
+        keys[i]   = keys[j];
+        values[i] = values[j];
+        keys[j]   = key;
+        values[j] = value;
+        ++i;
+        --j;
+      }
+    }
+    if (low < j) {
+      sort(keys, values, low, j);
+    }
+    if (i < high) {
+      sort(keys, values, i, high);
+    }
+  }
+
+  private void syncLoop() {
+    while (true) {
+      LockSupport.parkNanos(syncNanos);
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+      }
+      if (dirty) {
+        sync();
+      }
+    }
+  }
+
+  // the mapping outlives the channel, mapping past the end of the file grows it
+  private static @NonNull MappedByteBuffer map(final @NonNull Path file,
+                                               final          long size) throws IOException {
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      return(buffer);
+    }
+  }
+}
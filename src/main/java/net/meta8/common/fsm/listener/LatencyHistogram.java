@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.listener;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// lock free log-linear histogram of nanosecond values, HDR style : exact below 16 ns, then 16 sub buckets per power of two,
+// ie. a relative error below 6.25%. Values above 2^41 ns (~36 minutes) land in the last bucket.
+// record() is a couple of atomic increments, readers get a consistent enough view without stopping writers
+public final class LatencyHistogram {
+  private static final int SUB_BITS     = 4;
+  private static final int SUB_COUNT    = 1 << SUB_BITS;
+  private static final int MAX_EXPONENT = 40;
+  private static final int BUCKETS      = SUB_COUNT + (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder       count  = new LongAdder();
+  private final LongAdder       sum    = new LongAdder();
+
+  public void record(final long nanos) {
+    final long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(value));
+    count.increment();
+    sum.add(value);
+  }
+
+  public long count() {
+    return(count.sum());
+  }
+
+  public double mean() {
+    final long someCount = count.sum();
+    return((someCount == 0) ? 0.0 : (double) sum.sum() / someCount);
+  }
+
+  // upper bound of the bucket holding the given percentile (0 < percentile <= 100), 0 when nothing was recorded
+  public long valueAtPercentile(final double percentile) {
+    long total = 0;
+    for (int i=0; i<BUCKETS; ++i) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return(0);
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * total));
+    long seen = 0;
+    for (int i=0; i<BUCKETS; ++i) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return(highestValue(i));
+      }
+    }
+    return(highestValue(BUCKETS - 1));
+  }
+
+  public long max() {
+    for (int i=BUCKETS - 1; i>=0; --i) {
+      if (counts.get(i) != 0) {
+        return(highestValue(i));
+      }
+    }
+    return(0);
+  }
+
+  public void reset() {
+    for (int i=0; i<BUCKETS; ++i) {
+      counts.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+  }
+
+  static int bucket(final long value) {
+    if (value < SUB_COUNT) {
+      return((int) value);
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent > MAX_EXPONENT) {
+      return(BUCKETS - 1);
+    }
+    final int shift = exponent - SUB_BITS;
+    return(SUB_COUNT + shift * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT));
+  }
+
+  static long highestValue(final int bucket) {
+    if (bucket < SUB_COUNT) {
+      return(bucket);
+    }
+    final int shift = (bucket - SUB_COUNT) / SUB_COUNT;
+    final int sub   = (bucket - SUB_COUNT) % SUB_COUNT;
+    return(((long) (SUB_COUNT + sub + 1) << shift) - 1);
+  }
+
+  @Override
+  public String toString() {
+    return(String.format("count=%d mean=%.0fns p50=%dns p99=%dns p99.9=%dns max=%dns", count(), mean(), valueAtPercentile(50), valueAtPercentile(99), valueAtPercentile(99.9), max()));
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.listener;
+
+import net.meta8.common.fsm.state.States;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// notified of every transition performed by the machines of a MachineDefinition (see StateMachineConfigurationDSL.listener).
+// Called by the firing thread, under the machine lock, once the transition, exit and entry actions have run : keep it short
+// and never throw. Without any listener the fire path doesn't even read the clock
+@FunctionalInterface
+public interface TransitionListener<TState extends Enum<TState> & States, TEvent> {
+  // event is null for a timeout transition, target == source for reflexive (re-entrant, sequence) transitions.
+  // guardNanos : time spent evaluating guards before this transition was chosen, 0 if it has no guard.
+  // actionNanos : time spent in the transition action and in the exit / entry actions
+  void onTransition(final @NonNull  TState source,
+                    final @NonNull  TState target,
+                    final @Nullable TEvent event,
+                    final           long   guardNanos,
+                    final           long   actionNanos);
+}
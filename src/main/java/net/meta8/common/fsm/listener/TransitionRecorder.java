@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.listener;
+
+import net.meta8.common.fsm.state.States;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// built-in listener keeping a count and guard / action latency histograms per (source state, event) pair.
+// Lock free once a pair has been seen : a map lookup by source ordinal then a few atomic increments.
+// Can be shared by several definitions over the same states, and read at any time (forEach, statistics, report)
+public final class TransitionRecorder<TState extends Enum<TState> & States, TEvent> implements TransitionListener<TState, TEvent> {
+  private static final Object TIMEOUT = new Object(); // key of timeout transitions, ConcurrentHashMap doesn't take null keys
+
+  private final @NonNull ConcurrentHashMap<Object, TransitionStatistics<TState, TEvent>>[] statistics; // by source ordinal
+
+  @SuppressWarnings("unchecked")
+  public TransitionRecorder(final @NonNull Class<TState> stateClass) {
+    statistics = (ConcurrentHashMap<Object, TransitionStatistics<TState, TEvent>>[]) new ConcurrentHashMap<?, ?>[stateClass.getEnumConstants().length];
+    for (int i=0; i<statistics.length; ++i) {
+      statistics[i] = new ConcurrentHashMap<>();
+    }
+  }
+
+  @Override
+  public void onTransition(final @NonNull  TState source,
+                           final @NonNull  TState target,
+                           final @Nullable TEvent event,
+                           final           long   guardNanos,
+                           final           long   actionNanos) {
+    final ConcurrentHashMap<Object, TransitionStatistics<TState, TEvent>> bySource = statistics[source.ordinal()];
+    final Object                                                          key      = (event == null) ? TIMEOUT : event;
+
+    TransitionStatistics<TState, TEvent> pair = bySource.get(key);
+    if (pair == null) {
+      // first time only : computeIfAbsent locks a bin and the lambda captures, keep them off the steady state path
+      pair = bySource.computeIfAbsent(key, someKey -> new TransitionStatistics<>(source, event));
+    }
+    pair.record(guardNanos, actionNanos);
+  }
+
+  // statistics of (source, event), null for the timeout transition. Null if this pair never fired
+  public @Nullable TransitionStatistics<TState, TEvent> statistics(final @NonNull  TState source,
+                                                                   final @Nullable TEvent event) {
+    return(statistics[source.ordinal()].get((event == null) ? TIMEOUT : event));
+  }
+
+  public void forEach(final @NonNull Consumer<TransitionStatistics<TState, TEvent>> consumer) {
+    for (final ConcurrentHashMap<Object, TransitionStatistics<TState, TEvent>> bySource : statistics) {
+      bySource.values().forEach(consumer);
+    }
+  }
+
+  public void reset() {
+    for (final ConcurrentHashMap<Object, TransitionStatistics<TState, TEvent>> bySource : statistics) {
+      bySource.clear();
+    }
+  }
+
+  // one line per (source, event) pair, by source ordinal
+  public @NonNull String report() {
+    final StringBuilder builder = new StringBuilder();
+    forEach(pair -> builder.append(pair).append(System.lineSeparator()));
+    return(builder.toString());
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.listener;
+
+import net.meta8.common.fsm.state.States;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// counters and latencies of the transitions fired from one state by one event (a null event stands for the timeout transition)
+public final class TransitionStatistics<TState extends Enum<TState> & States, TEvent> {
+  public final @NonNull  TState source;
+  public final @Nullable TEvent event;
+
+  private final @NonNull LatencyHistogram guardLatency  = new LatencyHistogram();
+  private final @NonNull LatencyHistogram actionLatency = new LatencyHistogram();
+
+  TransitionStatistics(final @NonNull  TState source,
+                       final @Nullable TEvent event) {
+    this.source = source;
+    this.event  = event;
+  }
+
+  void record(final long guardNanos,
+              final long actionNanos) {
+    guardLatency.record(guardNanos);
+    actionLatency.record(actionNanos);
+  }
+
+  public long count() {
+    return(actionLatency.count());
+  }
+
+  public @NonNull LatencyHistogram guardLatency() {
+    return(guardLatency);
+  }
+
+  public @NonNull LatencyHistogram actionLatency() {
+    return(actionLatency);
+  }
+
+  @Override
+  public String toString() {
+    return(source.name() + " --" + ((event == null) ? "timeout" : event) + "--> guard[" + guardLatency + "] action[" + actionLatency + "]");
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.machine;
+
+import net.meta8.common.fsm.exception.MailboxFullException;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Mailbox flavour holding at most MailboxPolicy.capacity messages, the policy telling what to do with the ones that don't fit.
+// Messages are futures, completed (exceptionally, or cancelled) here when they are refused or dropped. A ring buffer under a lock
+// rather than linked nodes : overflow policies need to look at (and take out) queued messages. Drained actor style as Mailbox,
+// a single run() being ever scheduled
+final class BoundedMailbox<T extends CompletableFuture<?>> implements Runnable {
+  private final @NonNull MailboxPolicy          policy;
+  private final @NonNull Function<? super T, ?> key;      // COALESCE : messages whose keys are equal are merged
+  private final @NonNull Consumer<? super T>    consumer;
+
+  private final @NonNull ReentrantLock lock    = new ReentrantLock();
+  private final @NonNull Condition     notFull = lock.newCondition();
+  private final @NonNull Object[]      slots;
+  private                int           head;      // oldest message
+  private                int           size;
+  private                boolean       scheduled; // from the offer() scheduling run() until run() finds the mailbox empty
+
+  private volatile          int    depth;    // size, for gauges
+  private volatile @Nullable Thread drainer; // thread in run() : it must never block on its own mailbox
+
+  BoundedMailbox(final @NonNull MailboxPolicy          policy,
+                 final @NonNull Function<? super T, ?> key,
+                 final @NonNull Consumer<? super T>    consumer) {
+    this.policy   = policy;
+    this.key      = key;
+    this.consumer = consumer;
+    this.slots    = new Object[policy.capacity];
+  }
+
+  int depth() {
+    return(depth);
+  }
+
+  // queue 'message', scheduling run() on 'executor' if the mailbox was idle (or running it in place if the executor refuses it).
+  // Return the future standing for the message : itself, or the queued one it was coalesced into. Futures are completed out of the lock
+  @NonNull T offer(final @NonNull T        message,
+                   final @NonNull Executor executor) {
+    T       result   = message;
+    T       dropped  = null;
+    boolean rejected = false;
+    boolean schedule = false;
+
+    lock.lock();
+    try {
+      if (policy.overflow == OverflowPolicy.COALESCE) {
+        // merged into an equal queued message whether the mailbox is full or not, refused when full and there's none
+        final T merged = queued(key.apply(message));
+        if (merged != null) {
+          result = merged;
+        }
+        else {
+          rejected = (size == slots.length);
+        }
+      }
+      else if (size == slots.length) {
+        switch (policy.overflow) {
+          case BLOCK:
+            rejected = ! awaitRoom();
+            break;
+          case DROP_NEWEST:
+            dropped = message;
+            break;
+          case DROP_OLDEST:
+            dropped = poll();
+            break;
+          default:
+            rejected = true;
+        }
+      }
+      if ((! rejected)&&(dropped != message)&&(result == message)) {
+        slots[slot(size++)] = message;
+        depth               = size;
+        policy.queued(1);
+        schedule  = ! scheduled;
+        scheduled = true;
+      }
+    }
+    finally {
+      lock.unlock();
+    }
+
+    if (rejected) {
+      policy.rejected();
+      message.completeExceptionally(new MailboxFullException(slots.length));
+      return(message);
+    }
+    if (dropped != null) {
+      policy.dropped();
+      dropped.cancel(false);
+    }
+    if (result != message) {
+      policy.coalesced();
+    }
+    if (schedule) {
+      try {
+        executor.execute(this);
+      }
+      catch (final RejectedExecutionException refused) {
+        run(); // caller runs, rather than leaving the mailbox scheduled but never drained
+      }
+    }
+    return(result);
+  }
+
+  // BLOCK : false if the producer can't wait (it's draining this mailbox) or is interrupted while waiting
+  private boolean awaitRoom() {
+    if (Thread.currentThread() == drainer) {
+      return(false);
+    }
+    try {
+      while (size == slots.length) {
+        notFull.await();
+      }
+      return(true);
+    }
+    catch (final InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      return(false);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private @Nullable T queued(final @Nullable Object messageKey) {
+    for (int i=0; i<size; ++i) {
+      final T queued = (T) slots[slot(i)];
+      if (Objects.equals(key.apply(queued), messageKey)) {
+        return(queued);
+      }
+    }
+    return(null);
+  }
+
+  // under the lock
+  @SuppressWarnings("unchecked")
+  private @NonNull T poll() {
+    final T message = (T) slots[head];
+    slots[head] = null;
+    head        = slot(1);
+    depth       = --size;
+    policy.queued(-1);
+    notFull.signal();
+    return(message);
+  }
+
+  private int slot(final int index) {
+    final int slot = head + index;
+    return((slot < slots.length) ? slot : slot - slots.length);
+  }
+
+  // consume messages until none is left, including the ones offered meanwhile. As with Mailbox, an Error thrown by the consumer
+  // is rethrown once the mailbox is idle, anything else leaves the mailbox idle : the next offer() schedules run() again
+  @Override
+  public void run() {
+    drainer = Thread.currentThread();
+    boolean drained = false;
+    Error   fatal   = null;
+    try {
+      while (true) {
+        final T message;
+        lock.lock();
+        try {
+          if (size == 0) {
+            scheduled = false;
+            drained   = true;
+            break;
+          }
+          message = poll();
+        }
+        finally {
+          lock.unlock();
+        }
+        try {
+          consumer.accept(message);
+        }
+        catch (final Error failure) {
+          if (fatal == null) {
+            fatal = failure;
+          }
+        }
+      }
+      if (fatal != null) {
+        throw(fatal);
+      }
+    }
+    finally {
+      drainer = null;
+      if (! drained) {
+        lock.lock();
+        try {
+          scheduled = false;
+        }
+        finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+}
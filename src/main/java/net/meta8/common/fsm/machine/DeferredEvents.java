@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.machine;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+// events deferred by the states of a machine (see StateConfigurationDSL.defer), oldest first : a ring buffer whose slots are
+// allocated once, with the machine. Only used under the machine monitor (or lock)
+final class DeferredEvents<TEvent> {
+  private final @NonNull Object[] slots;
+  private                int      head; // oldest event
+  private                int      size;
+
+  DeferredEvents(final int capacity) {
+    slots = new Object[capacity];
+  }
+
+  int size() {
+    return(size);
+  }
+
+  boolean isEmpty() {
+    return(size == 0);
+  }
+
+  // false when full : the event is not queued
+  boolean offer(final @NonNull TEvent event) {
+    if (size == slots.length) {
+      return(false);
+    }
+    slots[slot(size++)] = event;
+    return(true);
+  }
+
+  @SuppressWarnings("unchecked")
+  @NonNull TEvent get(final int index) {
+    return((TEvent) slots[slot(index)]);
+  }
+
+  // remove the event at 'index', keeping the others in order : the oldest ones are shifted, replays mostly remove the head
+  void remove(final int index) {
+    for (int i=index; i>0; --i) {
+      slots[slot(i)] = slots[slot(i - 1)];
+    }
+    slots[head] = null;
+    head        = slot(1);
+    --size;
+  }
+
+  private int slot(final int index) {
+    final int slot = head + index;
+    return((slot < slots.length) ? slot : slot - slots.length);
+  }
+}
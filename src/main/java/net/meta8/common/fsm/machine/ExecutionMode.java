@@ -0,0 +1,29 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+// how a StateMachine (or a StateMachineRegistry) runs its transitions
+public enum ExecutionMode {
+  // on the calling thread (the timer thread for timeout transitions), under the machine monitor
+  PLATFORM_THREADS,
+
+  // for actions doing blocking I/O (JDBC, HTTP ...) : a lock which doesn't pin virtual threads to their carrier replaces the monitor,
+  // timeout transitions and fireAsync() events run on virtual threads. Requires Java 21 or later
+  VIRTUAL_THREADS
+}
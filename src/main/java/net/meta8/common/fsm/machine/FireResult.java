@@ -0,0 +1,27 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+// outcome of StateMachine.tryFire : constants are shared, so a refused event costs neither an exception nor an allocation
+public enum FireResult {
+  ACCEPTED,        // a transition was performed, see getCurrentState
+  REJECTED,        // no transition for this event in the current state
+  SEQUENCE_BROKEN, // event belongs to the sequence of the current state but is not the expected one : the sequence stays broken
+  DEFERRED         // no transition for this event in the current state, which defers it : queued until a state accepts it
+}
@@ -0,0 +1,472 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateConfiguration;
+import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.jfr.FlightRecorderEvents;
+import net.meta8.common.fsm.journal.EventJournal;
+import net.meta8.common.fsm.journal.EventJournal.RecordType;
+import net.meta8.common.fsm.journal.TimeoutStore;
+import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.timer.TimerHandle;
+import net.meta8.common.fsm.timer.TimerService;
+import net.meta8.common.fsm.transition.TimeoutTransition;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongToIntFunction;
+
+// many machines of the same MachineDefinition keyed by a primitive long id, storage of StateMachineRegistry and of the
+// ShardedMachineExecutor shards. There's no StateMachine object per instance : each one is a slot of parallel arrays holding a packed
+// state ordinal + sequence index, its pending timeout (if any) and its contexts (only when the definition has some).
+// Not thread safe : the owner serializes every call. Expired timeouts are handed to the owner's TimeoutDispatcher, which
+// calls fireTimeoutTransition back under the same serialization (lock, owning thread ...)
+final class MachineTable<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+  interface TimeoutDispatcher {
+    void timeout(final int slot, final int generation);
+  }
+
+  private static final int NO_SLOT        = -1;
+  private static final int STATE_MASK     = 0xFFFF;
+  private static final int SEQUENCE_SHIFT = 16;
+  private static final int MAX_SEQUENCE   = 0x7FFE; // a sequence index can only grow past the sequence length once broken : clamped
+
+  private static final long[] NO_OVERDUE = new long[0];
+
+  // pending timeout of a recovered machine whose deadline is over : fired by the owner right after the recovery
+  private static final TimerHandle OVERDUE = new TimerHandle() {
+    @Override
+    public boolean cancel() {
+      return(true);
+    }
+
+    @Override
+    public boolean isDone() {
+      return(false);
+    }
+  };
+
+  private final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition;
+  private final @NonNull TimerService                                                     timer;
+  private final @NonNull TimeoutDispatcher                                                timeoutDispatcher;
+  private final          boolean                                                          hasContexts;
+
+  // shared by every instance when the definition carries no context
+  private final @NonNull Optional<TLocalContext>[]  noLocalContexts;
+  private final @NonNull Optional<TGlobalContext>   noGlobalContext = Optional.empty();
+
+  // id -> slot
+  private final @NonNull TLongIntHashMap slots;
+
+  // by slot : (sequence index + 1) << 16 | state ordinal, pending timeout, generation of the pending timeout, contexts
+  private int[]                      packed;
+  private @Nullable TimerHandle[]    timeouts;
+  private int[]                      generations;
+  private @Nullable Contexts<?, ?>[] contexts;
+
+  private int[] freeSlots;
+  private int   freeCount;
+  private int   slotCount;
+
+  // set by recover() : every change is appended to the journal, which needs the id of each slot for timeout transitions,
+  // deadlines of pending timeouts are kept in the timeout store (if any)
+  private @Nullable EventJournal<TEvent> journal;
+  private @Nullable TimeoutStore         timeoutStore;
+  private @Nullable long[]               ids;
+
+  // sequence index handed to StateConfiguration during a fire, then packed back
+  private final @NonNull AtomicInteger sequenceIndex = new AtomicInteger();
+
+  @SuppressWarnings("unchecked")
+  MachineTable(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+               final @NonNull TimerService                                                     timer,
+               final @NonNull TimeoutDispatcher                                                timeoutDispatcher,
+               final          int                                                              initialCapacity) {
+    if (definition.stateCount() > STATE_MASK) {
+      throw(new IllegalArgumentException("Too many states: "+definition.stateCount()));
+    }
+    if (definition.deferredCapacity() != 0) {
+      throw(new IllegalArgumentException("Deferred events are not supported by a machine table"));
+    }
+
+    this.definition        = definition;
+    this.timer             = timer;
+    this.timeoutDispatcher = timeoutDispatcher;
+    this.hasContexts       = definition.hasContexts();
+    this.noLocalContexts   = (Optional<TLocalContext>[]) new Optional<?>[definition.stateCount()];
+    Arrays.fill(noLocalContexts, Optional.empty());
+
+    final int capacity = Math.max(16, initialCapacity);
+    slots       = new TLongIntHashMap(capacity, 0.5f, Long.MIN_VALUE, NO_SLOT);
+    packed      = new int[capacity];
+    timeouts    = new TimerHandle[capacity];
+    generations = new int[capacity];
+    contexts    = hasContexts ? new Contexts<?, ?>[capacity] : null;
+    freeSlots   = new int[16];
+  }
+
+  // -----------------------
+
+  // start a new machine in the initial state : initial entry actions are performed and its timeout (if any) is armed
+  @NonNull TState create(final long id) {
+    final int    slot         = newMachine(id);
+    final TState initialState = definition.getInitialState();
+
+    if (ids != null) {
+      ids[slot] = id;
+    }
+
+    final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration = definition.configuration(initialState.ordinal());
+    configuration.performInitialEntryActions(definition.localContext(initialState.ordinal(), localContexts(slot)), globalContext(slot));
+    startTimeoutTransition(slot, configuration);
+
+    if (journal != null) {
+      journal.append(EventJournal.RecordType.CREATE, id, null);
+    }
+    return(initialState);
+  }
+
+  // rebuild the machines of the journal, then journal every change : creations, events which changed a machine (accepted
+  // or breaking a sequence), timeout transitions and removals. States and sequence positions are replayed without performing
+  // any action, contexts start over from their initial value.
+  // Without timeout store, timeouts of the recovered states are armed for their whole duration. With one, only the machines of
+  // its records are visited : the timeouts still ahead are armed for what's left, the overdue ones are returned by increasing
+  // deadline (slot << 32 | generation) for the owner to fire with fireTimeoutTransition. Records which don't match the recovered
+  // state are dropped : a cancelled timeout leaves its record (entering a state with timeout replaces it), it's only removed when
+  // the timeout fires or the machine is removed. That's one store write per transition into a state with timeout, not two.
+  // Several tables may share a journal (and a timeout store) : each one takes the machines 'tableOf' maps to it, the journal
+  // and the store are read once. Return the overdue timeouts of each table, by increasing deadline
+  static <TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext>
+  @NonNull long[][] recover(final @NonNull  List<MachineTable<TState, TEvent, TLocalContext, TGlobalContext>> tables,
+                            final @NonNull  LongToIntFunction                                                 tableOf,
+                            final @NonNull  EventJournal<TEvent>                                              journal,
+                            final @Nullable TimeoutStore                                                      timeoutStore) throws IOException {
+    for (final MachineTable<TState, TEvent, TLocalContext, TGlobalContext> table : tables) {
+      if ((table.journal != null)||(! table.slots.isEmpty())) {
+        throw(new IllegalStateException("Only an empty table can be recovered"));
+      }
+      table.ids = new long[table.packed.length];
+    }
+
+    final MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> replayDefinition = tables.get(0).definition.withoutActions();
+    journal.replay((type, id, timestamp, event) -> tables.get(tableOf.applyAsInt(id)).replay(replayDefinition, type, id, event));
+
+    final long[][] overdue = new long[tables.size()][];
+    if (timeoutStore == null) {
+      for (final MachineTable<TState, TEvent, TLocalContext, TGlobalContext> table : tables) {
+        table.journal = journal;
+        table.slots.forEachValue(slot -> {
+          table.startTimeoutTransition(slot, table.definition.configuration(table.packed[slot] & STATE_MASK));
+          return(true);
+        });
+      }
+      Arrays.fill(overdue, NO_OVERDUE);
+      return(overdue);
+    }
+
+    final long             now      = System.currentTimeMillis();
+    final TLongArrayList[] overdues = new TLongArrayList[tables.size()];
+    for (int i=0; i<overdues.length; ++i) {
+      tables.get(i).journal = journal;
+      overdues[i]           = new TLongArrayList();
+    }
+    timeoutStore.forEach((id, state, deadline) -> {
+      final int index = tableOf.applyAsInt(id);
+      tables.get(index).recoverTimeout(timeoutStore, id, state, deadline, now, overdues[index]);
+    });
+    for (int i=0; i<overdues.length; ++i) {
+      tables.get(i).timeoutStore = timeoutStore;
+      overdue[i]                 = overdues[i].toArray();
+    }
+    return(overdue);
+  }
+
+  private void replay(final @NonNull  MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> replayDefinition,
+                      final @NonNull  RecordType                                                       type,
+                      final           long                                                             id,
+                      final @Nullable TEvent                                                           event) {
+    switch (type) {
+      case CREATE: {
+        final int slot = newMachine(id); // may grow ids
+        ids[slot] = id;
+        break;
+      }
+      case FIRE:
+      case TIMEOUT:
+        replay(replayDefinition, slotOf(id), event);
+        break;
+      case REMOVE:
+        remove(id);
+        break;
+    }
+  }
+
+  private void recoverTimeout(final @NonNull TimeoutStore   timeoutStore,
+                              final          long           id,
+                              final          int            state,
+                              final          long           deadline,
+                              final          long           now,
+                              final @NonNull TLongArrayList overdue) {
+    final int slot = slots.get(id);
+    if ((slot == NO_SLOT)||((packed[slot] & STATE_MASK) != state)||(! definition.configuration(state).timeoutTransition().isPresent())) {
+      timeoutStore.remove(id);
+    }
+    else if (deadline <= now) {
+      timeouts[slot] = OVERDUE;
+      overdue.add((long) slot << 32 | (generations[slot] & 0xFFFFFFFFL));
+    }
+    else {
+      armTimeout(slot, currentState(slot), deadline - now);
+    }
+  }
+
+  // current state of a machine, null if there's no such machine
+  @Nullable TState get(final long id) {
+    final int slot = slots.get(id);
+    return((slot == NO_SLOT) ? null : definition.state(packed[slot] & STATE_MASK));
+  }
+
+  @NonNull TState fire(final long id, final @NonNull TEvent trigger) throws UnknownTriggerException {
+    final int slot   = slotOf(id);
+    final int target = fire(slot, trigger);
+    if (target < 0) {
+      FlightRecorderEvents.rejected(currentState(slot), trigger);
+      throw(new UnknownTriggerException(currentState(slot).name(), "" + trigger));
+    }
+    return(definition.state(target));
+  }
+
+  // non throwing variant of fire, see StateMachine.tryFire
+  @NonNull FireResult tryFire(final long id, final @NonNull TEvent trigger) {
+    final int target = fire(slotOf(id), trigger);
+    if (target >= 0) {
+      return(FireResult.ACCEPTED);
+    }
+    else if (target == StateConfiguration.SEQUENCE_BROKEN) {
+      return(FireResult.SEQUENCE_BROKEN);
+    }
+    else {
+      return(FireResult.REJECTED);
+    }
+  }
+
+  // forget a machine and cancel its pending timeout. No exit action is performed
+  boolean remove(final long id) {
+    final int slot = slots.remove(id);
+    if (slot == NO_SLOT) {
+      return(false);
+    }
+    if (journal != null) {
+      journal.append(EventJournal.RecordType.REMOVE, id, null);
+    }
+    if (timeoutStore != null) {
+      timeoutStore.remove(id);
+    }
+    cleanFormerTimeoutTransition(slot);
+    if (hasContexts) {
+      contexts[slot] = null;
+    }
+    releaseSlot(slot);
+    return(true);
+  }
+
+  int size() {
+    return(slots.size());
+  }
+
+  // cancel every pending timeout, their timeout store records are kept for the next recovery. The timer itself is left alive
+  void close() {
+    for (int slot=0; slot<slotCount; ++slot) {
+      ++generations[slot];
+      if (timeouts[slot] != null) {
+        timeouts[slot].cancel();
+        timeouts[slot] = null;
+      }
+    }
+  }
+
+  // -----------------------
+
+  private int fire(final int slot, final @Nullable TEvent trigger) {
+    final int                                                               record        = packed[slot];
+    final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration = definition.configuration(record & STATE_MASK);
+
+    sequenceIndex.set((record >>> SEQUENCE_SHIFT) - 1);
+    final int target = configuration.tryFire(trigger, sequenceIndex, localContexts(slot), globalContext(slot));
+
+    if (target >= 0) {
+      packed[slot] = pack(target, sequenceIndex.get());
+      cleanFormerTimeoutTransition(slot);
+      startTimeoutTransition(slot, definition.configuration(target));
+    }
+    else {
+      packed[slot] = pack(record & STATE_MASK, sequenceIndex.get());
+    }
+
+    if ((journal != null)&&((target >= 0)||(target == StateConfiguration.SEQUENCE_BROKEN))) {
+      journal.append((trigger == null) ? EventJournal.RecordType.TIMEOUT : EventJournal.RecordType.FIRE, ids[slot], trigger);
+    }
+    return(target);
+  }
+
+  // fire through a definition without actions, leaving timeouts alone
+  private void replay(final @NonNull  MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> replayDefinition,
+                      final           int                                                              slot,
+                      final @Nullable TEvent                                                           trigger) {
+    final int record = packed[slot];
+
+    sequenceIndex.set((record >>> SEQUENCE_SHIFT) - 1);
+    final int target = replayDefinition.configuration(record & STATE_MASK).tryFire(trigger, sequenceIndex, localContexts(slot), globalContext(slot));
+    packed[slot] = pack((target >= 0) ? target : record & STATE_MASK, sequenceIndex.get());
+  }
+
+  private void startTimeoutTransition(final int slot, final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration) {
+    final Optional<TimeoutTransition<TState, TEvent, TLocalContext, TGlobalContext>> timeoutTransition = configuration.timeoutTransition();
+
+    if (timeoutTransition.isPresent()) {
+      final long delay = timeoutTransition.get().duration.toMillis();
+      armTimeout(slot, timeoutTransition.get().source, delay);
+      if (timeoutStore != null) {
+        timeoutStore.put(ids[slot], timeoutTransition.get().source.ordinal(), System.currentTimeMillis() + delay);
+      }
+    }
+  }
+
+  private void armTimeout(final int slot, final @NonNull TState state, final long delay) {
+    final int generation = generations[slot];
+    timeouts[slot] = timer.schedule(() -> timeoutDispatcher.timeout(slot, generation), delay, TimeUnit.MILLISECONDS);
+    FlightRecorderEvents.timeoutScheduled(state, delay);
+  }
+
+  private void cleanFormerTimeoutTransition(final int slot) {
+    ++generations[slot];
+    if (timeouts[slot] != null) {
+      timeouts[slot].cancel();
+      timeouts[slot] = null;
+      FlightRecorderEvents.timeoutCancelled(currentState(slot));
+    }
+  }
+
+  // called back by the TimeoutDispatcher
+  void fireTimeoutTransition(final int slot, final int generation) {
+    if (generation != generations[slot]) {
+      return; // superseded by another transition, or the machine was removed
+    }
+    timeouts[slot] = null;
+    if (timeoutStore != null) {
+      timeoutStore.remove(ids[slot]);
+    }
+    FlightRecorderEvents.timeoutFired(currentState(slot));
+    fire(slot, null);
+  }
+
+  private @NonNull TState currentState(final int slot) {
+    return(definition.state(packed[slot] & STATE_MASK));
+  }
+
+  private static int pack(final int stateOrdinal, final int sequenceIndex) {
+    return((Math.min(sequenceIndex, MAX_SEQUENCE) + 1) << SEQUENCE_SHIFT | stateOrdinal);
+  }
+
+  private @NonNull Optional<TLocalContext>[] localContexts(final int slot) {
+    return(hasContexts ? contexts(slot).localContexts : noLocalContexts);
+  }
+
+  private @NonNull Optional<TGlobalContext> globalContext(final int slot) {
+    return(hasContexts ? contexts(slot).globalContext : noGlobalContext);
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull Contexts<TLocalContext, TGlobalContext> contexts(final int slot) {
+    return((Contexts<TLocalContext, TGlobalContext>) contexts[slot]);
+  }
+
+  // a machine in the initial state, without entry actions nor timeout yet
+  private int newMachine(final long id) {
+    if (slots.containsKey(id)) {
+      throw(new IllegalArgumentException("Machine "+id+" already exists"));
+    }
+
+    final int slot = allocateSlot();
+    slots.put(id, slot);
+
+    if (hasContexts) {
+      contexts[slot] = new Contexts<>(definition.newLocalContexts(), definition.cloneGlobalContext());
+    }
+    packed[slot] = pack(definition.getInitialState().ordinal(), -1);
+    return(slot);
+  }
+
+  private int slotOf(final long id) {
+    final int slot = slots.get(id);
+    if (slot == NO_SLOT) {
+      throw(new IllegalArgumentException("Unknown machine "+id));
+    }
+    return(slot);
+  }
+
+  private int allocateSlot() {
+    if (freeCount > 0) {
+      return(freeSlots[--freeCount]);
+    }
+    if (slotCount == packed.length) {
+      final int capacity = packed.length * 2;
+      packed      = Arrays.copyOf(packed, capacity);
+      timeouts    = Arrays.copyOf(timeouts, capacity);
+      generations = Arrays.copyOf(generations, capacity);
+      if (ids != null) {
+        ids = Arrays.copyOf(ids, capacity);
+      }
+      if (hasContexts) {
+        contexts = Arrays.copyOf(contexts, capacity);
+      }
+    }
+    return(slotCount++);
+  }
+
+  private void releaseSlot(final int slot) {
+    if (freeCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+    }
+    freeSlots[freeCount++] = slot;
+  }
+
+  // =====================================================
+
+  private static final class Contexts<TLocalContext, TGlobalContext> {
+    final @NonNull Optional<TLocalContext>[] localContexts;
+    final @NonNull Optional<TGlobalContext>  globalContext;
+
+    Contexts(final @NonNull Optional<TLocalContext>[] localContexts,
+             final @NonNull Optional<TGlobalContext>  globalContext) {
+      this.localContexts = localContexts;
+      this.globalContext = globalContext;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+// lock free multi producers, single consumer queue (linked nodes, producers only swap the head) drained actor style :
+// the producer which finds the mailbox idle is told to schedule run(), which consumes messages until none is left.
+// Work in progress is counted, so that a single run() is ever active and no message is left behind when it stops
+final class Mailbox<T> implements Runnable {
+  private static final class Node<T> {
+    @SuppressWarnings("rawtypes")
+    static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    @Nullable T                 message;
+    volatile @Nullable Node<T>  next;
+
+    Node(final @Nullable T message) {
+      this.message = message;
+    }
+  }
+
+  private final @NonNull Consumer<? super T>      consumer;
+  private final @NonNull AtomicReference<Node<T>> head;          // last offered node, producers side
+  private @NonNull Node<T>                        tail;          // last consumed node, consumer side only
+  private final @NonNull AtomicInteger            workInProgress = new AtomicInteger();
+
+  Mailbox(final @NonNull Consumer<? super T> consumer) {
+    this.consumer = consumer;
+    this.tail     = new Node<>(null);
+    this.head     = new AtomicReference<>(tail);
+  }
+
+  // never blocks : return true when the mailbox was idle, the caller must then schedule run() (once)
+  boolean offer(final @NonNull T message) {
+    final Node<T> node     = new Node<>(message);
+    final Node<T> previous = head.getAndSet(node);
+    Node.NEXT.lazySet(previous, node);
+    return(workInProgress.getAndIncrement() == 0);
+  }
+
+  // true from the first offer() to an idle mailbox until run() has consumed everything
+  boolean isScheduled() {
+    return(workInProgress.get() != 0);
+  }
+
+  // consume every message, including the ones offered while consuming.
+  // An Error thrown by the consumer (the machine handles exceptions) is only rethrown once the mailbox is idle : the consumer
+  // may have completed a future before throwing, and a message offered right after must not find the mailbox still scheduled.
+  // Anything else leaves the mailbox idle rather than scheduled forever : the next offer() schedules run() again
+  @Override
+  public void run() {
+    int     missed  = 1;
+    boolean drained = false;
+    Error   fatal   = null;
+    try {
+      do {
+        T message;
+        while ((message = poll()) != null) {
+          try {
+            consumer.accept(message);
+          }
+          catch (final Error failure) {
+            if (fatal == null) {
+              fatal = failure;
+            }
+          }
+        }
+        missed = workInProgress.addAndGet(-missed);
+      } while (missed != 0);
+      drained = true;
+      if (fatal != null) {
+        throw(fatal);
+      }
+    }
+    finally {
+      if (! drained) {
+        workInProgress.set(0);
+      }
+    }
+  }
+
+  // a producer counts its message after linking it : a null here with work in progress means 'counted later', run() will be back
+  private @Nullable T poll() {
+    final Node<T> next = tail.next;
+    if (next == null) {
+      return(null);
+    }
+    final T message = next.message;
+    next.message = null;
+    tail         = next;
+    return(message);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.machine;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// bounds the mailbox of the machines built with it (see StateMachine.fireAsync) to 'capacity' events, 'overflow' telling what to
+// do when one is full. Machines sharing a policy add up to its gauges, each machine has its own depth (StateMachine.mailboxDepth)
+public final class MailboxPolicy {
+  public final          int            capacity;
+  public final @NonNull OverflowPolicy overflow;
+
+  private final @NonNull LongAdder queued    = new LongAdder();
+  private final @NonNull LongAdder dropped   = new LongAdder();
+  private final @NonNull LongAdder coalesced = new LongAdder();
+  private final @NonNull LongAdder rejected  = new LongAdder();
+
+  public MailboxPolicy(final          int            capacity,
+                       final @NonNull OverflowPolicy overflow) {
+    if (capacity <= 0) {
+      throw(new IllegalArgumentException("Mailbox capacity must be positive : "+capacity));
+    }
+    this.capacity = capacity;
+    this.overflow = overflow;
+  }
+
+  // events waiting in the mailboxes of all machines : a gauge, not a snapshot taken at once
+  public long queuedEvents() {
+    return(queued.sum());
+  }
+
+  // dropped by DROP_NEWEST and DROP_OLDEST
+  public long droppedEvents() {
+    return(dropped.sum());
+  }
+
+  public long coalescedEvents() {
+    return(coalesced.sum());
+  }
+
+  // refused by REJECT, COALESCE when full without an equal event queued, or BLOCK when the producer can't wait
+  public long rejectedEvents() {
+    return(rejected.sum());
+  }
+
+  void queued(final int delta) {
+    queued.add(delta);
+  }
+
+  void dropped() {
+    dropped.increment();
+  }
+
+  void coalesced() {
+    coalesced.increment();
+  }
+
+  void rejected() {
+    rejected.increment();
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateConfiguration;
+import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.jfr.FlightRecorderEvents;
+import net.meta8.common.fsm.state.States;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a fixed number of context free machines of the same MachineDefinition, indexed from 0 to capacity - 1, kept outside
+// of the Java heap : the table is a direct or memory mapped ByteBuffer holding a short array of states followed by a short
+// array of sequence indexes, 4 bytes per machine whatever their count (no object, nothing for the GC to walk).
+// A file backed table survives a restart : reopened with the same states enum, every machine is back in its former state.
+// Timeout transitions are not supported, their pending timers would live on the heap and be lost on restart.
+// All methods are synchronized on the table
+public final class OffHeapStateTable<TState extends Enum<TState> & States, TEvent> implements AutoCloseable {
+  private static final int MAGIC        = 0x46534D54; // "FSMT"
+  private static final int VERSION      = 1;
+  private static final int HEADER_SIZE  = 32;         // magic, version, capacity, state count, states fingerprint, padding
+  private static final int MAX_SEQUENCE = 0x7FFE;     // a sequence index can only grow past the sequence length once broken : clamped
+
+  private final @NonNull MachineDefinition<TState, TEvent, Void, Void> definition;
+  private final @NonNull ByteBuffer                                    buffer;
+  private final          int                                           capacity;
+  private final          int                                           sequencesOffset;
+
+  // machines carry no context : the same empty ones are given to every action and guard
+  private final @NonNull Optional<Void>[] noLocalContexts;
+  private final @NonNull Optional<Void>   noGlobalContext = Optional.empty();
+
+  // sequence index handed to StateConfiguration during a fire, then written back
+  private final @NonNull AtomicInteger sequenceIndex = new AtomicInteger();
+
+  @SuppressWarnings("unchecked")
+  private OffHeapStateTable(final @NonNull MachineDefinition<TState, TEvent, Void, Void> definition,
+                            final @NonNull ByteBuffer                                    buffer,
+                            final          int                                           capacity) {
+    this.definition      = definition;
+    this.buffer          = buffer;
+    this.capacity        = capacity;
+    this.sequencesOffset = HEADER_SIZE + 2 * capacity;
+    this.noLocalContexts = (Optional<Void>[]) new Optional<?>[definition.stateCount()];
+    Arrays.fill(noLocalContexts, Optional.empty());
+  }
+
+  // a table in a direct buffer, gone with the process
+  public static <TState extends Enum<TState> & States, TEvent>
+  @NonNull OffHeapStateTable<TState, TEvent> allocate(final @NonNull MachineDefinition<TState, TEvent, Void, Void> definition,
+                                                      final          int                                           capacity) {
+    checkDefinition(definition);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(tableSize(capacity)).order(ByteOrder.LITTLE_ENDIAN);
+    writeHeader(buffer, definition, capacity);
+    return(new OffHeapStateTable<>(definition, buffer, capacity));
+  }
+
+  // a table mapped on 'file' : created when the file is empty or missing, reloaded otherwise.
+  // An IOException is thrown if the file was written for another capacity or another states enum
+  public static <TState extends Enum<TState> & States, TEvent>
+  @NonNull OffHeapStateTable<TState, TEvent> open(final @NonNull MachineDefinition<TState, TEvent, Void, Void> definition,
+                                                  final @NonNull Path                                          file,
+                                                  final          int                                           capacity) throws IOException {
+    checkDefinition(definition);
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final boolean created = (channel.size() == 0);
+      if ((! created)&&(channel.size() != tableSize(capacity))) {
+        throw(new IOException(file+" is not a state table of "+capacity+" machines")); // before map() grows the file
+      }
+
+      final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, tableSize(capacity)).order(ByteOrder.LITTLE_ENDIAN);
+
+      if (created) {
+        writeHeader(buffer, definition, capacity);
+      }
+      else {
+        checkHeader(buffer, definition, capacity, file);
+      }
+      // the mapping outlives the channel
+      return(new OffHeapStateTable<>(definition, buffer, capacity));
+    }
+  }
+
+  // -----------------------
+
+  // start machine 'index' in the initial state, initial entry actions are performed
+  public synchronized @NonNull TState create(final int index) {
+    checkIndex(index);
+    if (buffer.getShort(stateOffset(index)) != 0) {
+      throw(new IllegalArgumentException("Machine "+index+" already exists"));
+    }
+
+    final TState initialState = definition.getInitialState();
+    write(index, initialState.ordinal(), -1);
+    definition.configuration(initialState.ordinal()).performInitialEntryActions(noLocalContexts[initialState.ordinal()], noGlobalContext);
+    return(initialState);
+  }
+
+  // current state of a machine, null if it wasn't created
+  public synchronized @Nullable TState get(final int index) {
+    checkIndex(index);
+    final int state = buffer.getShort(stateOffset(index));
+    return((state == 0) ? null : definition.state(state - 1));
+  }
+
+  public synchronized @NonNull TState fire(final int index, final @NonNull TEvent trigger) throws UnknownTriggerException {
+    final int target = fire(stateOf(index), index, trigger);
+    if (target < 0) {
+      FlightRecorderEvents.rejected(definition.state(stateOf(index)), trigger);
+      throw(new UnknownTriggerException(definition.state(stateOf(index)).name(), "" + trigger));
+    }
+    return(definition.state(target));
+  }
+
+  // non throwing variant of fire, see StateMachine.tryFire
+  public synchronized @NonNull FireResult tryFire(final int index, final @NonNull TEvent trigger) {
+    final int target = fire(stateOf(index), index, trigger);
+    if (target >= 0) {
+      return(FireResult.ACCEPTED);
+    }
+    else if (target == StateConfiguration.SEQUENCE_BROKEN) {
+      return(FireResult.SEQUENCE_BROKEN);
+    }
+    else {
+      return(FireResult.REJECTED);
+    }
+  }
+
+  // forget a machine, its index can be created again. No exit action is performed
+  public synchronized boolean remove(final int index) {
+    checkIndex(index);
+    if (buffer.getShort(stateOffset(index)) == 0) {
+      return(false);
+    }
+    buffer.putShort(stateOffset(index), (short) 0);
+    buffer.putShort(sequenceOffset(index), (short) 0);
+    return(true);
+  }
+
+  public int capacity() {
+    return(capacity);
+  }
+
+  // write changes of a file backed table to the storage device, nothing to do for a direct table
+  public synchronized void force() {
+    if (buffer instanceof MappedByteBuffer) {
+      ((MappedByteBuffer) buffer).force();
+    }
+  }
+
+  // the buffer itself is released by the GC (there's no supported way to unmap it earlier)
+  @Override
+  public void close() {
+    force();
+  }
+
+  // -----------------------
+
+  private int fire(final int state, final int index, final @NonNull TEvent trigger) {
+    final StateConfiguration<TState, TEvent, Void, Void> configuration = definition.configuration(state);
+
+    sequenceIndex.set(buffer.getShort(sequenceOffset(index)) - 1);
+    final int target = configuration.tryFire(trigger, sequenceIndex, noLocalContexts, noGlobalContext);
+
+    write(index, (target >= 0) ? target : state, sequenceIndex.get());
+    return(target);
+  }
+
+  private void write(final int index, final int stateOrdinal, final int sequence) {
+    buffer.putShort(stateOffset(index), (short) (stateOrdinal + 1));
+    buffer.putShort(sequenceOffset(index), (short) (Math.min(sequence, MAX_SEQUENCE) + 1));
+  }
+
+  // state ordinal of a created machine
+  private int stateOf(final int index) {
+    checkIndex(index);
+    final int state = buffer.getShort(stateOffset(index));
+    if (state == 0) {
+      throw(new IllegalArgumentException("Unknown machine "+index));
+    }
+    return(state - 1);
+  }
+
+  private void checkIndex(final int index) {
+    if ((index < 0)||(index >= capacity)) {
+      throw(new IndexOutOfBoundsException("Machine "+index+" out of [0, "+capacity+"["));
+    }
+  }
+
+  private static int stateOffset(final int index) {
+    return(HEADER_SIZE + 2 * index);
+  }
+
+  private int sequenceOffset(final int index) {
+    return(sequencesOffset + 2 * index);
+  }
+
+  // -----------------------
+
+  private static void checkDefinition(final @NonNull MachineDefinition<?, ?, ?, ?> definition) {
+    if (definition.stateCount() >= Short.MAX_VALUE) {
+      throw(new IllegalArgumentException("Too many states: "+definition.stateCount()));
+    }
+    if (definition.deferredCapacity() != 0) {
+      throw(new IllegalArgumentException("Deferred events are not supported off heap"));
+    }
+    for (int ordinal=0; ordinal<definition.stateCount(); ++ordinal) {
+      final StateConfiguration<?, ?, ?, ?> configuration = definition.configuration(ordinal);
+      if ((configuration != null)&&(configuration.timeoutTransition().isPresent())) {
+        throw(new IllegalArgumentException("Timeout transitions are not supported off heap: "+definition.state(ordinal)));
+      }
+    }
+  }
+
+  private static int tableSize(final int capacity) {
+    if ((capacity <= 0)||(capacity > (Integer.MAX_VALUE - HEADER_SIZE) / 4)) {
+      throw(new IllegalArgumentException("Invalid capacity: "+capacity));
+    }
+    return(HEADER_SIZE + 4 * capacity);
+  }
+
+  // states are stored by ordinal : a table can only be reloaded with the same constants, in the same order
+  private static int fingerprint(final @NonNull MachineDefinition<?, ?, ?, ?> definition) {
+    int hash = 1;
+    for (int ordinal=0; ordinal<definition.stateCount(); ++ordinal) {
+      hash = 31 * hash + definition.state(ordinal).name().hashCode();
+    }
+    return(hash);
+  }
+
+  private static void writeHeader(final @NonNull ByteBuffer                    buffer,
+                                  final @NonNull MachineDefinition<?, ?, ?, ?> definition,
+                                  final          int                           capacity) {
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(8, capacity);
+    buffer.putInt(12, definition.stateCount());
+    buffer.putInt(16, fingerprint(definition));
+  }
+
+  private static void checkHeader(final @NonNull ByteBuffer                    buffer,
+                                  final @NonNull MachineDefinition<?, ?, ?, ?> definition,
+                                  final          int                           capacity,
+                                  final @NonNull Path                          file) throws IOException {
+    if ((buffer.getInt(0) != MAGIC)||(buffer.getInt(4) != VERSION)) {
+      throw(new IOException(file+" is not a state table"));
+    }
+    if (buffer.getInt(8) != capacity) {
+      throw(new IOException(file+" holds "+buffer.getInt(8)+" machines, not "+capacity));
+    }
+    if ((buffer.getInt(12) != definition.stateCount())||(buffer.getInt(16) != fingerprint(definition))) {
+      throw(new IOException(file+" was written with other states"));
+    }
+  }
+}
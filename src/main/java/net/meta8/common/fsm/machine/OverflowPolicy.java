@@ -0,0 +1,29 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.machine;
+
+// what a bounded mailbox (see MailboxPolicy) does with an event given to fireAsync while it's full (COALESCE : on every event)
+public enum OverflowPolicy {
+  BLOCK,        // the producer waits for a free slot. Never from the thread draining the mailbox (an action firing its own machine) : rejected then
+  DROP_NEWEST,  // the new event is dropped : its future is cancelled
+  DROP_OLDEST,  // the oldest queued event is dropped (its future is cancelled) to make room for the new one
+  COALESCE,     // the new event is merged into an equal one already queued, full or not, whose future is returned. Rejected if there's none and it's full
+  REJECT        // the new event is refused : its future fails with a MailboxFullException
+}
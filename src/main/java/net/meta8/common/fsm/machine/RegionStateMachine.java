@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.machine;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.TimerService;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// orthogonal regions (see StateMachineConfigurationDSL.regions) : one StateMachine per region, all of them sharing the same global
+// context, each event being dispatched to every region. With a pool, regions are fired concurrently : worth it when their actions
+// are expensive, and only if actions touching the global context are thread safe. Without one, they are fired one after the other
+// by the caller thread. Either way fire() returns once every region is done with the event.
+// Timeouts are armed per region and fire independently, holding the monitor of this machine as fire() does : a timeout action
+// never runs concurrently with an event
+public final class RegionStateMachine<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+  private final @NonNull StateMachine<TState, TEvent, TLocalContext, TGlobalContext>[] regions;
+  private final @Nullable ForkJoinPool                                                 pool;
+
+  public RegionStateMachine(final @NonNull List<MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext>> definitions) {
+    this(definitions, HashedWheelTimerService.shared(), null);
+  }
+
+  public RegionStateMachine(final @NonNull  List<MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext>> definitions,
+                            final @NonNull  TimerService                                                           timer,
+                            final @Nullable ForkJoinPool                                                           pool) {
+    if (definitions.isEmpty()) {
+      throw(new IllegalArgumentException("At least one region is required"));
+    }
+    this.pool = pool;
+
+    final Optional<TGlobalContext> globalContext = definitions.get(0).cloneGlobalContext();
+    final TimerService             locked        = (task, delay, unit) -> timer.schedule(() -> {
+      synchronized (this) {
+        task.run();
+      }
+    }, delay, unit);
+    @SuppressWarnings("unchecked")
+    final StateMachine<TState, TEvent, TLocalContext, TGlobalContext>[] machines = (StateMachine<TState, TEvent, TLocalContext, TGlobalContext>[]) new StateMachine<?, ?, ?, ?>[definitions.size()];
+    for (int i=0; i<machines.length; ++i) {
+      machines[i] = new StateMachine<>(definitions.get(i), locked, ExecutionMode.PLATFORM_THREADS, null, globalContext);
+    }
+    regions = machines;
+  }
+
+  public int regionCount() {
+    return(regions.length);
+  }
+
+  public @NonNull TState getCurrentState(final int region) {
+    return(regions[region].getCurrentState());
+  }
+
+  // current state of each region, in declaration order
+  public @NonNull List<TState> getCurrentStates() {
+    final List<TState> states = new ArrayList<>(regions.length);
+    for (final StateMachine<TState, TEvent, TLocalContext, TGlobalContext> region : regions) {
+      states.add(region.getCurrentState());
+    }
+    return(states);
+  }
+
+  // fire 'trigger' in every region : a region refusing it is left untouched, as with StateMachine.tryFire. Return the number of
+  // regions which accepted (or deferred) it, throw UnknownTriggerException when none did.
+  // Events are fired one at a time, so that every region sees them in the same order. With a pool, the caller thread fires the
+  // first region while the others run on the pool. Either way an exception thrown by an action is rethrown once all regions are
+  // done, with the ones of the other regions suppressed
+  public synchronized int fire(final @NonNull TEvent trigger) throws UnknownTriggerException {
+    final int accepted = ((pool == null)||(regions.length == 1)) ? fireSequentially(trigger) : fireConcurrently(trigger);
+    if (accepted == 0) {
+      throw(new UnknownTriggerException(getCurrentStates().toString(), trigger.toString()));
+    }
+    return(accepted);
+  }
+
+  private int fireSequentially(final @NonNull TEvent trigger) {
+    int              accepted = 0;
+    RuntimeException failure  = null;
+    for (final StateMachine<TState, TEvent, TLocalContext, TGlobalContext> region : regions) {
+      try {
+        if (taken(region.tryFire(trigger))) {
+          ++accepted;
+        }
+      }
+      catch (final RuntimeException e) {
+        failure = failed(failure, e);
+      }
+    }
+    if (failure != null) {
+      throw(failure);
+    }
+    return(accepted);
+  }
+
+  private int fireConcurrently(final @NonNull TEvent trigger) {
+    @SuppressWarnings("unchecked")
+    final ForkJoinTask<FireResult>[] tasks = (ForkJoinTask<FireResult>[]) new ForkJoinTask<?>[regions.length];
+    for (int i=1; i<regions.length; ++i) {
+      final StateMachine<TState, TEvent, TLocalContext, TGlobalContext> region = regions[i];
+      tasks[i] = pool.submit(() -> region.tryFire(trigger));
+    }
+
+    int              accepted = 0;
+    RuntimeException failure  = null;
+    try {
+      if (taken(regions[0].tryFire(trigger))) {
+        ++accepted;
+      }
+    }
+    catch (final RuntimeException e) {
+      failure = e;
+    }
+    for (int i=1; i<tasks.length; ++i) {
+      try {
+        if (taken(tasks[i].join())) {
+          ++accepted;
+        }
+      }
+      catch (final RuntimeException e) {
+        failure = failed(failure, e);
+      }
+    }
+    if (failure != null) {
+      throw(failure);
+    }
+    return(accepted);
+  }
+
+  // the first failure, the next ones suppressed
+  private static @NonNull RuntimeException failed(final @Nullable RuntimeException failure,
+                                                  final @NonNull  RuntimeException next) {
+    if (failure == null) {
+      return(next);
+    }
+    failure.addSuppressed(next);
+    return(failure);
+  }
+
+  private static boolean taken(final @NonNull FireResult result) {
+    return((result == FireResult.ACCEPTED)||(result == FireResult.DEFERRED));
+  }
+
+  // cancel the pending timeout transitions of every region
+  public void close() {
+    for (final StateMachine<TState, TEvent, TLocalContext, TGlobalContext> region : regions) {
+      region.close();
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.TimerService;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// many machines of the same MachineDefinition keyed by a primitive long, spread over N shards by key hash.
+// A shard is a thread owning its machines outright (no lock, nothing shared) and fed by a lock free mailbox : creation,
+// events and timeout transitions of a machine all run on the thread of its shard, one at a time, in submission order.
+// Calls never block, outcomes are reported through futures completed by the shard thread : don't block in dependent stages
+public final class ShardedMachineExecutor<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> implements AutoCloseable {
+  private enum Kind {
+    CREATE, GET, FIRE, TRY_FIRE, SEND, REMOVE, FLUSH, TIMEOUT
+  }
+
+  private final @NonNull Shard<TState, TEvent, TLocalContext, TGlobalContext>[] shards;
+  private volatile       boolean                                                closed;
+
+  public ShardedMachineExecutor(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                                final          int                                                              shardCount) {
+    this(definition, shardCount, HashedWheelTimerService.shared(), 1024, daemonThreadFactory("fsm-shard-"));
+  }
+
+  @SuppressWarnings("unchecked")
+  public ShardedMachineExecutor(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                                final          int                                                              shardCount,
+                                final @NonNull TimerService                                                     timer,
+                                final          int                                                              initialCapacityPerShard,
+                                final @NonNull ThreadFactory                                                    threadFactory) {
+    if (shardCount <= 0) {
+      throw(new IllegalArgumentException("shardCount must be positive: "+shardCount));
+    }
+
+    shards = (Shard<TState, TEvent, TLocalContext, TGlobalContext>[]) new Shard<?, ?, ?, ?>[shardCount];
+    for (int i=0; i<shardCount; ++i) {
+      shards[i] = new Shard<>(definition, timer, initialCapacityPerShard, threadFactory);
+    }
+  }
+
+  // -----------------------
+
+  // start a new machine in the initial state, see StateMachineRegistry.create
+  public @NonNull CompletableFuture<TState> create(final long key) {
+    return(submit(Kind.CREATE, key, null));
+  }
+
+  // current state of a machine, completed with null if there's no such machine
+  public @NonNull CompletableFuture<TState> get(final long key) {
+    return(submit(Kind.GET, key, null));
+  }
+
+  // completed with the new state, or exceptionally with the UnknownTriggerException (IllegalArgumentException for an unknown key)
+  public @NonNull CompletableFuture<TState> fire(final long key, final @NonNull TEvent trigger) {
+    return(submit(Kind.FIRE, key, trigger));
+  }
+
+  public @NonNull CompletableFuture<FireResult> tryFire(final long key, final @NonNull TEvent trigger) {
+    return(submit(Kind.TRY_FIRE, key, trigger));
+  }
+
+  // fire and forget : a refused event (or an unknown key) is silently dropped
+  public void send(final long key, final @NonNull TEvent trigger) {
+    submit(Kind.SEND, key, trigger);
+  }
+
+  // forget a machine and cancel its pending timeout, completed with false if there's no such machine
+  public @NonNull CompletableFuture<Boolean> remove(final long key) {
+    return(submit(Kind.REMOVE, key, null));
+  }
+
+  // completed once every shard has processed the commands submitted before
+  public @NonNull CompletableFuture<Void> flush() {
+    final CompletableFuture<?>[] flushes = new CompletableFuture<?>[shards.length];
+    for (int i=0; i<shards.length; ++i) {
+      flushes[i] = submit(shards[i], new Command(Kind.FLUSH, 0, null));
+    }
+    return(CompletableFuture.allOf(flushes));
+  }
+
+  public int shardCount() {
+    return(shards.length);
+  }
+
+  // commands already submitted are processed, then shard threads stop and pending timeouts are cancelled. A command racing
+  // with close() and reaching a stopped shard fails with an IllegalStateException. Waits for the shard threads : an
+  // interruption doesn't cut the wait short, the interrupt status is restored once they are gone
+  @Override
+  public void close() {
+    closed = true;
+    for (final Shard<TState, TEvent, TLocalContext, TGlobalContext> shard : shards) {
+      shard.running = false;
+      LockSupport.unpark(shard.thread);
+    }
+    boolean interrupted = false;
+    for (final Shard<TState, TEvent, TLocalContext, TGlobalContext> shard : shards) {
+      while ((shard.thread != Thread.currentThread())&&(shard.thread.isAlive())) {
+        try {
+          shard.thread.join();
+        }
+        catch (final InterruptedException interruption) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // -----------------------
+
+  @SuppressWarnings("unchecked")
+  private <T> @NonNull CompletableFuture<T> submit(final @NonNull Kind     kind,
+                                                   final          long     key,
+                                                   final @Nullable TEvent  trigger) {
+    return((CompletableFuture<T>) submit(shards[shardOf(key)], new Command(kind, key, trigger)));
+  }
+
+  private @NonNull Command submit(final @NonNull Shard<TState, TEvent, TLocalContext, TGlobalContext> shard,
+                                  final @NonNull Command                                              command) {
+    if (closed) {
+      throw(new IllegalStateException("Executor is closed"));
+    }
+    shard.submit(command);
+    return(command);
+  }
+
+  // keys are often sequential : spread them with a multiplicative hash
+  private int shardOf(final long key) {
+    return(Math.floorMod((int) ((key * 0x9E3779B97F4A7C15L) >>> 32), shards.length));
+  }
+
+  private static @NonNull ThreadFactory daemonThreadFactory(final @NonNull String prefix) {
+    final AtomicInteger index = new AtomicInteger();
+    return((runnable) -> {
+      final Thread thread = new Thread(runnable, prefix + index.getAndIncrement());
+      thread.setDaemon(true);
+      return(thread);
+    });
+  }
+
+  // =====================================================
+
+  // a command is also the future handed back to the caller
+  private static final class Command extends CompletableFuture<Object> {
+    final @NonNull  Kind   kind;
+    final           long   key;
+    final @Nullable Object argument; // event
+
+    Command(final @NonNull  Kind   kind,
+            final           long   key,
+            final @Nullable Object argument) {
+      this.kind     = kind;
+      this.key      = key;
+      this.argument = argument;
+    }
+  }
+
+  private static final class Shard<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> implements Runnable {
+    private final @NonNull MachineTable<TState, TEvent, TLocalContext, TGlobalContext> table;
+    private final @NonNull Mailbox<Command>                                             mailbox;
+    final @NonNull Thread                                                               thread;
+    volatile boolean                                                                    running = true;
+    private volatile boolean                                                            stopped;  // thread gone : commands are failed
+
+    Shard(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+          final @NonNull TimerService                                                     timer,
+          final          int                                                              initialCapacity,
+          final @NonNull ThreadFactory                                                    threadFactory) {
+      // expired timeouts are handed back to the shard thread, the timer thread never touches the machines
+      this.table   = new MachineTable<>(definition, timer, this::submitTimeout, initialCapacity);
+      this.mailbox = new Mailbox<>(this::execute);
+      this.thread  = threadFactory.newThread(this);
+      this.thread.start();
+    }
+
+    // a command offered while the thread stops is either drained by the thread (it sees the command counted) or seen by
+    // the producer (it sees 'stopped') : whichever it is fails it
+    void submit(final @NonNull Command command) {
+      if (mailbox.offer(command)) {
+        LockSupport.unpark(thread);
+      }
+      if (stopped) {
+        failLeftovers();
+      }
+    }
+
+    // slot and generation packed in the key : no allocation but the command
+    private void submitTimeout(final int slot, final int generation) {
+      submit(new Command(Kind.TIMEOUT, ((long) generation << 32) | slot, null));
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        if (mailbox.isScheduled()) {
+          mailbox.run();
+        }
+        else {
+          LockSupport.park(this);
+        }
+      }
+      if (mailbox.isScheduled()) {
+        mailbox.run();
+      }
+      table.close();
+      stopped = true;
+      failLeftovers();
+    }
+
+    // once the thread is gone, producers take turns at consuming the mailbox : a single run() at a time
+    private synchronized void failLeftovers() {
+      if (mailbox.isScheduled()) {
+        mailbox.run();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void execute(final @NonNull Command command) {
+      if (stopped) {
+        command.completeExceptionally(new IllegalStateException("Executor is closed"));
+        return;
+      }
+      try {
+        switch (command.kind) {
+          case CREATE:   command.complete(table.create(command.key));                                break;
+          case GET:      command.complete(table.get(command.key));                                   break;
+          case FIRE:     command.complete(table.fire(command.key, (TEvent) command.argument));       break;
+          case TRY_FIRE: command.complete(table.tryFire(command.key, (TEvent) command.argument));    break;
+          case SEND:     table.tryFire(command.key, (TEvent) command.argument);                      break;
+          case REMOVE:   command.complete(table.remove(command.key));                                break;
+          case FLUSH:    command.complete(null);                                                     break;
+          case TIMEOUT:  table.fireTimeoutTransition((int) command.key, (int) (command.key >>> 32)); break;
+        }
+      }
+      catch (final RuntimeException failure) { // UnknownTriggerException, unknown key, or thrown by some action
+        command.completeExceptionally(failure);
+      }
+    }
+  }
+}
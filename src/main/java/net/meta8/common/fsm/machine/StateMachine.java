@@ -18,150 +18,855 @@
 
 package net.meta8.common.fsm.machine;
 
-import static net.meta8.common.fsm.util.RichOptional.*;
-
+import net.meta8.common.fsm.codec.Codec;
+import net.meta8.common.fsm.configuration.MachineDefinition;
 import net.meta8.common.fsm.configuration.StateConfiguration;
-import net.meta8.common.fsm.configuration.StateMachineConfiguration;
 import net.meta8.common.fsm.configuration.StateMachineConfigurationDSL;
 import net.meta8.common.fsm.exception.MissingStateConfigurationException;
 import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.jfr.FlightRecorderEvents;
 import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.TimerHandle;
+import net.meta8.common.fsm.timer.TimerService;
 import net.meta8.common.fsm.transition.TimeoutTransition;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.lang.reflect.Array;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public final class StateMachine<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+  // snapshot : version, flags, state count, state ordinal, sequence index + 1, [timeout deadline],
+  //            [by state ordinal, for states with a context : 1 and the local context, 0 if not cloned yet], [global context],
+  //            [deferred event count and the events, oldest first]. Version 2 had no deferred events
+  private static final byte SNAPSHOT_VERSION = 3;
+  private static final byte PENDING_TIMEOUT  = 1;
+  private static final byte DEFERRED_EVENTS  = 2;
+  private static final int  MAX_SEQUENCE     = 0x7FFE; // a sequence index can only grow past the sequence length once broken : clamped
+
   private final @NonNull Optional<TGlobalContext>  globalContext;
   private final @NonNull Optional<TLocalContext>[] localContexts; // one initialContext per state
 
-  private final @NonNull StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext>[] machineConfiguration;
+  private final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition;
 
-  private final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(1);
-  private @Nullable Future<?> pendingScheduledTimeoutTransition;
+  // timeouts are driven by a (usually shared) timer : a machine never owns a thread
+  private final @NonNull TimerService timer;
+  private @Nullable TimerHandle pendingScheduledTimeoutTransition;
+  private long                  timeoutGeneration; // identifies the pending timeout, so that a late timeout task can't fire on a newer state
+  private long                  timeoutDeadline;   // of the pending timeout, epoch ms
 
   private TState                                                            currentState;
   private StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> currentStateConfiguration;
 
   private AtomicInteger sequenceIndex = new AtomicInteger(-1);
 
-  @SuppressWarnings("unchecked")
+  // events deferred by the states, oldest first : null when no state of the definition defers any event
+  private final @Nullable DeferredEvents<TEvent> deferred;
+
+  // VIRTUAL_THREADS mode only : replaces the machine monitor, which would pin a virtual thread to its carrier while actions block
+  private final @Nullable ReentrantLock lock;
+
+  // events given to fireAsync, created on first use : synchronous only machines don't pay for it
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<StateMachine, Mailbox> MAILBOX = AtomicReferenceFieldUpdater.newUpdater(StateMachine.class, Mailbox.class, "mailbox");
+  private volatile @Nullable Mailbox<AsyncEvent<TState, TEvent>>          mailbox;
+
+  // replaces the mailbox above when the machine is built with a MailboxPolicy
+  private final @Nullable BoundedMailbox<AsyncEvent<TState, TEvent>> boundedMailbox;
+
+  // futures given by awaitState, created on first use : null until somebody waits
+  private @Nullable StateWaiters<TState> waiters;
+
+  // the definition compiled by the configuration, which compiles again only when it has changed since (see
+  // StateMachineConfiguration.compile). stateClazz is kept for compatibility : the type parameters already tie both together
   public StateMachine(final @NonNull Class<TState>                                                               stateClazz,
                       final @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> configurationDsl) throws MissingStateConfigurationException {
+    this(configurationDsl.compile(), HashedWheelTimerService.shared());
+  }
 
-    final StateMachineConfiguration<TState, TEvent, TLocalContext, TGlobalContext> configuration = (StateMachineConfiguration<TState, TEvent, TLocalContext, TGlobalContext>) configurationDsl;
+  public StateMachine(final @NonNull Class<TState>                                                               stateClazz,
+                      final @NonNull StateMachineConfigurationDSL<TState, TEvent, TLocalContext, TGlobalContext> configurationDsl,
+                      final @NonNull TimerService                                                                timer) throws MissingStateConfigurationException {
+    this(configurationDsl.compile(), timer);
+  }
 
-    globalContext = configuration.cloneContext();
-    localContexts = (Optional<TLocalContext>[]) Array.newInstance(Optional.class, stateClazz.getEnumConstants().length); // ugly, need to improve
+  public StateMachine(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition) {
+    this(definition, HashedWheelTimerService.shared());
+  }
 
-    machineConfiguration = configuration.getStateMachineConfigurationClone();
+  public StateMachine(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                      final @NonNull TimerService                                                     timer) {
+    this(definition, timer, ExecutionMode.PLATFORM_THREADS);
+  }
 
-    final @NonNull TState initialState = configuration.getInitialState();
+  // definition is already validated : only contexts are cloned here
+  public StateMachine(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                      final @NonNull TimerService                                                     timer,
+                      final @NonNull ExecutionMode                                                    executionMode) {
+    this(definition, timer, executionMode, null, definition.cloneGlobalContext());
+  }
 
-    // check that initial state has a known configuration
-    if (machineConfiguration[initialState.ordinal()] == null) {
-      throw (new MissingStateConfigurationException(initialState.name()));
-    }
+  // events given to fireAsync are queued in a mailbox bounded by 'mailboxPolicy' : see OverflowPolicy
+  public StateMachine(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                      final @NonNull TimerService                                                     timer,
+                      final @NonNull ExecutionMode                                                    executionMode,
+                      final @NonNull MailboxPolicy                                                    mailboxPolicy) {
+    this(definition, timer, executionMode, mailboxPolicy, definition.cloneGlobalContext());
+  }
 
-    // for each state set a fresh copy of its internal state
-    for (final TState state : stateClazz.getEnumConstants()) {
-      if (machineConfiguration[state.ordinal()] != null) {
-        localContexts[state.ordinal()] = machineConfiguration[state.ordinal()].cloneContext();
-      }
+  // the regions of a RegionStateMachine share the same global context
+  StateMachine(final @NonNull  MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+               final @NonNull  TimerService                                                     timer,
+               final @NonNull  ExecutionMode                                                    executionMode,
+               final @Nullable MailboxPolicy                                                    mailboxPolicy,
+               final @NonNull  Optional<TGlobalContext>                                         globalContext) {
+    this.definition     = definition;
+    this.timer          = timer;
+    this.lock           = (executionMode == ExecutionMode.VIRTUAL_THREADS) ? new ReentrantLock() : null;
+    this.boundedMailbox = (mailboxPolicy == null) ? null : new BoundedMailbox<>(mailboxPolicy, event -> event.trigger, this::fireQueued);
+
+    if (lock != null) {
+      VirtualThreads.executor(); // fail now rather than on the first timeout
     }
 
+    this.globalContext = globalContext;
+    localContexts      = definition.newLocalContexts();
+    deferred           = newDeferredEvents(definition);
+
     // set initial state
-    currentState = initialState;
-    currentStateConfiguration = machineConfiguration[currentState.ordinal()];
+    currentState              = definition.getInitialState();
+    currentStateConfiguration = definition.configuration(currentState.ordinal());
 
     // trigger onEntry (if any) on currentStateConfiguration
-    currentStateConfiguration.performInitialEntryActions(localContexts[currentState.ordinal()], globalContext);
+    currentStateConfiguration.performInitialEntryActions(definition.localContext(currentState.ordinal(), localContexts), globalContext);
 
-    startTimeoutTransition(currentStateConfiguration);
+    // a timeout task can't run before its handle is known
+    if (lock == null) {
+      synchronized (this) {
+        startTimeoutTransition(currentStateConfiguration);
+      }
+    }
+    else {
+      lock.lock();
+      try {
+        startTimeoutTransition(currentStateConfiguration);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  public StateMachine(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                      final @NonNull TimerService                                                     timer,
+                      final @NonNull ByteBuffer                                                       snapshot) {
+    this(definition, timer, ExecutionMode.PLATFORM_THREADS, snapshot, null, null);
+  }
+
+  public StateMachine(final @NonNull  MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                      final @NonNull  TimerService                                                     timer,
+                      final @NonNull  ExecutionMode                                                    executionMode,
+                      final @NonNull  ByteBuffer                                                       snapshot,
+                      final @Nullable Codec<TLocalContext>                                             localContextCodec,
+                      final @Nullable Codec<TGlobalContext>                                            globalContextCodec) {
+    this(definition, timer, executionMode, snapshot, localContextCodec, globalContextCodec, null);
+  }
+
+  // restore a machine written by snapshot(), from the buffer position (moved past it) : same definition, same codecs.
+  // No entry action is performed, deferred events stay queued until the next transition. A timeout pending at snapshot time is
+  // armed for what's left until its deadline, at once if it's over. Codecs are only needed by definitions carrying contexts, and
+  // by snapshots carrying deferred events. An IllegalArgumentException is thrown if the snapshot doesn't match the definition
+  public StateMachine(final @NonNull  MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                      final @NonNull  TimerService                                                     timer,
+                      final @NonNull  ExecutionMode                                                    executionMode,
+                      final @NonNull  ByteBuffer                                                       snapshot,
+                      final @Nullable Codec<TLocalContext>                                             localContextCodec,
+                      final @Nullable Codec<TGlobalContext>                                            globalContextCodec,
+                      final @Nullable Codec<TEvent>                                                    eventCodec) {
+    this.definition     = definition;
+    this.timer          = timer;
+    this.lock           = (executionMode == ExecutionMode.VIRTUAL_THREADS) ? new ReentrantLock() : null;
+    this.boundedMailbox = null;
+
+    if (lock != null) {
+      VirtualThreads.executor(); // fail now rather than on the first timeout
+    }
+    checkCodecs(localContextCodec, globalContextCodec);
+
+    final byte version = snapshot.get();
+    final byte flags   = snapshot.get();
+    if (((version != SNAPSHOT_VERSION)&&(version != 2))||(snapshot.getShort() != definition.stateCount())) {
+      throw(new IllegalArgumentException("Not a snapshot of this definition"));
+    }
+
+    currentState              = definition.state(snapshot.getShort());
+    currentStateConfiguration = definition.configuration(currentState.ordinal());
+    sequenceIndex.set(snapshot.getShort() - 1);
+    final long deadline = ((flags & PENDING_TIMEOUT) != 0) ? snapshot.getLong() : 0;
+
+    deferred      = newDeferredEvents(definition);
+    localContexts = definition.newLocalContexts();
+    for (int i=0; i<localContexts.length; ++i) {
+      if ((definition.hasLocalContext(i))&&(snapshot.get() != 0)) {
+        localContexts[i] = Optional.of(localContextCodec.decode(snapshot));
+      }
+    }
+    globalContext = definition.hasGlobalContext() ? Optional.of(globalContextCodec.decode(snapshot)) : Optional.empty();
+    if ((flags & DEFERRED_EVENTS) != 0) {
+      if (eventCodec == null) {
+        throw(new IllegalArgumentException("The snapshot carries deferred events : an event codec is required"));
+      }
+      final int count = snapshot.getInt();
+      for (int i=0; i<count; ++i) {
+        if ((deferred == null)||(! deferred.offer(eventCodec.decode(snapshot)))) {
+          throw(new IllegalArgumentException("Not a snapshot of this definition"));
+        }
+      }
+    }
+
+    if ((deadline != 0)&&(currentStateConfiguration.timeoutTransition().isPresent())) {
+      if (lock == null) {
+        synchronized (this) {
+          armTimeout(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+      }
+      else {
+        lock.lock();
+        try {
+          armTimeout(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+
+  private static <TEvent> @Nullable DeferredEvents<TEvent> newDeferredEvents(final @NonNull MachineDefinition<?, TEvent, ?, ?> definition) {
+    return((definition.deferredCapacity() == 0) ? null : new DeferredEvents<>(definition.deferredCapacity()));
+  }
+
+  // events deferred by the states and not replayed yet
+  public int deferredCount() {
+    if (lock == null) {
+      synchronized (this) {
+        return((deferred == null) ? 0 : deferred.size());
+      }
+    }
+    lock.lock();
+    try {
+      return((deferred == null) ? 0 : deferred.size());
+    }
+    finally {
+      lock.unlock();
+    }
   }
 
   public @NonNull TState getCurrentState() {
     return(currentState);
   }
 
-  // synchronized is required to prevent timeout transition to mess up with normal event if both occur exactly in the same time
+  // a future completed with the first of 'targets' entered from now on, at once if the machine is in one of them already.
+  // Nothing polls : the transition entering a state takes the futures waiting for it, and completes them on the executor
+  // fireAsync defaults to, never under the machine lock (dependent stages may fire the machine, which may have moved on by then).
+  // States crossed by fireAll or by replayed deferred events count as entered
+  @SafeVarargs
+  public final @NonNull CompletableFuture<TState> awaitState(final @NonNull TState... targets) {
+    if (targets.length == 0) {
+      throw(new IllegalArgumentException("No state to wait for"));
+    }
+    final CompletableFuture<TState> future = new CompletableFuture<>();
+    if (lock == null) {
+      synchronized (this) {
+        awaitStateLocked(future, targets);
+      }
+      return(future);
+    }
+    lock.lock();
+    try {
+      awaitStateLocked(future, targets);
+    }
+    finally {
+      lock.unlock();
+    }
+    return(future);
+  }
+
+  // same, failed with a TimeoutException when none of 'targets' is entered within 'timeout', measured by the machine timer.
+  // The future fails on the same executor as the one completing it, the timer thread never runs dependent stages
+  @SafeVarargs
+  public final @NonNull CompletableFuture<TState> awaitState(final @NonNull Duration  timeout,
+                                                             final @NonNull TState... targets) {
+    final CompletableFuture<TState> future = awaitState(targets);
+    if (!future.isDone()) {
+      final Executor    executor = defaultExecutor();
+      final TimerHandle expiry   = timer.schedule(() -> executor.execute(() -> future.completeExceptionally(new TimeoutException("None of " + Arrays.toString(targets) + " entered within " + timeout))),
+                                                  timeout.toMillis(), TimeUnit.MILLISECONDS);
+      future.whenComplete((state, failure) -> expiry.cancel());
+    }
+    return(future);
+  }
+
+  private void awaitStateLocked(final @NonNull CompletableFuture<TState> future,
+                                final @NonNull TState[]                  targets) {
+    for (final TState target : targets) {
+      if (target == currentState) {
+        future.complete(target);
+        return;
+      }
+    }
+    if (waiters == null) {
+      waiters = new StateWaiters<>(definition.stateCount());
+    }
+    // once completed, the future is dropped from the lists of the states not entered by the next awaitState (see StateWaiters)
+    for (final TState target : targets) {
+      waiters.add(target.ordinal(), future);
+    }
+  }
+
+  // synchronized (or the lock) is required to prevent timeout transition to mess up with normal event if both occur exactly in the same time
   // synchronized does not add a significant overhead in this case as contention is almost non existant
-  public @NonNull synchronized TState fire(final @Nullable TEvent trigger) throws UnknownTriggerException, MissingStateConfigurationException {
-    currentState              = currentStateConfiguration.fire(trigger, sequenceIndex, localContexts, globalContext, machineConfiguration);
-    currentStateConfiguration = machineConfiguration[currentState.ordinal()];
+  public @NonNull TState fire(final @Nullable TEvent trigger) throws UnknownTriggerException {
+    if (lock == null) {
+      synchronized (this) {
+        return(fireLocked(trigger));
+      }
+    }
+    lock.lock();
+    try {
+      return(fireLocked(trigger));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private @NonNull TState fireLocked(final @Nullable TEvent trigger) throws UnknownTriggerException {
+    if (deferred != null) {
+      return(stateOf(tryFireLocked(trigger), trigger));
+    }
+    enter(currentStateConfiguration.fire(trigger, sequenceIndex, localContexts, globalContext).ordinal());
     cleanFormerTimeoutTransition();
     startTimeoutTransition(currentStateConfiguration);
     return(currentState);
   }
 
-  private void cleanFormerTimeoutTransition() {
-    if (pendingScheduledTimeoutTransition != null) {
-      if (pendingScheduledTimeoutTransition.isDone()) {
-        System.out.println("Done");
-        pendingScheduledTimeoutTransition = null;
+  // enqueue the event and return at once, it's fired later by 'executor' (by default ForkJoinPool.commonPool(), or a new virtual
+  // thread in VIRTUAL_THREADS mode).
+  // Events are fired one at a time in arrival order, on behalf of a single drain task per machine : a machine never runs on
+  // two threads at once and producers never block. The future completes with the new state, or with the UnknownTriggerException.
+  // Dependent stages run in the executor thread : don't block them.
+  // With a MailboxPolicy, at most MailboxPolicy.capacity events wait : see OverflowPolicy for the fate of the other ones
+  public @NonNull CompletableFuture<TState> fireAsync(final @NonNull TEvent trigger) {
+    return(fireAsync(trigger, defaultExecutor()));
+  }
+
+  // the one of fireAsync(trigger), also completing the futures of awaitState
+  private @NonNull Executor defaultExecutor() {
+    return((lock == null) ? ForkJoinPool.commonPool() : VirtualThreads.executor());
+  }
+
+  public @NonNull CompletableFuture<TState> fireAsync(final @NonNull TEvent   trigger,
+                                                      final @NonNull Executor executor) {
+    if (boundedMailbox != null) {
+      return(boundedMailbox.offer(new AsyncEvent<>(trigger), executor));
+    }
+    final AsyncEvent<TState, TEvent>          event   = new AsyncEvent<>(trigger);
+    final Mailbox<AsyncEvent<TState, TEvent>> mailbox = mailbox();
+    if (mailbox.offer(event)) {
+      try {
+        executor.execute(mailbox);
       }
-      else {
-        System.out.println("Try cancelling...");
-        if (pendingScheduledTimeoutTransition.cancel(true)) {
-          System.out.println("Cancelled");
-          pendingScheduledTimeoutTransition = null;
+      catch (final RejectedExecutionException rejected) {
+        mailbox.run(); // caller runs, rather than leaving the mailbox scheduled but never drained
+      }
+    }
+    return(event);
+  }
+
+  // events given to fireAsync and not fired yet, with a MailboxPolicy only (0 otherwise)
+  public int mailboxDepth() {
+    return((boundedMailbox == null) ? 0 : boundedMailbox.depth());
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull Mailbox<AsyncEvent<TState, TEvent>> mailbox() {
+    final Mailbox<AsyncEvent<TState, TEvent>> current = mailbox;
+    if (current != null) {
+      return(current);
+    }
+    MAILBOX.compareAndSet(this, null, new Mailbox<AsyncEvent<TState, TEvent>>(this::fireQueued));
+    return(mailbox);
+  }
+
+  // the future is completed outside of the machine monitor (or lock). An Error still fails the future (nobody would complete it
+  // otherwise) before reaching the executor, once the mailbox is idle (see Mailbox.run)
+  private void fireQueued(final @NonNull AsyncEvent<TState, TEvent> event) {
+    final TState state;
+    try {
+      state = fire(event.trigger);
+    }
+    catch (final RuntimeException failure) { // UnknownTriggerException, or thrown by some action
+      event.completeExceptionally(failure);
+      return;
+    }
+    catch (final Error failure) {
+      event.completeExceptionally(failure);
+      throw(failure);
+    }
+    event.complete(state);
+  }
+
+  // primitive variant of fire for machines whose events are Integer(s) (eg. protocol opcodes) : 'when' transitions are looked up
+  // in int keyed tables, the event is never boxed unless it ends up in a complement ('other') transition
+  public @NonNull TState fireInt(final int trigger) throws UnknownTriggerException {
+    if (lock == null) {
+      synchronized (this) {
+        return(fireIntLocked(trigger));
+      }
+    }
+    lock.lock();
+    try {
+      return(fireIntLocked(trigger));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private @NonNull TState fireIntLocked(final int trigger) throws UnknownTriggerException {
+    if (deferred != null) {
+      return(stateOf(tryFireIntLocked(trigger), trigger));
+    }
+    enter(currentStateConfiguration.fireInt(trigger, sequenceIndex, localContexts, globalContext).ordinal());
+    cleanFormerTimeoutTransition();
+    startTimeoutTransition(currentStateConfiguration);
+    return(currentState);
+  }
+
+  // non throwing variant of fire, the outcome is reported through the result. A refused event performs no action and leaves the
+  // state and its pending timeout alone. REJECTED changes nothing else. SEQUENCE_BROKEN moves the sequence position past the
+  // expected event, as fire() does : the sequence of the current state stays broken (its events keep being refused) until
+  // another transition leaves or re-enters the state
+  public @NonNull FireResult tryFire(final @NonNull TEvent trigger) {
+    if (lock == null) {
+      synchronized (this) {
+        return(tryFireLocked(trigger));
+      }
+    }
+    lock.lock();
+    try {
+      return(tryFireLocked(trigger));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private @NonNull FireResult tryFireLocked(final @NonNull TEvent trigger) {
+    final int target = currentStateConfiguration.tryFire(trigger, sequenceIndex, localContexts, globalContext);
+    return(((target < 0)&&(deferred != null)) ? defer(trigger, target) : moveTo(target));
+  }
+
+  public @NonNull FireResult tryFireInt(final int trigger) {
+    if (lock == null) {
+      synchronized (this) {
+        return(tryFireIntLocked(trigger));
+      }
+    }
+    lock.lock();
+    try {
+      return(tryFireIntLocked(trigger));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private @NonNull FireResult tryFireIntLocked(final int trigger) {
+    final int target = currentStateConfiguration.tryFireInt(trigger, sequenceIndex, localContexts, globalContext);
+    return(((target < 0)&&(deferred != null)) ? defer((TEvent) Integer.valueOf(trigger), target) : moveTo(target));
+  }
+
+  // fire 'triggers' in order under a single lock, stopping at the first refused one (rejected or breaking a sequence) :
+  // return the number of events fired or deferred, triggers[result] is the refused one when result < triggers.length.
+  // Timeouts of the states crossed along the way are never armed : the timeout of the final state is (re)armed once,
+  // at the end, if at least one transition was taken. Deferred events alone leave the machine as tryFire does
+  @SafeVarargs
+  public final int fireAll(final @NonNull TEvent... triggers) {
+    if (lock == null) {
+      synchronized (this) {
+        return(fireAllLocked(triggers));
+      }
+    }
+    lock.lock();
+    try {
+      return(fireAllLocked(triggers));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private int fireAllLocked(final @NonNull TEvent[] triggers) {
+    final long generation = timeoutGeneration; // moved by every transition, see enter()
+    int        fired      = 0;
+    try {
+      while (fired < triggers.length) {
+        final FireResult result = step(triggers[fired]);
+        if ((result != FireResult.ACCEPTED)&&(result != FireResult.DEFERRED)) {
+          break;
         }
-        else {
-          System.out.println("Unable to cancel");
-          return; // can not cancel previous timeout transition !
+        ++fired;
+      }
+    }
+    finally {
+      // also when an action throws halfway : the state reached so far gets its timeout
+      rearmTimeoutIf(timeoutGeneration != generation);
+    }
+    return(fired);
+  }
+
+  public int fireAll(final @NonNull Iterable<? extends TEvent> triggers) {
+    if (lock == null) {
+      synchronized (this) {
+        return(fireAllLocked(triggers));
+      }
+    }
+    lock.lock();
+    try {
+      return(fireAllLocked(triggers));
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private int fireAllLocked(final @NonNull Iterable<? extends TEvent> triggers) {
+    final long generation = timeoutGeneration;
+    int        fired      = 0;
+    try {
+      for (final TEvent trigger : triggers) {
+        final FireResult result = step(trigger);
+        if ((result != FireResult.ACCEPTED)&&(result != FireResult.DEFERRED)) {
+          break;
         }
+        ++fired;
       }
     }
+    finally {
+      rearmTimeoutIf(timeoutGeneration != generation);
+    }
+    return(fired);
+  }
+
+  // fire one event of a batch, leaving the pending timeout alone : ACCEPTED when a transition was taken
+  private @NonNull FireResult step(final @NonNull TEvent trigger) {
+    final int target = currentStateConfiguration.tryFire(trigger, sequenceIndex, localContexts, globalContext);
+    if (target < 0) {
+      return((deferred != null) ? defer(trigger, target) : moveTo(target));
+    }
+    enter(target);
+    replayDeferred();
+    return(FireResult.ACCEPTED);
+  }
+
+  private void rearmTimeoutIf(final boolean moved) {
+    if (moved) {
+      cleanFormerTimeoutTransition();
+      startTimeoutTransition(currentStateConfiguration);
+    }
+  }
+
+  // every transition lands here : the only cost for a machine nobody waits on is the null check.
+  // The pending timeout belongs to the state left, a new generation makes sure it never fires on this one
+  private void enter(final int target) {
+    ++timeoutGeneration;
+    currentState              = definition.state(target);
+    currentStateConfiguration = definition.configuration(target);
+    if (waiters != null) {
+      signal(target);
+    }
+  }
+
+  private void signal(final int target) {
+    final ArrayList<CompletableFuture<TState>> entered = waiters.take(target);
+    if (entered != null) {
+      final TState state = currentState;
+      defaultExecutor().execute(() -> {
+        for (final CompletableFuture<TState> future : entered) {
+          future.complete(state);
+        }
+      });
+    }
+  }
+
+  private @NonNull FireResult moveTo(final int target) {
+    if (target >= 0) {
+      enter(target);
+      try {
+        replayDeferred();
+      }
+      finally {
+        // also when a replayed event throws : the state reached so far gets its timeout
+        cleanFormerTimeoutTransition();
+        startTimeoutTransition(currentStateConfiguration);
+      }
+      return(FireResult.ACCEPTED);
+    }
+    else if (target == StateConfiguration.SEQUENCE_BROKEN) {
+      return(FireResult.SEQUENCE_BROKEN);
+    }
+    else {
+      return(FireResult.REJECTED);
+    }
+  }
+
+  // a refused event : queued if the current state defers it and there's room left, refused otherwise
+  private @NonNull FireResult defer(final @NonNull TEvent trigger,
+                                    final          int    target) {
+    if ((target == StateConfiguration.REJECTED)&&(currentStateConfiguration.defers(trigger))&&(deferred.offer(trigger))) {
+      return(FireResult.DEFERRED);
+    }
+    return(moveTo(target));
+  }
+
+  // after a transition, replay the deferred events oldest first : an event the current state accepts is fired, and the queue is
+  // scanned again from the oldest one since the state (or the contexts) changed. One it still defers stays queued, any other one
+  // is dropped (and reported as rejected to the flight recorder). Leaves the pending timeout alone
+  private void replayDeferred() {
+    if ((deferred == null)||(deferred.isEmpty())) {
+      return;
+    }
+    int index = 0;
+    while (index < deferred.size()) {
+      final TEvent trigger = deferred.get(index);
+      final int    target  = currentStateConfiguration.tryFire(trigger, sequenceIndex, localContexts, globalContext);
+      if (target >= 0) {
+        deferred.remove(index);
+        enter(target);
+        index = 0;
+      }
+      else if ((target == StateConfiguration.REJECTED)&&(currentStateConfiguration.defers(trigger))) {
+        ++index;
+      }
+      else {
+        deferred.remove(index);
+        FlightRecorderEvents.rejected(currentState, trigger);
+      }
+    }
+  }
+
+  // fire() flavour of a tryFire result
+  private @NonNull TState stateOf(final @NonNull  FireResult result,
+                                  final @Nullable Object     trigger) throws UnknownTriggerException {
+    if ((result == FireResult.ACCEPTED)||(result == FireResult.DEFERRED)) {
+      return(currentState);
+    }
+    FlightRecorderEvents.rejected(currentState, trigger);
+    throw(new UnknownTriggerException(currentState.name(), "" + trigger));
+  }
+
+  private void cleanFormerTimeoutTransition() {
+    ++timeoutGeneration;
+    if (pendingScheduledTimeoutTransition != null) {
+      // a timeout task which can't be cancelled any more will see a stale generation and give up
+      pendingScheduledTimeoutTransition.cancel();
+      pendingScheduledTimeoutTransition = null;
+      FlightRecorderEvents.timeoutCancelled(currentState);
+    }
   }
 
   private void startTimeoutTransition(final StateConfiguration<TState, TEvent, TLocalContext, TGlobalContext> stateConfiguration) {
     final Optional<TimeoutTransition<TState, TEvent, TLocalContext, TGlobalContext>> timeoutTransition = stateConfiguration.timeoutTransition();
 
-    ifPresent(timeoutTransition,
-              // SOME
-              (someTransition) -> {
-                System.out.println("Scheduling... "+timer);
-                pendingScheduledTimeoutTransition = timer.schedule((Runnable) () -> {
-                                                                     try {
-                                                                       System.out.println("timeout triggered at "+System.currentTimeMillis()+" "+this);
-                                                                       currentState              = currentStateConfiguration.fire(null, sequenceIndex, localContexts, globalContext, machineConfiguration);
-                                                                       currentStateConfiguration = machineConfiguration[currentState.ordinal()];
-                                                                       startTimeoutTransition(currentStateConfiguration);
-                                                                     }
-                                                                     catch (final UnknownTriggerException e) {
-                                                                       // can never happened
-                                                                     }
-                                                                     catch (final MissingStateConfigurationException missingStateConfiguration) {
-                                                                       //TODO error log
-                                                                     }
-                                                                   },
-                                                                   timeoutTransition.get().duration.toMillis(),
-                                                                   TimeUnit.MILLISECONDS);
-              })
-      // NONE
-      .orElse(() -> pendingScheduledTimeoutTransition = null);
+    // plain if rather than ifPresent : states without timeout must not allocate anything on fire()
+    if (timeoutTransition.isPresent()) {
+      armTimeout(timeoutTransition.get().duration.toMillis());
+    }
+    else {
+      pendingScheduledTimeoutTransition = null;
+    }
+  }
+
+  private void armTimeout(final long delay) {
+    final long     generation = timeoutGeneration;
+    final Runnable task       = (lock == null) ? () -> fireTimeoutTransition(generation)
+                                               : () -> VirtualThreads.executor().execute(() -> fireTimeoutTransition(generation)); // never blocks the timer thread
+    pendingScheduledTimeoutTransition = timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+    timeoutDeadline                   = System.currentTimeMillis() + delay;
+    FlightRecorderEvents.timeoutScheduled(currentState, delay);
   }
 
-  public void close() {
-    if (pendingScheduledTimeoutTransition != null) {
-      if (! pendingScheduledTimeoutTransition.isDone()) {
-        System.out.println("Try cancelling...");
-        if (pendingScheduledTimeoutTransition.cancel(true)) {
-          System.out.println("Cancelled");
-          pendingScheduledTimeoutTransition = null;
-        } else {
-          System.out.println("Unable to cancel");
-          return; // can not cancel previous timeout transition !
+  private void fireTimeoutTransition(final long generation) {
+    if (lock == null) {
+      synchronized (this) {
+        fireTimeoutTransitionLocked(generation);
+      }
+    }
+    else {
+      lock.lock();
+      try {
+        fireTimeoutTransitionLocked(generation);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void fireTimeoutTransitionLocked(final long generation) {
+    if (generation != timeoutGeneration) {
+      return; // superseded by another transition
+    }
+    pendingScheduledTimeoutTransition = null;
+    FlightRecorderEvents.timeoutFired(currentState);
+
+    // a timeout transition is never rejected and its target was checked by the definition
+    final int target = currentStateConfiguration.tryFire(null, sequenceIndex, localContexts, globalContext);
+    enter(target);
+    try {
+      replayDeferred();
+    }
+    finally {
+      startTimeoutTransition(currentStateConfiguration);
+    }
+  }
+
+  // compact binary form of the machine, written at the buffer position (in the buffer byte order) : state, sequence position,
+  // deadline of the pending timeout, contexts and deferred events through the codecs, only needed when the definition carries
+  // contexts, and when events are deferred at snapshot time (an IllegalStateException is thrown otherwise).
+  // Snapshots of many machines can follow each other in a buffer. A BufferOverflowException leaves the buffer position unchanged
+  public void snapshot(final @NonNull ByteBuffer buffer) {
+    snapshot(buffer, null, null, null);
+  }
+
+  public void snapshot(final @NonNull  ByteBuffer            buffer,
+                       final @Nullable Codec<TLocalContext>  localContextCodec,
+                       final @Nullable Codec<TGlobalContext> globalContextCodec) {
+    snapshot(buffer, localContextCodec, globalContextCodec, null);
+  }
+
+  public void snapshot(final @NonNull  ByteBuffer            buffer,
+                       final @Nullable Codec<TLocalContext>  localContextCodec,
+                       final @Nullable Codec<TGlobalContext> globalContextCodec,
+                       final @Nullable Codec<TEvent>         eventCodec) {
+    checkCodecs(localContextCodec, globalContextCodec);
+    if (lock == null) {
+      synchronized (this) {
+        snapshotLocked(buffer, localContextCodec, globalContextCodec, eventCodec);
+      }
+      return;
+    }
+    lock.lock();
+    try {
+      snapshotLocked(buffer, localContextCodec, globalContextCodec, eventCodec);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  private void snapshotLocked(final @NonNull  ByteBuffer            buffer,
+                              final @Nullable Codec<TLocalContext>  localContextCodec,
+                              final @Nullable Codec<TGlobalContext> globalContextCodec,
+                              final @Nullable Codec<TEvent>         eventCodec) {
+    final int deferredCount = (deferred == null) ? 0 : deferred.size();
+    if ((deferredCount != 0)&&(eventCodec == null)) {
+      throw(new IllegalStateException(deferredCount+" deferred event(s) pending : an event codec is required"));
+    }
+    final int start = buffer.position();
+    try {
+      buffer.put(SNAPSHOT_VERSION)
+            .put((byte) (((pendingScheduledTimeoutTransition != null) ? PENDING_TIMEOUT : 0)|((deferredCount != 0) ? DEFERRED_EVENTS : 0)))
+            .putShort((short) definition.stateCount())
+            .putShort((short) currentState.ordinal())
+            .putShort((short) (Math.min(sequenceIndex.get(), MAX_SEQUENCE) + 1));
+      if (pendingScheduledTimeoutTransition != null) {
+        buffer.putLong(timeoutDeadline);
+      }
+      for (int i=0; i<localContexts.length; ++i) {
+        if (definition.hasLocalContext(i)) {
+          if (localContexts[i] == null) {
+            buffer.put((byte) 0);
+          }
+          else {
+            localContextCodec.encode(localContexts[i].get(), buffer.put((byte) 1));
+          }
+        }
+      }
+      if (globalContext.isPresent()) {
+        globalContextCodec.encode(globalContext.get(), buffer);
+      }
+      if (deferredCount != 0) {
+        buffer.putInt(deferredCount);
+        for (int i=0; i<deferredCount; ++i) {
+          eventCodec.encode(deferred.get(i), buffer);
+        }
+      }
+    }
+    catch (final BufferOverflowException full) {
+      buffer.position(start);
+      throw(full);
+    }
+  }
+
+  private void checkCodecs(final @Nullable Codec<TLocalContext>  localContextCodec,
+                           final @Nullable Codec<TGlobalContext> globalContextCodec) {
+    if ((globalContextCodec == null)&&(definition.hasGlobalContext())) {
+      throw(new IllegalArgumentException("The definition has a global context : a codec is required"));
+    }
+    if (localContextCodec == null) {
+      for (int i=0; i<definition.stateCount(); ++i) {
+        if (definition.hasLocalContext(i)) {
+          throw(new IllegalArgumentException("State "+definition.state(i).name()+" has a local context : a codec is required"));
         }
       }
     }
   }
+
+  // cancel any pending timeout transition. The timer itself is shared and stays alive
+  public void close() {
+    if (lock == null) {
+      synchronized (this) {
+        cleanFormerTimeoutTransition();
+      }
+    }
+    else {
+      lock.lock();
+      try {
+        cleanFormerTimeoutTransition();
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  // =====================================================
+
+  // an event waiting in the mailbox is the future handed back to the producer : one allocation less per event
+  private static final class AsyncEvent<TState, TEvent> extends CompletableFuture<TState> {
+    final @NonNull TEvent trigger;
+
+    AsyncEvent(final @NonNull TEvent trigger) {
+      this.trigger = trigger;
+    }
+  }
 }
@@ -0,0 +1,276 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.journal.EventJournal;
+import net.meta8.common.fsm.journal.TimeoutStore;
+import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.TimerService;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// many machines of the same MachineDefinition (eg. one per session), keyed by a primitive long id.
+// There's no StateMachine object per instance : each one is a slot of parallel arrays holding a packed
+// state ordinal + sequence index, its pending timeout (if any) and its contexts (only when the definition has some).
+// Machines are spread by id over stripes, each one a table of machines behind its own lock : calls on machines of different
+// stripes run in parallel, calls on the same stripe one at a time. A single stripe by default, DEFAULT_VIRTUAL_STRIPES in
+// VIRTUAL_THREADS mode, where actions are expected to block. Use a ShardedMachineExecutor when actions never block.
+// Locks are ReentrantLock rather than monitors, they don't pin virtual threads while actions block
+public final class StateMachineRegistry<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> implements AutoCloseable {
+  public static final int DEFAULT_VIRTUAL_STRIPES = 64;
+
+  private static final int OVERDUE_BATCH = 256; // overdue timeouts fired per lock acquisition on recovery
+
+  private final @NonNull Stripe<TState, TEvent, TLocalContext, TGlobalContext>[] stripes;
+
+  public StateMachineRegistry(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition) {
+    this(definition, HashedWheelTimerService.shared(), 1024);
+  }
+
+  public StateMachineRegistry(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                              final @NonNull TimerService                                                     timer,
+                              final          int                                                              initialCapacity) {
+    this(definition, timer, initialCapacity, ExecutionMode.PLATFORM_THREADS);
+  }
+
+  // in VIRTUAL_THREADS mode, timeout transitions run on virtual threads rather than on the timer thread, and machines are
+  // spread over DEFAULT_VIRTUAL_STRIPES stripes
+  public StateMachineRegistry(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                              final @NonNull TimerService                                                     timer,
+                              final          int                                                              initialCapacity,
+                              final @NonNull ExecutionMode                                                    executionMode) {
+    this(definition, timer, initialCapacity, executionMode, (executionMode == ExecutionMode.VIRTUAL_THREADS) ? DEFAULT_VIRTUAL_STRIPES : 1);
+  }
+
+  // initialCapacity is shared by the stripes
+  @SuppressWarnings("unchecked")
+  public StateMachineRegistry(final @NonNull MachineDefinition<TState, TEvent, TLocalContext, TGlobalContext> definition,
+                              final @NonNull TimerService                                                     timer,
+                              final          int                                                              initialCapacity,
+                              final @NonNull ExecutionMode                                                    executionMode,
+                              final          int                                                              stripeCount) {
+    if (stripeCount <= 0) {
+      throw(new IllegalArgumentException("stripeCount must be positive: "+stripeCount));
+    }
+    if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+      VirtualThreads.executor(); // fail now rather than on the first timeout
+    }
+
+    stripes = (Stripe<TState, TEvent, TLocalContext, TGlobalContext>[]) new Stripe<?, ?, ?, ?>[stripeCount];
+    for (int i=0; i<stripeCount; ++i) {
+      final int                            index = i;
+      final MachineTable.TimeoutDispatcher timeoutDispatcher;
+      if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+        timeoutDispatcher = (slot, generation) -> VirtualThreads.executor().execute(() -> stripes[index].fireTimeoutTransition(slot, generation));
+      }
+      else {
+        // on the task executor of the timer, never the wheel thread of the shared one (see HashedWheelTimerService.shared) :
+        // a stripe busy with a long action must not delay every timeout of the JVM
+        timeoutDispatcher = (slot, generation) -> stripes[index].fireTimeoutTransition(slot, generation);
+      }
+      stripes[i] = new Stripe<>(new MachineTable<>(definition, timer, timeoutDispatcher, initialCapacity / stripeCount));
+    }
+  }
+
+  // -----------------------
+
+  // start a new machine in the initial state : initial entry actions are performed and its timeout (if any) is armed
+  public @NonNull TState create(final long id) {
+    final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe = stripe(id);
+    stripe.lock.lock();
+    try {
+      return(stripe.table.create(id));
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  // rebuild the machines written to the journal by a former registry, then journal every change of this one : creations,
+  // events which changed a machine, timeout transitions and removals. Replay performs no action : states and sequence positions
+  // are recovered, contexts start over from their initial value, and timeouts of the recovered states are armed for their
+  // whole duration. Only an empty registry can be recovered (IllegalStateException). The journal is closed by the caller.
+  // The journal is read once, whatever the number of stripes, while every stripe lock is held
+  public void recover(final @NonNull EventJournal<TEvent> journal) throws IOException {
+    recoverLocked(journal, null);
+  }
+
+  // recover(journal) keeping the deadlines of pending timeouts in a timeout store : a restart goes on with what's left of them.
+  // Only the machines with a pending timeout are visited. The ones still ahead are armed again, the overdue ones fire before
+  // recover returns, by increasing deadline in each stripe and in batches taking the stripe lock each, so other calls aren't held
+  // meanwhile. A power loss may leave the store behind the journal (by its sync interval) : machines whose record was lost come
+  // back without timeout. The timeout store is closed by the caller, after the registry
+  public void recover(final @NonNull EventJournal<TEvent> journal,
+                      final @NonNull TimeoutStore         timeoutStore) throws IOException {
+    final long[][] overdue = recoverLocked(journal, timeoutStore);
+
+    for (int s=0; s<stripes.length; ++s) {
+      final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe = stripes[s];
+      for (int from=0; from<overdue[s].length; from+=OVERDUE_BATCH) {
+        stripe.lock.lock();
+        try {
+          for (int i=from, to=Math.min(overdue[s].length, from + OVERDUE_BATCH); i<to; ++i) {
+            stripe.table.fireTimeoutTransition((int) (overdue[s][i] >>> 32), (int) overdue[s][i]);
+          }
+        }
+        finally {
+          stripe.lock.unlock();
+        }
+      }
+    }
+  }
+
+  private @NonNull long[][] recoverLocked(final @NonNull  EventJournal<TEvent> journal,
+                                          final @Nullable TimeoutStore         timeoutStore) throws IOException {
+    final List<MachineTable<TState, TEvent, TLocalContext, TGlobalContext>> tables = new ArrayList<>(stripes.length);
+    int locked = 0;
+    try {
+      for (final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe : stripes) {
+        stripe.lock.lock();
+        ++locked;
+        tables.add(stripe.table);
+      }
+      return(MachineTable.recover(tables, this::stripeOf, journal, timeoutStore));
+    }
+    finally {
+      for (int i=0; i<locked; ++i) {
+        stripes[i].lock.unlock();
+      }
+    }
+  }
+
+  // current state of a machine, null if there's no such machine
+  public @Nullable TState get(final long id) {
+    final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe = stripe(id);
+    stripe.lock.lock();
+    try {
+      return(stripe.table.get(id));
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  public @NonNull TState fire(final long id, final @NonNull TEvent trigger) throws UnknownTriggerException {
+    final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe = stripe(id);
+    stripe.lock.lock();
+    try {
+      return(stripe.table.fire(id, trigger));
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  // non throwing variant of fire, see StateMachine.tryFire
+  public @NonNull FireResult tryFire(final long id, final @NonNull TEvent trigger) {
+    final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe = stripe(id);
+    stripe.lock.lock();
+    try {
+      return(stripe.table.tryFire(id, trigger));
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  // forget a machine and cancel its pending timeout. No exit action is performed
+  public boolean remove(final long id) {
+    final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe = stripe(id);
+    stripe.lock.lock();
+    try {
+      return(stripe.table.remove(id));
+    }
+    finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  // sum of the stripe sizes, each one taken under its lock
+  public int size() {
+    int size = 0;
+    for (final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        size += stripe.table.size();
+      }
+      finally {
+        stripe.lock.unlock();
+      }
+    }
+    return(size);
+  }
+
+  public int stripeCount() {
+    return(stripes.length);
+  }
+
+  // cancel every pending timeout. The timer itself is left alive
+  @Override
+  public void close() {
+    for (final Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        stripe.table.close();
+      }
+      finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  private @NonNull Stripe<TState, TEvent, TLocalContext, TGlobalContext> stripe(final long id) {
+    return(stripes[stripeOf(id)]);
+  }
+
+  // ids are often sequential : spread them with a multiplicative hash
+  private int stripeOf(final long id) {
+    return((stripes.length == 1) ? 0 : Math.floorMod((int) ((id * 0x9E3779B97F4A7C15L) >>> 32), stripes.length));
+  }
+
+  // =====================================================
+
+  private static final class Stripe<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> {
+    final @NonNull MachineTable<TState, TEvent, TLocalContext, TGlobalContext> table;
+    final @NonNull ReentrantLock                                                lock = new ReentrantLock();
+
+    Stripe(final @NonNull MachineTable<TState, TEvent, TLocalContext, TGlobalContext> table) {
+      this.table = table;
+    }
+
+    // timeout tasks take the stripe lock like any other call
+    void fireTimeoutTransition(final int slot, final int generation) {
+      lock.lock();
+      try {
+        table.fireTimeoutTransition(slot, generation);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.machine;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+// futures returned by StateMachine.awaitState, listed per awaited state (by ordinal) : entering a state takes its whole list
+// at once, states nobody waits for cost an array read. A future waiting for several states sits in several lists, the first
+// state entered completes it and add() drops it from the other lists later, as the futures timed out or cancelled : nothing
+// hooks their completion, which may happen on any thread. Only used under the machine monitor (or lock)
+final class StateWaiters<TState> {
+  private static final int PRUNE_THRESHOLD = 64;
+
+  private final @Nullable ArrayList<CompletableFuture<TState>>[] waiters;
+  private final           int[]                                  pruneAt; // list size triggering the next prune, per state
+
+  StateWaiters(final int stateCount) {
+    @SuppressWarnings("unchecked")
+    final @Nullable ArrayList<CompletableFuture<TState>>[] lists = (ArrayList<CompletableFuture<TState>>[]) new ArrayList<?>[stateCount];
+    waiters = lists;
+    pruneAt = new int[stateCount];
+  }
+
+  void add(final          int                       state,
+           final @NonNull CompletableFuture<TState> future) {
+    ArrayList<CompletableFuture<TState>> list = waiters[state];
+    if (list == null) {
+      list           = new ArrayList<>();
+      waiters[state] = list;
+      pruneAt[state] = PRUNE_THRESHOLD;
+    }
+    // done futures are dropped once the list has doubled since the last prune : adding stays O(1) amortized
+    else if (list.size() >= pruneAt[state]) {
+      list.removeIf(CompletableFuture::isDone);
+      pruneAt[state] = Math.max(PRUNE_THRESHOLD, 2 * list.size());
+    }
+    list.add(future);
+  }
+
+  // the futures waiting for 'state', null if none
+  @Nullable ArrayList<CompletableFuture<TState>> take(final int state) {
+    final ArrayList<CompletableFuture<TState>> list = waiters[state];
+    waiters[state] = null;
+    return(list);
+  }
+}
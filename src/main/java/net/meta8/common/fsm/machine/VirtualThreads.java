@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.machine;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+// a virtual thread per task executor shared by every machine in VIRTUAL_THREADS mode.
+// The library is built for Java 8 : the executor is looked up by reflection, and is missing before Java 21
+final class VirtualThreads {
+  private static final class Holder {
+    static final @Nullable Executor EXECUTOR = newVirtualThreadPerTaskExecutor();
+  }
+
+  private VirtualThreads() {
+  }
+
+  static @NonNull Executor executor() {
+    final Executor executor = Holder.EXECUTOR;
+    if (executor == null) {
+      throw(new UnsupportedOperationException("Virtual threads require Java 21 or later, running "+System.getProperty("java.version")));
+    }
+    return(executor);
+  }
+
+  private static @Nullable Executor newVirtualThreadPerTaskExecutor() {
+    try {
+      return((Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+    }
+    catch (final ReflectiveOperationException missing) {
+      return(null);
+    }
+  }
+}
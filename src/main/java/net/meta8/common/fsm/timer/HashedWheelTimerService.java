@@ -0,0 +1,347 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.timer;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+// hashed timing wheel : one worker thread drives every timeout, whatever the number of machines.
+// schedule and cancel are O(1) : timeouts are handed over to the worker through lock free queues and
+// each bucket is a doubly linked list. Timeouts further than one wheel revolution carry a remaining
+// rounds counter instead of living in an overflow wheel, so there's no cascading cost.
+// Expiration granularity is one tick : a timeout never fires early, and at most one tick late.
+public final class HashedWheelTimerService implements TimerService, AutoCloseable {
+  public static final @NonNull Duration DEFAULT_TICK_DURATION   = Duration.ofMillis(10);
+  public static final          int      DEFAULT_TICKS_PER_WHEEL = 512;
+
+  // process wide timer used by machines which are not given any TimerService. Its tasks run on ForkJoinPool.commonPool() :
+  // a slow timeout action (or a machine monitor held by a long fire) only delays its own machine, not every timeout of the JVM
+  private static final class SharedTimer {
+    static final HashedWheelTimerService INSTANCE = new HashedWheelTimerService(DEFAULT_TICK_DURATION, DEFAULT_TICKS_PER_WHEEL, daemonThreadFactory("fsm-shared-timer"), ForkJoinPool.commonPool(), true);
+  }
+
+  // upper bound of timeouts moved from the pending queue to the wheel in one tick, so that a burst of schedules can't starve expiration
+  private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+  private final long            tickNanos;
+  private final int             mask;
+  private final Bucket[]        wheel;
+  private final Executor        taskExecutor;
+  private final boolean         shared;
+  private final Thread          worker;
+  private final long            startTime;
+
+  private final Queue<Timeout>  pendingTimeouts   = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout>  cancelledTimeouts = new ConcurrentLinkedQueue<>();
+  private final AtomicLong      scheduledCount    = new AtomicLong();
+
+  private volatile boolean      running = true;
+
+  public HashedWheelTimerService() {
+    this(DEFAULT_TICK_DURATION, DEFAULT_TICKS_PER_WHEEL, daemonThreadFactory("fsm-timer"));
+  }
+
+  public HashedWheelTimerService(final @NonNull Duration      tickDuration,
+                                 final          int           ticksPerWheel,
+                                 final @NonNull ThreadFactory threadFactory) {
+    this(tickDuration, ticksPerWheel, threadFactory, Runnable::run);
+  }
+
+  // tasks are run by the wheel thread unless a taskExecutor is given : use one when timeout transitions perform slow actions.
+  // shared() uses ForkJoinPool.commonPool()
+  public HashedWheelTimerService(final @NonNull Duration      tickDuration,
+                                 final          int           ticksPerWheel,
+                                 final @NonNull ThreadFactory threadFactory,
+                                 final @NonNull Executor      taskExecutor) {
+    this(tickDuration, ticksPerWheel, threadFactory, taskExecutor, false);
+  }
+
+  private HashedWheelTimerService(final @NonNull Duration      tickDuration,
+                                  final          int           ticksPerWheel,
+                                  final @NonNull ThreadFactory threadFactory,
+                                  final @NonNull Executor      taskExecutor,
+                                  final          boolean       shared) {
+    if (tickDuration.isNegative() || tickDuration.isZero()) {
+      throw(new IllegalArgumentException("tickDuration must be positive: "+tickDuration));
+    }
+    if (ticksPerWheel <= 0) {
+      throw(new IllegalArgumentException("ticksPerWheel must be positive: "+ticksPerWheel));
+    }
+
+    this.tickNanos    = tickDuration.toNanos();
+    this.wheel        = new Bucket[powerOfTwoCeiling(ticksPerWheel)];
+    this.mask         = wheel.length - 1;
+    this.taskExecutor = taskExecutor;
+    this.shared       = shared;
+
+    for (int i=0; i<wheel.length; ++i) {
+      wheel[i] = new Bucket();
+    }
+
+    this.startTime = System.nanoTime();
+    this.worker    = threadFactory.newThread(this::run);
+    this.worker.start();
+  }
+
+  public static @NonNull HashedWheelTimerService shared() {
+    return(SharedTimer.INSTANCE);
+  }
+
+  // number of timeouts scheduled and neither expired nor cancelled yet
+  public long pendingTimeouts() {
+    return(scheduledCount.get());
+  }
+
+  @Override
+  public @NonNull TimerHandle schedule(final @NonNull Runnable task,
+                                       final          long     delay,
+                                       final @NonNull TimeUnit unit) {
+    if (! running) {
+      throw(new IllegalStateException("Timer is closed"));
+    }
+
+    final Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)));
+    scheduledCount.incrementAndGet();
+    pendingTimeouts.add(timeout);
+    return(timeout);
+  }
+
+  @Override
+  public void close() {
+    if (shared) {
+      throw(new UnsupportedOperationException("The shared timer can not be closed"));
+    }
+    running = false;
+    worker.interrupt();
+  }
+
+  // -----------------------
+
+  private void run() {
+    long tick = 0;
+
+    while (running) {
+      final long deadline = waitForNextTick(tick);
+      if (deadline < 0) {
+        break;
+      }
+
+      processCancelledTimeouts();
+      transferPendingTimeouts(tick);
+      wheel[(int) (tick & mask)].expireTimeouts(deadline);
+      ++tick;
+    }
+  }
+
+  // return the tick deadline (relative to startTime) or -1 if the timer was closed while sleeping
+  private long waitForNextTick(final long tick) {
+    final long deadline = tickNanos * (tick + 1);
+
+    for (;;) {
+      final long sleepNanos = deadline - (System.nanoTime() - startTime);
+      if (sleepNanos <= 0) {
+        return(deadline);
+      }
+      try {
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleepNanos + 999_999));
+      }
+      catch (final InterruptedException interrupted) {
+        if (! running) {
+          return(-1);
+        }
+      }
+    }
+  }
+
+  private void transferPendingTimeouts(final long tick) {
+    for (int i=0; i<MAX_TRANSFER_PER_TICK; ++i) {
+      final Timeout timeout = pendingTimeouts.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.state != Timeout.ST_INIT) {
+        continue; // cancelled before reaching the wheel
+      }
+
+      final long expirationTick = timeout.deadline / tickNanos;
+      timeout.remainingRounds   = (expirationTick - tick) / wheel.length;
+
+      // already late timeouts go into the current bucket and expire right away
+      wheel[(int) (Math.max(expirationTick, tick) & mask)].add(timeout);
+    }
+  }
+
+  private void processCancelledTimeouts() {
+    Timeout timeout;
+    while ((timeout = cancelledTimeouts.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  private void execute(final @NonNull Timeout timeout) {
+    try {
+      taskExecutor.execute(timeout.task);
+    }
+    catch (final Throwable t) {
+      final Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, t);
+    }
+  }
+
+  private static int powerOfTwoCeiling(final int value) {
+    final int highestOneBit = Integer.highestOneBit(value);
+    return(highestOneBit == value ? value : highestOneBit << 1);
+  }
+
+  private static @NonNull ThreadFactory daemonThreadFactory(final @NonNull String name) {
+    return((runnable) -> {
+      final Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return(thread);
+    });
+  }
+
+  // =====================================================
+
+  private static final class Timeout implements TimerHandle {
+    static final int ST_INIT      = 0;
+    static final int ST_CANCELLED = 1;
+    static final int ST_EXPIRED   = 2;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    final @NonNull HashedWheelTimerService timer;
+    final @NonNull Runnable                task;
+    final          long                    deadline;
+
+    volatile int state = ST_INIT;
+
+    // owned by the worker thread
+    long              remainingRounds;
+    @Nullable Bucket  bucket;
+    @Nullable Timeout previous;
+    @Nullable Timeout next;
+
+    Timeout(final @NonNull HashedWheelTimerService timer,
+            final @NonNull Runnable                task,
+            final          long                    deadline) {
+      this.timer    = timer;
+      this.task     = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public boolean cancel() {
+      if (! STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+        return(state == ST_CANCELLED);
+      }
+      timer.scheduledCount.decrementAndGet();
+      timer.cancelledTimeouts.add(this);
+      return(true);
+    }
+
+    @Override
+    public boolean isDone() {
+      return(state != ST_INIT);
+    }
+
+    void expire() {
+      if (STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+        timer.scheduledCount.decrementAndGet();
+        timer.execute(this);
+      }
+    }
+  }
+
+  // doubly linked list of timeouts, only accessed by the worker thread
+  private static final class Bucket {
+    private @Nullable Timeout head;
+    private @Nullable Timeout tail;
+
+    void add(final @NonNull Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = tail = timeout;
+      }
+      else {
+        tail.next        = timeout;
+        timeout.previous = tail;
+        tail             = timeout;
+      }
+    }
+
+    void expireTimeouts(final long deadline) {
+      Timeout timeout = head;
+
+      while (timeout != null) {
+        final Timeout next = timeout.next;
+        if (timeout.remainingRounds <= 0) {
+          remove(timeout);
+          if (timeout.deadline <= deadline) {
+            timeout.expire();
+          }
+          else {
+            // can't happen : the timeout was put in a wrong bucket
+            throw(new IllegalStateException("timeout.deadline ("+timeout.deadline+") > deadline ("+deadline+")"));
+          }
+        }
+        else if (timeout.isDone()) {
+          remove(timeout);
+        }
+        else {
+          --timeout.remainingRounds;
+        }
+        timeout = next;
+      }
+    }
+
+    void remove(final @NonNull Timeout timeout) {
+      if (timeout.bucket != this) {
+        return; // already removed
+      }
+      if (timeout.previous != null) {
+        timeout.previous.next = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.previous = timeout.previous;
+      }
+      if (timeout == head) {
+        head = timeout.next;
+      }
+      if (timeout == tail) {
+        tail = timeout.previous;
+      }
+      timeout.previous = null;
+      timeout.next     = null;
+      timeout.bucket   = null;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.timer;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// adapts an existing ScheduledExecutorService, when timeouts need a precision finer than a wheel tick
+// the executor life cycle is left to the caller
+public final class ScheduledExecutorTimerService implements TimerService {
+  private final @NonNull ScheduledExecutorService executor;
+
+  public ScheduledExecutorTimerService(final @NonNull ScheduledExecutorService executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public @NonNull TimerHandle schedule(final @NonNull Runnable task,
+                                       final          long     delay,
+                                       final @NonNull TimeUnit unit) {
+    final Future<?> future = executor.schedule(task, delay, unit);
+
+    return(new TimerHandle() {
+      @Override
+      public boolean cancel() {
+        return(future.cancel(false) || future.isCancelled());
+      }
+
+      @Override
+      public boolean isDone() {
+        return(future.isDone());
+      }
+    });
+  }
+}
@@ -74,8 +74,8 @@ public abstract class Transition<TState extends Enum<TState> & States, TEvent, T
                       final @NonNull Optional<TLocalContext>                                   sourceContext,
                       final @NonNull Optional<TLocalContext>                                   destinationContext,
                       final @NonNull Optional<TGlobalContext>                                  machineContext) {
-    action.ifPresent(someAction -> {
-      someAction.perform(trigger, transition, sourceContext, destinationContext, machineContext);
-    });
+    if (action.isPresent()) {
+      action.get().perform(trigger, transition, sourceContext, destinationContext, machineContext);
+    }
   }
 }
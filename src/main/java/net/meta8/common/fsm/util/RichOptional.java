@@ -30,29 +30,33 @@ final Optional opt = ...
 ifPresent(opt, (x) -> ...).orElse( () -> ... )
  */
 public abstract class RichOptional {
+  // both outcomes are stateless : share them instead of allocating one per call
+  private static final RichOptional DO_NOTHING   = new OptionalDoNothing();
+  private static final RichOptional DO_SOMETHING = new OptionalDoSomething();
+
   public abstract void orElse(final Runnable runner);
   public abstract void orElseThrow(final Throwable throwable) throws Throwable;
 
   public static <T> RichOptional ifPresent(final Optional<T> opt, final Consumer<? super T> consumer) {
     if (opt.isPresent()) {
       consumer.accept(opt.get());
-      return(new OptionalDoNothing());
+      return(DO_NOTHING);
     }
-    return(new OptionalDoSomething());
+    return(DO_SOMETHING);
   }
 
   public static <T> RichOptional ifPresent(final Optional<T> opt, final Throwable throwable) throws Throwable {
     if (opt.isPresent()) {
       throw(throwable);
     }
-    return(new OptionalDoSomething());
+    return(DO_SOMETHING);
   }
 
   public static <T> RichOptional ifPresent(final Optional<T> opt, final Error error) {
     if (opt.isPresent()) {
       throw(error);
     }
-    return(new OptionalDoSomething());
+    return(DO_SOMETHING);
   }
 
   public static <T, R> R getOrElse(final Optional<T> opt, final Function<? super T, ? extends R> onSome, final R value) {
@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.flow;
+
+import net.meta8.common.fsm.machine.FireResult;
+import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.state.States;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+
+// drives a StateMachine from a Flow.Publisher of events : each event is fired (tryFire) by the thread delivering it, and at most
+// 'batch' events are ever requested ahead, half a batch being requested again each time half a batch was fired. Refused events
+// are counted and skipped, an exception thrown by an action cancels the subscription. completion() tells how the stream ended.
+// Built for Java 11 (src/main/java11, java.util.concurrent.Flow) : the rest of the library never loads it
+public final class MachineSubscriber<TState extends Enum<TState> & States, TEvent, TLocalContext, TGlobalContext> implements Subscriber<TEvent> {
+  private final @NonNull StateMachine<TState, TEvent, TLocalContext, TGlobalContext> machine;
+  private final          int                                                         replenish; // events requested at once, but for the first request
+  private final          int                                                         batch;
+
+  private final @NonNull CompletableFuture<TState> completion = new CompletableFuture<>();
+
+  // written by the delivering thread only : signals are serialized by the publisher
+  private @Nullable Subscription subscription;
+  private           int               received; // since the last request
+  private volatile  long              fired;
+  private volatile  long              refused;
+
+  public MachineSubscriber(final @NonNull StateMachine<TState, TEvent, TLocalContext, TGlobalContext> machine,
+                           final          int                                                         batch) {
+    if (batch <= 0) {
+      throw(new IllegalArgumentException("Batch must be positive : "+batch));
+    }
+    this.machine   = machine;
+    this.batch     = batch;
+    this.replenish = Math.max(1, batch / 2);
+  }
+
+  @Override
+  public void onSubscribe(final @NonNull Subscription subscription) {
+    if (this.subscription != null) {
+      subscription.cancel(); // a subscriber is used once
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(batch);
+  }
+
+  @Override
+  public void onNext(final @NonNull TEvent event) {
+    if (completion.isDone()) {
+      return; // cancelled after a failure, a few events may still be on their way
+    }
+    final FireResult result;
+    try {
+      result = machine.tryFire(event);
+    }
+    catch (final RuntimeException failure) {
+      subscription.cancel();
+      completion.completeExceptionally(failure);
+      return;
+    }
+    if ((result == FireResult.ACCEPTED)||(result == FireResult.DEFERRED)) {
+      ++fired;
+    }
+    else {
+      ++refused;
+    }
+    if (++received == replenish) {
+      received = 0;
+      subscription.request(replenish);
+    }
+  }
+
+  @Override
+  public void onError(final @NonNull Throwable failure) {
+    completion.completeExceptionally(failure);
+  }
+
+  @Override
+  public void onComplete() {
+    completion.complete(machine.getCurrentState());
+  }
+
+  // the state of the machine once the publisher completed, or the failure of the publisher (or of an action)
+  public @NonNull CompletableFuture<TState> completion() {
+    return(completion);
+  }
+
+  // events accepted (or deferred) by the machine
+  public long firedEvents() {
+    return(fired);
+  }
+
+  public long refusedEvents() {
+    return(refused);
+  }
+}
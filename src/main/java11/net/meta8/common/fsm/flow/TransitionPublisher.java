@@ -0,0 +1,255 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+
+package net.meta8.common.fsm.flow;
+
+import net.meta8.common.fsm.listener.TransitionListener;
+import net.meta8.common.fsm.state.States;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// publishes the transitions of the machines of a definition (register it with StateMachineConfigurationDSL.listener) to
+// Flow.Subscriber(s), in batches : each onNext carries the records buffered since the previous one, at most 'maxBatch' of them,
+// so that a slow subscriber gets fewer and larger batches. Each subscriber has its own buffer of 'capacity' records : when it's
+// full the oldest record is dropped (see droppedRecords), the firing thread never waits for a subscriber.
+// Subscribers are signalled on 'executor', one drain task at a time per subscriber.
+// Without subscriber, a transition costs a volatile read. Built for Java 11 (src/main/java11, java.util.concurrent.Flow)
+public final class TransitionPublisher<TState extends Enum<TState> & States, TEvent> implements Publisher<List<TransitionRecord<TState, TEvent>>>, TransitionListener<TState, TEvent>, AutoCloseable {
+  public static final int DEFAULT_CAPACITY  = 1024;
+  public static final int DEFAULT_MAX_BATCH = 256;
+
+  private final @NonNull Executor executor;
+  private final          int      capacity;
+  private final          int      maxBatch;
+
+  private final @NonNull CopyOnWriteArrayList<TransitionSubscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final @NonNull LongAdder                                   dropped       = new LongAdder();
+  private volatile       boolean                                     closed;
+
+  public TransitionPublisher() {
+    this(ForkJoinPool.commonPool(), DEFAULT_CAPACITY, DEFAULT_MAX_BATCH);
+  }
+
+  public TransitionPublisher(final @NonNull Executor executor,
+                             final          int      capacity,
+                             final          int      maxBatch) {
+    if ((capacity <= 0)||(maxBatch <= 0)) {
+      throw(new IllegalArgumentException("Capacity and batch must be positive : "+capacity+", "+maxBatch));
+    }
+    this.executor = executor;
+    this.capacity = capacity;
+    this.maxBatch = maxBatch;
+  }
+
+  @Override
+  public void subscribe(final @NonNull Subscriber<? super List<TransitionRecord<TState, TEvent>>> subscriber) {
+    final TransitionSubscription subscription = new TransitionSubscription(subscriber);
+    subscriptions.add(subscription);
+    subscriber.onSubscribe(subscription);
+    if (closed) {
+      subscription.complete();
+    }
+  }
+
+  @Override
+  public void onTransition(final @NonNull  TState source,
+                           final @NonNull  TState target,
+                           final @Nullable TEvent event,
+                           final           long   guardNanos,
+                           final           long   actionNanos) {
+    if ((closed)||(subscriptions.isEmpty())) {
+      return;
+    }
+    final TransitionRecord<TState, TEvent> record = new TransitionRecord<>(source, target, event);
+    for (final TransitionSubscription subscription : subscriptions) {
+      subscription.offer(record);
+    }
+  }
+
+  // records dropped from the buffers of subscribers which didn't keep up
+  public long droppedRecords() {
+    return(dropped.sum());
+  }
+
+  public int subscriberCount() {
+    return(subscriptions.size());
+  }
+
+  // later transitions are not published any more : subscribers get what's buffered, then onComplete
+  @Override
+  public void close() {
+    closed = true;
+    for (final TransitionSubscription subscription : subscriptions) {
+      subscription.complete();
+    }
+  }
+
+  // =====================================================
+
+  private final class TransitionSubscription implements Subscription, Runnable {
+    private final @NonNull Subscriber<? super List<TransitionRecord<TState, TEvent>>> subscriber;
+
+    // buffered records, oldest first : written by the firing threads, read by the drain task, under the subscription monitor
+    private final @NonNull Object[] records = new Object[capacity];
+    private                int      head;
+    private                int      size;
+
+    private final @NonNull AtomicLong    requested      = new AtomicLong();
+    private final @NonNull AtomicInteger workInProgress = new AtomicInteger(); // a single drain task runs at once, see Mailbox
+    private volatile       boolean       completing;                           // publisher closed : onComplete once the buffer is empty
+    private volatile       boolean       cancelled;
+    private volatile @Nullable Throwable failure;                              // non positive request
+
+    TransitionSubscription(final @NonNull Subscriber<? super List<TransitionRecord<TState, TEvent>>> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    void offer(final @NonNull TransitionRecord<TState, TEvent> record) {
+      synchronized (this) {
+        if (size == records.length) {
+          head = next(head);
+          --size;
+          dropped.increment();
+        }
+        records[slot(size++)] = record;
+      }
+      schedule();
+    }
+
+    void complete() {
+      completing = true;
+      schedule();
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        failure = new IllegalArgumentException("Non positive request : "+n); // rule 3.9
+      }
+      else {
+        long current;
+        do {
+          current = requested.get();
+        } while ((current != Long.MAX_VALUE)&&(! requested.compareAndSet(current, (current + n < 0) ? Long.MAX_VALUE : current + n)));
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      subscriptions.remove(this);
+      synchronized (this) {
+        size = 0;
+      }
+    }
+
+    private void schedule() {
+      if (workInProgress.getAndIncrement() == 0) {
+        try {
+          executor.execute(this);
+        }
+        catch (final RejectedExecutionException refused) {
+          run();
+        }
+      }
+    }
+
+    // deliver batches while there's demand, then the terminal signal if any
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        if (! cancelled) {
+          drain();
+        }
+        missed = workInProgress.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drain() {
+      if (failure != null) {
+        cancel();
+        subscriber.onError(failure);
+        return;
+      }
+      while (requested.get() > 0) {
+        final List<TransitionRecord<TState, TEvent>> batch = poll();
+        if (batch == null) {
+          break;
+        }
+        if (requested.get() != Long.MAX_VALUE) {
+          requested.decrementAndGet();
+        }
+        subscriber.onNext(batch);
+        if (cancelled) {
+          return;
+        }
+      }
+      if (completing) {
+        final boolean empty;
+        synchronized (this) {
+          empty = (size == 0);
+        }
+        if (empty) {
+          cancel();
+          subscriber.onComplete();
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized @Nullable List<TransitionRecord<TState, TEvent>> poll() {
+      if (size == 0) {
+        return(null);
+      }
+      final int                                    count = Math.min(size, maxBatch);
+      final List<TransitionRecord<TState, TEvent>> batch = new ArrayList<>(count);
+      for (int i=0; i<count; ++i) {
+        batch.add((TransitionRecord<TState, TEvent>) records[head]);
+        records[head] = null;
+        head          = next(head);
+      }
+      size -= count;
+      return(batch);
+    }
+
+    private int slot(final int index) {
+      final int slot = head + index;
+      return((slot < records.length) ? slot : slot - records.length);
+    }
+
+    private int next(final int slot) {
+      return((slot + 1 == records.length) ? 0 : slot + 1);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.jfr;
+
+import jdk.jfr.EventType;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// the jdk.jfr backed FlightRecorderSink, built for Java 11 (src/main/java11).
+// Only instantiated by FlightRecorderEvents, by reflection
+final class JfrSink implements FlightRecorderSink {
+  private final @NonNull EventType transition = EventType.getEventType(TransitionEvent.class);
+  private final @NonNull EventType timeout    = EventType.getEventType(TimeoutEvent.class);
+  private final @NonNull EventType rejected   = EventType.getEventType(RejectedTriggerEvent.class);
+
+  JfrSink() {
+  }
+
+  @Override
+  public boolean isTransitionEnabled() {
+    return(transition.isEnabled());
+  }
+
+  @Override
+  public @NonNull Object beginTransition() {
+    final TransitionEvent event = new TransitionEvent();
+    event.begin();
+    return(event);
+  }
+
+  @Override
+  public void commitTransition(final @NonNull  Object  transition,
+                               final @NonNull  Enum<?> source,
+                               final @NonNull  Enum<?> target,
+                               final @Nullable Object  trigger,
+                               final           long    guardNanos) {
+    final TransitionEvent event = (TransitionEvent) transition;
+    event.end();
+    if (event.shouldCommit()) {
+      event.source        = source.name();
+      event.target        = target.name();
+      event.trigger       = (trigger == null) ? null : String.valueOf(trigger);
+      event.guardDuration = guardNanos;
+      event.commit();
+    }
+  }
+
+  @Override
+  public boolean isTimeoutEnabled() {
+    return(timeout.isEnabled());
+  }
+
+  @Override
+  public void timeout(final @NonNull String  action,
+                      final @NonNull Enum<?> state,
+                      final          long    delayMillis) {
+    final TimeoutEvent event = new TimeoutEvent();
+    if (event.shouldCommit()) {
+      event.action = action;
+      event.state  = state.name();
+      event.delay  = delayMillis;
+      event.commit();
+    }
+  }
+
+  @Override
+  public boolean isRejectedEnabled() {
+    return(rejected.isEnabled());
+  }
+
+  @Override
+  public void rejected(final @NonNull  Enum<?> state,
+                       final @Nullable Object  trigger) {
+    final RejectedTriggerEvent event = new RejectedTriggerEvent();
+    if (event.shouldCommit()) {
+      event.state   = state.name();
+      event.trigger = String.valueOf(trigger);
+      event.commit();
+    }
+  }
+}
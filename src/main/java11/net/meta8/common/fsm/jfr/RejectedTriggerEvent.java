@@ -0,0 +1,37 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// an event refused by fire(), right before the UnknownTriggerException is thrown
+@Name("net.meta8.fsm.RejectedTrigger")
+@Label("State Machine Rejected Trigger")
+@Category("State Machine")
+@Description("Event refused by the current state, an UnknownTriggerException is thrown")
+final class RejectedTriggerEvent extends jdk.jfr.Event {
+  @Label("State")
+  String state;
+
+  @Label("Trigger")
+  String trigger;
+}
@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// timeout transitions scheduled, fired or cancelled. One per transition of a state with a timeout : off by default
+@Name("net.meta8.fsm.Timeout")
+@Label("State Machine Timeout")
+@Category("State Machine")
+@Description("Timeout transition scheduled, fired or cancelled")
+@Enabled(false)
+@StackTrace(false)
+final class TimeoutEvent extends jdk.jfr.Event {
+  @Label("Action")
+  @Description("scheduled, fired or cancelled")
+  String action;
+
+  @Label("State")
+  @Description("State of the machine : the one owning the timeout, or the one just entered when a transition cancelled it")
+  String state;
+
+  @Label("Delay")
+  @Description("Delay of a scheduled timeout, 0 otherwise")
+  @Timespan(Timespan.MILLISECONDS)
+  long delay;
+}
@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright 2015 Meta8 SARL (http://meta8.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *   J. R.
+ */
+
+package net.meta8.common.fsm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+// a transition and its actions (transition, exit and entry ones). Recorded by default above 10 ms : slow guards and actions
+@Name("net.meta8.fsm.Transition")
+@Label("State Machine Transition")
+@Category("State Machine")
+@Description("Transition performed, the duration covers the transition, exit and entry actions")
+@Threshold("10 ms")
+final class TransitionEvent extends jdk.jfr.Event {
+  @Label("Source")
+  String source;
+
+  @Label("Target")
+  String target;
+
+  @Label("Trigger")
+  @Description("Event fired, null for a timeout transition")
+  String trigger;
+
+  @Label("Guard Duration")
+  @Description("Time spent in guards before the transition was chosen")
+  @Timespan(Timespan.NANOSECONDS)
+  long guardDuration;
+}
@@ -18,20 +18,74 @@
 
 package net.meta8.common.fsm;
 
+import net.meta8.common.fsm.codec.Codec;
+import net.meta8.common.fsm.codec.Codecs;
+import net.meta8.common.fsm.configuration.MachineDefinition;
+import net.meta8.common.fsm.configuration.StateConfigurationDSL;
 import net.meta8.common.fsm.configuration.StateMachineConfiguration;
 import net.meta8.common.fsm.configuration.StateMachineConfigurationDSL;
+import net.meta8.common.fsm.exception.MailboxFullException;
 import net.meta8.common.fsm.exception.MissingStateConfigurationException;
+import net.meta8.common.fsm.exception.StateConfigurationError;
 import net.meta8.common.fsm.exception.UnknownTriggerException;
+import net.meta8.common.fsm.flow.MachineSubscriber;
+import net.meta8.common.fsm.flow.TransitionPublisher;
+import net.meta8.common.fsm.flow.TransitionRecord;
+import net.meta8.common.fsm.jfr.FlightRecorderEvents;
+import net.meta8.common.fsm.journal.EventJournal;
+import net.meta8.common.fsm.journal.TimeoutStore;
+import net.meta8.common.fsm.listener.LatencyHistogram;
+import net.meta8.common.fsm.listener.TransitionRecorder;
+import net.meta8.common.fsm.machine.ExecutionMode;
+import net.meta8.common.fsm.machine.FireResult;
+import net.meta8.common.fsm.machine.MailboxPolicy;
+import net.meta8.common.fsm.machine.OffHeapStateTable;
+import net.meta8.common.fsm.machine.OverflowPolicy;
+import net.meta8.common.fsm.machine.RegionStateMachine;
+import net.meta8.common.fsm.machine.ShardedMachineExecutor;
 import net.meta8.common.fsm.machine.StateMachine;
+import net.meta8.common.fsm.machine.StateMachineRegistry;
 import net.meta8.common.fsm.state.States;
+import net.meta8.common.fsm.timer.HashedWheelTimerService;
+import net.meta8.common.fsm.timer.TimerHandle;
+import net.meta8.common.fsm.timer.TimerService;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static net.meta8.common.fsm.TestStates.*;
 import static org.junit.Assert.*;
@@ -74,19 +128,64 @@ public class StateMachineTest {
     configuration.state(s1)
                  .when('a').moveTo(s2);
 
-    // s2 is undeclared !
-
-    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+    // s2 is undeclared : targets are checked when the configuration is compiled, not when 'a' is fired
 
     try {
-      final TestStates s = machine.fire('a');
+      new StateMachine<>(TestStates.class, configuration);
       fail("Should not work");
     }
     catch(final MissingStateConfigurationException e) {
       // expected
     }
-    catch (UnknownTriggerException unknownTrigger) {
-      fail("Should not throw a UnknownTriggerException");
+  }
+
+  @Test
+  public void machineDefinitionTest() throws UnknownTriggerException, MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, AtomicInteger> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.of(new AtomicInteger()), Optional.of(context -> new AtomicInteger(context.get())));
+    final AtomicInteger                                                         exitEntries   = new AtomicInteger();
+
+    final StateConfigurationDSL<TestStates, Character, Void, AtomicInteger> state1 = configuration.state(s1);
+    state1.onExit((event, transition, sourceContext, destinationContext, machineContext) -> exitEntries.incrementAndGet())
+          .when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> machineContext.get().incrementAndGet());
+
+    configuration.state(s2)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> exitEntries.addAndGet(10))
+                 .when('b').moveTo(s1);
+
+    final MachineDefinition<TestStates, Character, Void, AtomicInteger> definition = configuration.compile();
+
+    // changes made after compilation only reach later definitions
+    state1.when('c').moveTo(s2);
+
+    final StateMachine<TestStates, Character, Void, AtomicInteger> machine1 = new StateMachine<>(definition);
+    final StateMachine<TestStates, Character, Void, AtomicInteger> machine2 = new StateMachine<>(definition);
+
+    assertEquals(s2, machine1.fire('a'));
+    assertEquals(11, exitEntries.get()); // exit s1 then entry s2
+    assertEquals(s1, machine1.fire('b'));
+    assertEquals(FireResult.REJECTED, machine1.tryFire('c'));
+    assertEquals(s1, machine2.getCurrentState());
+    assertEquals(s2, new StateMachine<>(configuration.compile()).fire('c'));
+
+    // compiled again only after a change through the DSL
+    final MachineDefinition<TestStates, Character, Void, AtomicInteger> compiled = configuration.compile();
+    assertNotSame(definition, compiled);
+    assertSame(compiled, configuration.compile());
+    state1.when('d').stay();
+    assertNotSame(compiled, configuration.compile());
+    assertEquals(s1, new StateMachine<>(TestStates.class, configuration).fire('d'));
+
+    // the DSL doesn't see a sequence declared after a guarded 'when' on the same trigger, compilation does
+    final StateMachineConfiguration<TestStates, Character, Void, Void> conflicting = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    conflicting.state(s1)
+               .when('b').stayIf((event, transition, sourceContext, destinationContext, machineContext) -> true)
+               .acceptSequence('a', 'b');
+    try {
+      conflicting.compile();
+      fail("Should not work");
+    }
+    catch (final StateConfigurationError e) {
+      // expected
     }
   }
 
@@ -452,112 +551,2084 @@ public class StateMachineTest {
   }
 
   @Test
-  public void timeoutTransitionTest() throws UnknownTriggerException, MissingStateConfigurationException, InterruptedException {
-    {
-      final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
-      final AtomicLong count = new AtomicLong();
+  public void enumEventTest() throws UnknownTriggerException, MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, TestEvents, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
 
-      configuration.state(s1)
-                   .onEntry((character, transition, sourceContext, destinationContext, machineContext) -> count.incrementAndGet())
-                   .moveAfter(Duration.ofMillis(1000), s1);
+    configuration.state(s1)
+                 .when(TestEvents.a).moveTo(s2)
+                 .when(TestEvents.b).moveToIf(s3, (event, transition, sourceContext, destinationContext, machineContext) -> false)
+                 .when(TestEvents.b).moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> true)
+                 .other().stay();
 
-      final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+    configuration.state(s2)
+                 .when(TestEvents.c).moveTo(s1);
 
-      assertEquals(1, count.intValue());
+    configuration.state(s3);
 
-      Thread.sleep(3500);
+    final StateMachine<TestStates, TestEvents, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
 
-      assertEquals(s1, machine.getCurrentState());
-      assertEquals(4, count.intValue());
+    assertEquals(s2, machine.fire(TestEvents.b));
+    assertEquals(s1, machine.fire(TestEvents.c));
+    assertEquals(s1, machine.fire(TestEvents.d));
+    assertEquals(s2, machine.fire(TestEvents.a));
 
-      machine.close();
+    try {
+      machine.fire(TestEvents.a);
+      fail("Should not work");
     }
-    System.out.println("------------------");
-    {
-      final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    catch(final UnknownTriggerException e) {
+      // expected
+    }
+  }
 
-      configuration.state(s1)
-                   .moveAfter(Duration.ofMillis(3000), s2);
+  @Test
+  public void intEventTest() throws UnknownTriggerException, MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Integer, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
 
-      configuration.state(s2);
+    final AtomicInteger lastEvent = new AtomicInteger();
 
-      final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+    configuration.state(s1)
+                 .acceptSequence(1000, 1001)
+                 .when(1).moveTo(s2)
+                 .when(2).moveToIf(s3, (event, transition, sourceContext, destinationContext, machineContext) -> false)
+                 .when(2).moveToIf(s2, (event, transition, sourceContext, destinationContext, machineContext) -> true,
+                                       (event, transition, sourceContext, destinationContext, machineContext) -> lastEvent.set(event));
 
-      Thread.sleep(4000);
+    configuration.state(s2)
+                 .when(3).moveTo(s1)
+                 .other().moveTo(s3);
 
-      assertEquals(s2, machine.getCurrentState());
+    configuration.state(s3);
+
+    final StateMachine<TestStates, Integer, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+
+    assertEquals(s1, machine.fireInt(1000));
+    assertEquals(s1, machine.fireInt(1001));
+    assertEquals(s2, machine.fireInt(2));
+    assertEquals(2, lastEvent.get());
+    assertEquals(s1, machine.fireInt(3));
+    assertEquals(s2, machine.fireInt(1));
+    assertEquals(s3, machine.fireInt(1)); // other()
+
+    try {
+      machine.fireInt(4);
+      fail("Should not work");
+    }
+    catch(final UnknownTriggerException e) {
+      // expected
     }
   }
 
-  @Ignore
   @Test
-  public void timeoutTransitionWithoutExitEntryTest() throws MissingStateConfigurationException {
+  public void tryFireTest() throws MissingStateConfigurationException {
     final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicInteger                                                actions       = new AtomicInteger();
+
+    configuration.state(s1)
+                 .onExit((event, transition, sourceContext, destinationContext, machineContext) -> actions.incrementAndGet())
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2);
+
+    configuration.state(s2)
+                 .when('b').moveTo(s1);
+
     final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+
+    assertEquals(FireResult.REJECTED, machine.tryFire('z'));
+    assertEquals(FireResult.SEQUENCE_BROKEN, machine.tryFire('y'));
+    assertEquals(s1, machine.getCurrentState());
+    assertEquals(0, actions.get()); // nothing performed for a refused event
+    assertEquals(FireResult.SEQUENCE_BROKEN, machine.tryFire('x')); // the broken sequence stays broken in s1
+
+    assertEquals(FireResult.ACCEPTED, machine.tryFire('a'));
+    assertEquals(s2, machine.getCurrentState());
+    assertEquals(1, actions.get());
+
+    assertEquals(FireResult.REJECTED, machine.tryFire('a'));
+    assertEquals(s2, machine.getCurrentState());
+
+    // throwing flavour still reports the same refusals
+    try {
+      machine.fire('a');
+      fail("Should not work");
+    }
+    catch (final UnknownTriggerException unknownTrigger) {
+      assertEquals(0, unknownTrigger.getStackTrace().length); // stackless
+    }
   }
 
-  @Ignore
   @Test
-  public void timeoutTransitionWithExitEntryTest() throws MissingStateConfigurationException {
+  public void fireAllTest() throws MissingStateConfigurationException {
     final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
-    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+
+    configuration.state(s1)
+                 .moveAfter(Duration.ofHours(1), s3)
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2);
+
+    configuration.state(s2)
+                 .moveAfter(Duration.ofHours(1), s3)
+                 .when('b').moveTo(s1);
+
+    configuration.state(s3);
+
+    // counts timeouts armed, never runs them
+    final AtomicInteger scheduled = new AtomicInteger();
+    final TimerService  timer     = (task, delay, unit) -> {
+      scheduled.incrementAndGet();
+      return(new TimerHandle() {
+        @Override
+        public boolean cancel() {
+          return(true);
+        }
+
+        @Override
+        public boolean isDone() {
+          return(false);
+        }
+      });
+    };
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(configuration.compile(), timer);
+    assertEquals(1, scheduled.get());
+
+    // a single timeout armed for the whole batch
+    assertEquals(6, machine.fireAll('x', 'y', 'a', 'b', 'a', 'b'));
+    assertEquals(s1, machine.getCurrentState());
+    assertEquals(2, scheduled.get());
+
+    // stops on the refused event, the ones before are fired
+    assertEquals(1, machine.fireAll(Arrays.asList('a', 'a', 'b')));
+    assertEquals(s2, machine.getCurrentState());
+    assertEquals(3, scheduled.get());
+
+    assertEquals(0, machine.fireAll('x', 'b'));
+    assertEquals(s2, machine.getCurrentState());
+    assertEquals(3, scheduled.get());
+
+    assertEquals(0, machine.fireAll());
   }
 
-  @Ignore
   @Test
-  public void multipleStateMachineTest() throws MissingStateConfigurationException {
+  public void fireAllThrowingTest() throws MissingStateConfigurationException, InterruptedException {
     final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
-    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+
+    configuration.state(s1)
+                 .when('x').moveTo(s2)
+                 .moveAfter(Duration.ofMillis(200), s3);
+    configuration.state(s2)
+                 .when('y').stay((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   throw(new IllegalStateException("halfway"));
+                 })
+                 .moveAfter(Duration.ofSeconds(10), s3);
+    configuration.state(s3);
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(configuration.compile(), HashedWheelTimerService.shared());
+    try {
+      machine.fireAll('x', 'y');
+      fail("Should not work");
+    }
+    catch (final IllegalStateException expected) {
+      assertEquals("halfway", expected.getMessage());
+    }
+    assertEquals(s2, machine.getCurrentState());
+
+    // the timeout of s1 was superseded by the transition to s2, whose own timeout is armed
+    Thread.sleep(400);
+    assertEquals(s2, machine.getCurrentState());
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    machine.snapshot(buffer);
+    assertTrue(buffer.getLong(8) - System.currentTimeMillis() > 5000);
+    machine.close();
   }
 
   @Test
-  public void simpleExample() throws UnknownTriggerException, MissingStateConfigurationException {
-    final StateMachineConfigurationDSL<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+  public void fireAsyncTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicBoolean                                                running       = new AtomicBoolean();
+    final AtomicInteger                                                overlaps      = new AtomicInteger();
+    final AtomicInteger                                                fired         = new AtomicInteger();
 
     configuration.state(s1)
-                 .onEntryIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
-                            (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onEntry s1"))
-                 .onExitIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
-                           (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onExit s1"))
-                 .when('a').moveToIf(s2,
-                                     (character, transition, sourceContext, destinationContext, machineContext) -> true,
-                                     (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("moveTo to s2"))
+                 .when('a').stay((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   // a machine is never run by two threads at once
+                   if (! running.compareAndSet(false, true)) {
+                     overlaps.incrementAndGet();
+                   }
+                   fired.incrementAndGet();
+                   running.set(false);
+                 })
                  .when('b').moveTo(s2);
 
+    configuration.state(s2);
+
+    final StateMachine<TestStates, Character, Void, Void> machine  = new StateMachine<>(configuration.compile());
+    final ExecutorService                                 executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Thread>                        producers = new ArrayList<>();
+      final List<CompletableFuture<TestStates>> futures   = new ArrayList<>();
+      for (int i=0; i<4; ++i) {
+        final List<CompletableFuture<TestStates>> producerFutures = new ArrayList<>();
+        producers.add(new Thread(() -> {
+          for (int j=0; j<10_000; ++j) {
+            producerFutures.add(machine.fireAsync('a', executor));
+          }
+          synchronized (futures) {
+            futures.addAll(producerFutures);
+          }
+        }));
+      }
+      producers.forEach(Thread::start);
+      for (final Thread producer : producers) {
+        producer.join();
+      }
+
+      for (final CompletableFuture<TestStates> future : futures) {
+        assertEquals(s1, future.get());
+      }
+      assertEquals(40_000, fired.get());
+      assertEquals(0, overlaps.get());
+
+      // events are fired in arrival order, an unknown one completes its future exceptionally
+      final CompletableFuture<TestStates> moved   = machine.fireAsync('b', executor);
+      final CompletableFuture<TestStates> refused = machine.fireAsync('a', executor);
+      assertEquals(s2, moved.get());
+      try {
+        refused.get();
+        fail("Should not work");
+      }
+      catch (final ExecutionException unknownTrigger) {
+        assertTrue(unknownTrigger.getCause() instanceof UnknownTriggerException);
+      }
+      assertEquals(s2, machine.getCurrentState());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void boundedMailboxTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .when('a', 'b', 'c').stay();
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    // drain tasks only run when the test says so
+    final ConcurrentLinkedQueue<Runnable> scheduled = new ConcurrentLinkedQueue<>();
+    final Executor                        executor  = scheduled::add;
+
+    for (final OverflowPolicy overflow : OverflowPolicy.values()) {
+      final MailboxPolicy                                   policy  = new MailboxPolicy(2, overflow);
+      final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(definition, HashedWheelTimerService.shared(), ExecutionMode.PLATFORM_THREADS, policy);
+      final StateMachine<TestStates, Character, Void, Void> other   = new StateMachine<>(definition, HashedWheelTimerService.shared(), ExecutionMode.PLATFORM_THREADS, policy);
+
+      final CompletableFuture<TestStates> first  = machine.fireAsync('a', executor);
+      final CompletableFuture<TestStates> second = machine.fireAsync('b', executor);
+      final CompletableFuture<TestStates> pending = other.fireAsync('c', executor);
+      assertEquals(2, machine.mailboxDepth());
+      assertEquals(3, policy.queuedEvents());
+
+      CompletableFuture<TestStates> third = null;
+      switch (overflow) {
+        case BLOCK:
+          final AtomicReference<CompletableFuture<TestStates>> blocked  = new AtomicReference<>();
+          final Thread                                         producer = new Thread(() -> blocked.set(machine.fireAsync('c', executor)));
+          producer.start();
+          producer.join(100);
+          assertTrue(producer.isAlive());
+          Runnable task;
+          while ((task = scheduled.poll()) != null) {
+            task.run();
+          }
+          producer.join();
+          third = blocked.get();
+          break;
+        case DROP_NEWEST:
+          third = machine.fireAsync('c', executor);
+          assertTrue(third.isCancelled());
+          assertEquals(1, policy.droppedEvents());
+          break;
+        case DROP_OLDEST:
+          third = machine.fireAsync('c', executor);
+          assertTrue(first.isCancelled());
+          assertEquals(1, policy.droppedEvents());
+          break;
+        case COALESCE:
+          assertSame(first, machine.fireAsync('a', executor));
+          assertEquals(1, policy.coalescedEvents());
+          assertSame(pending, other.fireAsync('c', executor)); // merged before the mailbox is full too
+          assertEquals(2, policy.coalescedEvents());
+          third = machine.fireAsync('c', executor);
+          assertTrue(third.isCompletedExceptionally());
+          break;
+        case REJECT:
+          third = machine.fireAsync('c', executor);
+          try {
+            third.get();
+            fail("Should not work");
+          }
+          catch (final ExecutionException full) {
+            assertTrue(full.getCause() instanceof MailboxFullException);
+          }
+          assertEquals(1, policy.rejectedEvents());
+          break;
+      }
+
+      Runnable task;
+      while ((task = scheduled.poll()) != null) {
+        task.run();
+      }
+      assertEquals(0, machine.mailboxDepth());
+      assertEquals(0, policy.queuedEvents());
+      assertEquals(s1, second.get());
+      assertTrue(third.isDone());
+    }
+  }
+
+  @Test
+  public void mailboxErrorTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException, TimeoutException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    configuration.state(s1)
+                 .when('e').stay((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   throw(new AssertionError("fatal"));
+                 })
+                 .when('a').moveTo(s2);
+    configuration.state(s2);
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    // an Error escaping the consumer must not leave the mailbox scheduled forever
+    final List<StateMachine<TestStates, Character, Void, Void>> machines = Arrays.asList(new StateMachine<>(definition, HashedWheelTimerService.shared()),
+                                                                                      new StateMachine<>(definition, HashedWheelTimerService.shared(), ExecutionMode.PLATFORM_THREADS, new MailboxPolicy(2, OverflowPolicy.REJECT)));
+    for (final StateMachine<TestStates, Character, Void, Void> machine : machines) {
+      try {
+        machine.fireAsync('e', Runnable::run);
+        fail("Should not work");
+      }
+      catch (final AssertionError expected) {
+        assertEquals("fatal", expected.getMessage());
+      }
+      assertEquals(s2, machine.fireAsync('a', Runnable::run).get(5, TimeUnit.SECONDS));
+    }
+
+    // nor leave its future pending, on the executor fireAsync defaults to
+    final List<StateMachine<TestStates, Character, Void, Void>> others = Arrays.asList(new StateMachine<>(definition, HashedWheelTimerService.shared()),
+                                                                                    new StateMachine<>(definition, HashedWheelTimerService.shared(), ExecutionMode.PLATFORM_THREADS, new MailboxPolicy(2, OverflowPolicy.REJECT)));
+    for (final StateMachine<TestStates, Character, Void, Void> machine : others) {
+      try {
+        machine.fireAsync('e').get(5, TimeUnit.SECONDS);
+        fail("Should not work");
+      }
+      catch (final ExecutionException expected) {
+        assertTrue(expected.getCause() instanceof AssertionError);
+        assertEquals("fatal", expected.getCause().getMessage());
+      }
+      assertEquals(s2, machine.fireAsync('a').get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void flowTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final TransitionPublisher<TestStates, Character>                    publisher     = new TransitionPublisher<>(Runnable::run, 4, 3);
+    configuration.listener(publisher);
+    configuration.state(s1)
+                 .when('a').moveTo(s2);
     configuration.state(s2)
-                 .onEntryIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
-                            (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onEntry s2"))
-                 .onExitIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
-                           (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onExit S2"))
-                 .when('c').moveTo(s3);
+                 .when('b').moveTo(s1);
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    // demand : 4 events ahead, 2 more each time 2 were fired
+    final StateMachine<TestStates, Character, Void, Void>      machine    = new StateMachine<>(definition);
+    final MachineSubscriber<TestStates, Character, Void, Void> subscriber = new MachineSubscriber<>(machine, 4);
+    final List<Long>                                           requests   = new ArrayList<>();
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(final long n) {
+        requests.add(n);
+      }
 
-    configuration.state(s3)
-                 .onEntry((character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onEntry S3"))
-                 .onExit((character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onExit S3"))
-                 .when('c').moveTo(s3)
-                 .when('d').stay();
+      @Override
+      public void cancel() {
+      }
+    });
+    assertEquals(Collections.singletonList(4L), requests);
+    subscriber.onNext('a');
+    subscriber.onNext('z');
+    assertEquals(Arrays.asList(4L, 2L), requests);
+    subscriber.onNext('b');
+    subscriber.onComplete();
+    assertEquals(s1, subscriber.completion().get());
+    assertEquals(2, subscriber.firedEvents());
+    assertEquals(1, subscriber.refusedEvents());
+
+    // batches of the transitions buffered while there was no demand, the oldest ones dropped past 4
+    final List<List<TransitionRecord<TestStates, Character>>> batches      = new ArrayList<>();
+    final AtomicReference<Flow.Subscription>                  subscription = new AtomicReference<>();
+    final AtomicBoolean                                       completed    = new AtomicBoolean();
+    publisher.subscribe(new Flow.Subscriber<List<TransitionRecord<TestStates, Character>>>() {
+      @Override
+      public void onSubscribe(final Flow.Subscription someSubscription) {
+        subscription.set(someSubscription);
+      }
 
-    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+      @Override
+      public void onNext(final List<TransitionRecord<TestStates, Character>> batch) {
+        batches.add(batch);
+      }
 
-    TestStates s = TestStates.s1;
-    System.out.println("From "+s.name()+" - fire 'a'");
-    s = machine.fire('a');
-    System.out.println("Now : "+s.name());
+      @Override
+      public void onError(final Throwable failure) {
+      }
 
-    System.out.println("From "+s.name()+" - fire 'c'");
-    s = machine.fire('c');
-    System.out.println("Now : "+s.name());
+      @Override
+      public void onComplete() {
+        completed.set(true);
+      }
+    });
+    for (int i=0; i<3; ++i) {
+      machine.fire('a');
+      machine.fire('b');
+    }
+    assertTrue(batches.isEmpty());
+    assertEquals(2, publisher.droppedRecords());
+
+    subscription.get().request(1);
+    assertEquals(1, batches.size());
+    assertEquals(3, batches.get(0).size());
+    assertEquals("s1 --a--> s2", batches.get(0).get(0).toString());
+
+    machine.fire('a');
+    publisher.close();
+    assertFalse(completed.get());
+    subscription.get().request(Long.MAX_VALUE);
+    assertEquals(2, batches.get(1).size());
+    assertEquals('a', (char) batches.get(1).get(1).event);
+    assertTrue(completed.get());
+    assertEquals(0, publisher.subscriberCount());
+
+    // a JDK publisher driving a machine
+    final StateMachine<TestStates, Character, Void, Void>      driven           = new StateMachine<>(definition);
+    final MachineSubscriber<TestStates, Character, Void, Void> drivenSubscriber = new MachineSubscriber<>(driven, 16);
+    try (final SubmissionPublisher<Character> events = new SubmissionPublisher<>()) {
+      events.subscribe(drivenSubscriber);
+      for (int i=0; i<1000; ++i) {
+        events.submit('a');
+        events.submit('b');
+      }
+    }
+    assertEquals(s1, drivenSubscriber.completion().get());
+    assertEquals(2000, drivenSubscriber.firedEvents());
+  }
 
-    System.out.println("From "+s.name()+" - fire 'd'");
-    s = machine.fire('d');
-    System.out.println("Now : "+s.name());
+  @Test
+  public void virtualThreadsModeTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicInteger                                                onPlatform    = new AtomicInteger();
 
-    System.out.println("From "+s.name()+" - fire 'c'");
-    s = machine.fire('c');
-    System.out.println("Now : "+s.name());
+    configuration.state(s1)
+                 .when('a').moveTo(s2);
+
+    // a blocking action (eg. JDBC), then a timeout transition whose action must not run on the timer thread
+    configuration.state(s2)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   try {
+                     Thread.sleep(200);
+                   }
+                   catch (final InterruptedException interrupted) {
+                     Thread.currentThread().interrupt();
+                   }
+                 })
+                 .moveAfter(Duration.ofMillis(50), s3, (event, transition, sourceContext, destinationContext, machineContext) -> {
+                   if (! isVirtual(Thread.currentThread())) {
+                     onPlatform.incrementAndGet();
+                   }
+                 });
+
+    configuration.state(s3);
+
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+    final List<StateMachine<TestStates, Character, Void, Void>> machines  = new ArrayList<>();
+    try {
+      for (int i=0; i<1000; ++i) {
+        machines.add(new StateMachine<>(definition, HashedWheelTimerService.shared(), ExecutionMode.VIRTUAL_THREADS));
+      }
+    }
+    catch (final UnsupportedOperationException beforeJava21) {
+      Assume.assumeNoException(beforeJava21);
+    }
+
+    // 1000 machines blocked at once : sequentially, it would take 200 s
+    final long                                start   = System.nanoTime();
+    final List<CompletableFuture<TestStates>> futures = new ArrayList<>();
+    for (final StateMachine<TestStates, Character, Void, Void> machine : machines) {
+      futures.add(machine.fireAsync('a'));
+    }
+    for (final CompletableFuture<TestStates> future : futures) {
+      assertEquals(s2, future.get());
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(20));
+
+    Thread.sleep(500);
+    for (final StateMachine<TestStates, Character, Void, Void> machine : machines) {
+      assertEquals(s3, machine.getCurrentState());
+    }
+    assertEquals(0, onPlatform.get());
+
+    // the registry lock doesn't pin either, its timeouts run on virtual threads too
+    try (final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, HashedWheelTimerService.shared(), 16, ExecutionMode.VIRTUAL_THREADS)) {
+      registry.create(1);
+      assertEquals(s2, registry.fire(1, 'a'));
+      Thread.sleep(500);
+      assertEquals(s3, registry.get(1));
+      assertEquals(0, onPlatform.get());
+    }
   }
-}
 
-enum TestStates implements States {
-  s1, s2, s3
+  private static boolean isVirtual(final Thread thread) {
+    try {
+      return((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+    }
+    catch (final ReflectiveOperationException beforeJava21) {
+      return(false);
+    }
+  }
+
+  @Test
+  public void registryTest() throws UnknownTriggerException, MissingStateConfigurationException, InterruptedException {
+    try (final HashedWheelTimerService timer = new HashedWheelTimerService(Duration.ofMillis(1), 64, Thread::new)) {
+      final StateMachineConfiguration<TestStates, Character, AtomicInteger, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+      configuration.state(s1)
+                   .initialContext(new AtomicInteger(), context -> new AtomicInteger(context.get()))
+                   .acceptSequence((event, transition, sourceContext, destinationContext, machineContext) -> sourceContext.get().incrementAndGet(), 'x', 'y')
+                   .when('a').moveTo(s2)
+                   .when('z').stay();
+
+      configuration.state(s2)
+                   .moveAfter(Duration.ofMillis(100), s3)
+                   .when('b').moveTo(s1);
+
+      configuration.state(s3);
+
+      final StateMachineRegistry<TestStates, Character, AtomicInteger, Void> registry = new StateMachineRegistry<>(configuration.compile(), timer, 16);
+
+      // more machines than the initial capacity
+      for (long id=0; id<1000; ++id) {
+        assertEquals(s1, registry.create(id * 1_000_000_007L));
+      }
+      assertEquals(1000, registry.size());
+      assertNull(registry.get(42));
+
+      final long id = 7 * 1_000_000_007L;
+
+      // sequence index is kept per machine
+      assertEquals(s1, registry.fire(id, 'x'));
+      assertEquals(FireResult.REJECTED, registry.tryFire(0, 'b'));
+      assertEquals(FireResult.SEQUENCE_BROKEN, registry.tryFire(0, 'y'));
+      assertEquals(s1, registry.fire(id, 'y'));
+      assertEquals(FireResult.ACCEPTED, registry.tryFire(id, 'z'));
+
+      // timeout transition of a single machine, the others don't move
+      assertEquals(s2, registry.fire(id, 'a'));
+      assertEquals(s2, registry.fire(0, 'a'));
+      assertTrue(registry.remove(0));
+      assertFalse(registry.remove(0));
+      assertEquals(1, timer.pendingTimeouts());
+
+      Thread.sleep(300);
+
+      assertEquals(s3, registry.get(id));
+      assertEquals(s1, registry.get(8 * 1_000_000_007L));
+      assertNull(registry.get(0));
+      assertEquals(999, registry.size());
+
+      // a released slot is reused with fresh contexts
+      assertEquals(s1, registry.create(0));
+      assertEquals(s1, registry.fire(0, 'x'));
+      assertEquals(s1, registry.fire(0, 'y'));
+
+      try {
+        registry.fire(0, 'b');
+        fail("Should not work");
+      }
+      catch (final UnknownTriggerException unknownTrigger) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void offHeapStateTableTest() throws UnknownTriggerException, MissingStateConfigurationException, IOException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicInteger                                                entries       = new AtomicInteger();
+
+    configuration.state(s1)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> entries.incrementAndGet())
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2);
+
+    configuration.state(s2)
+                 .when('b').moveTo(s1);
+
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    try (final OffHeapStateTable<TestStates, Character> table = OffHeapStateTable.allocate(definition, 1000)) {
+      assertNull(table.get(999));
+      assertEquals(s1, table.create(999));
+      assertEquals(1, entries.get()); // initial entry actions
+
+      assertEquals(s1, table.create(0));
+      assertEquals(FireResult.SEQUENCE_BROKEN, table.tryFire(0, 'y'));
+
+      assertEquals(s1, table.fire(999, 'x'));
+      assertEquals(s1, table.fire(999, 'y'));
+      assertEquals(s2, table.fire(999, 'a'));
+      assertEquals(FireResult.REJECTED, table.tryFire(999, 'a'));
+
+      assertTrue(table.remove(999));
+      assertNull(table.get(999));
+      assertFalse(table.remove(999));
+      try {
+        table.fire(999, 'a');
+        fail("Should not work");
+      }
+      catch (final IllegalArgumentException unknownMachine) {
+        // expected
+      }
+      try {
+        table.create(1000);
+        fail("Should not work");
+      }
+      catch (final IndexOutOfBoundsException outOfBounds) {
+        // expected
+      }
+    }
+
+    // a file backed table is reloaded as it was left, sequence indexes included
+    final Path file = Files.createTempFile("states", ".table");
+    try {
+      try (final OffHeapStateTable<TestStates, Character> table = OffHeapStateTable.open(definition, file, 100)) {
+        table.create(0);
+        table.create(1);
+        table.fire(0, 'a');
+        table.fire(1, 'x');
+      }
+      try (final OffHeapStateTable<TestStates, Character> table = OffHeapStateTable.open(definition, file, 100)) {
+        assertEquals(s2, table.get(0));
+        assertEquals(s1, table.fire(1, 'y'));
+        assertNull(table.get(2));
+      }
+      try {
+        OffHeapStateTable.open(definition, file, 200);
+        fail("Should not work");
+      }
+      catch (final IOException otherCapacity) {
+        // expected
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+
+    // timeouts would need on heap timers
+    configuration.state(s2).moveAfter(Duration.ofSeconds(1), s1);
+    try {
+      OffHeapStateTable.allocate(configuration.compile(), 10);
+      fail("Should not work");
+    }
+    catch (final IllegalArgumentException timeout) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shardedExecutorTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicInteger                                                offShard      = new AtomicInteger();
+    final AtomicInteger                                                timeouts      = new AtomicInteger();
+
+    configuration.state(s1)
+                 .when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> {
+                   if (! Thread.currentThread().getName().startsWith("fsm-shard-")) {
+                     offShard.incrementAndGet();
+                   }
+                 });
+
+    // timeout transitions are run by the shard thread too (long enough for the setup below to beat it)
+    configuration.state(s2)
+                 .moveAfter(Duration.ofMillis(500), s3, (event, transition, sourceContext, destinationContext, machineContext) -> {
+                   if (! Thread.currentThread().getName().startsWith("fsm-shard-")) {
+                     offShard.incrementAndGet();
+                   }
+                   timeouts.incrementAndGet();
+                 })
+                 .when('b').moveTo(s1);
+
+    configuration.state(s3);
+
+    final ShardedMachineExecutor<TestStates, Character, Void, Void> executor = new ShardedMachineExecutor<>(configuration.compile(), 4);
+    try {
+      for (long key=0; key<1000; ++key) {
+        executor.create(key);
+      }
+      for (long key=0; key<1000; ++key) {
+        executor.send(key, 'a');
+      }
+      for (long key=0; key<999; ++key) {
+        executor.send(key, 'b');
+      }
+      executor.flush().get();
+
+      assertEquals(s1, executor.get(0).get());
+      assertEquals(s2, executor.get(999).get());
+      assertNull(executor.get(1000).get());
+      assertEquals(FireResult.REJECTED, executor.tryFire(0, 'b').get());
+      assertEquals(s2, executor.fire(0, 'a').get());
+
+      try {
+        executor.fire(0, 'a').get();
+        fail("Should not work");
+      }
+      catch (final ExecutionException unknownTrigger) {
+        assertTrue(unknownTrigger.getCause() instanceof UnknownTriggerException);
+      }
+      try {
+        executor.create(0).get();
+        fail("Should not work");
+      }
+      catch (final ExecutionException duplicate) {
+        assertTrue(duplicate.getCause() instanceof IllegalArgumentException);
+      }
+
+      assertTrue(executor.remove(999).get());
+      Thread.sleep(1000);
+
+      assertEquals(s3, executor.get(0).get());
+      assertEquals(1, timeouts.get());
+      assertEquals(0, offShard.get());
+    }
+    finally {
+      executor.close();
+    }
+
+    try {
+      executor.send(0, 'b');
+      fail("Should not work");
+    }
+    catch (final IllegalStateException closed) {
+      // expected
+    }
+
+    // commands racing with close() complete one way or the other, none is left pending
+    for (int round=0; round<50; ++round) {
+      final ShardedMachineExecutor<TestStates, Character, Void, Void> racing  = new ShardedMachineExecutor<>(configuration.compile(), 1);
+      final List<CompletableFuture<TestStates>>                       futures = Collections.synchronizedList(new ArrayList<>());
+      final Thread                                                    client  = new Thread(() -> {
+        try {
+          for (long key=0; ; ++key) {
+            futures.add(racing.create(key));
+          }
+        }
+        catch (final IllegalStateException closed) {
+          // expected
+        }
+      });
+      client.start();
+      Thread.sleep(1);
+      racing.close();
+      client.join();
+      for (final CompletableFuture<TestStates> future : new ArrayList<>(futures)) {
+        try {
+          assertEquals(s1, future.get(5, TimeUnit.SECONDS));
+        }
+        catch (final ExecutionException closed) {
+          assertTrue(closed.getCause() instanceof IllegalStateException);
+        }
+        catch (final TimeoutException pending) {
+          fail("Command left pending by close()");
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fireAllocationTest() throws UnknownTriggerException, MissingStateConfigurationException {
+    final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicLong count = new AtomicLong();
+
+    configuration.state(s1)
+                 .onEntry((character, transition, sourceContext, destinationContext, machineContext) -> count.incrementAndGet())
+                 .onExitIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
+                           (character, transition, sourceContext, destinationContext, machineContext) -> count.incrementAndGet())
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2, (character, transition, sourceContext, destinationContext, machineContext) -> count.incrementAndGet())
+                 .when('b').moveToIf(s2, (character, transition, sourceContext, destinationContext, machineContext) -> true)
+                 .other().stay((character, transition, sourceContext, destinationContext, machineContext) -> count.incrementAndGet());
+
+    configuration.state(s2)
+                 .onEntry((character, transition, sourceContext, destinationContext, machineContext) -> count.incrementAndGet())
+                 .when('c').moveTo(s1);
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+    final Character[] events = {'x', 'y', 'a', 'c', 'b', 'c', 'z'};
+
+    // warm up
+    for (int i=0; i<10_000; ++i) {
+      for (final Character event : events) {
+        machine.fire(event);
+      }
+    }
+
+    final long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    for (int i=0; i<10_000; ++i) {
+      for (int j=0; j<events.length; ++j) {
+        machine.fire(events[j]);
+      }
+    }
+    final long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+    // 70000 fire() : anything left is measurement noise, not a per call allocation
+    assertTrue("fire() allocated "+allocated+" bytes", allocated < 1024);
+  }
+
+  @Test
+  public void transitionListenerTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .when('a').moveTo(s2);
+
+    configuration.state(s2)
+                 .moveAfter(Duration.ofHours(1), s1)
+                 .when('b').moveToIf(s3, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+
+    configuration.state(s3);
+
+    // compiled before any listener : not reported
+    final MachineDefinition<TestStates, Character, Void, Void> unobserved = configuration.compile();
+
+    final TransitionRecorder<TestStates, Character> recorder = new TransitionRecorder<>(TestStates.class);
+    final List<String>                              seen     = new ArrayList<>();
+    configuration.listener(recorder)
+                 .listener((source, target, event, guardNanos, actionNanos) -> seen.add(source + "-" + event + "-" + target));
+
+    // keeps the last timeout task, run by hand
+    final AtomicReference<Runnable> timeout = new AtomicReference<>();
+    final TimerService              timer   = (task, delay, unit) -> {
+      timeout.set(task);
+      return(new TimerHandle() {
+        @Override
+        public boolean cancel() {
+          return(true);
+        }
+
+        @Override
+        public boolean isDone() {
+          return(false);
+        }
+      });
+    };
+
+    new StateMachine<>(unobserved, timer).fire('a');
+    assertTrue(seen.isEmpty());
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(configuration.compile(), timer);
+    machine.fire('a');
+    timeout.get().run();
+    machine.fire('a');
+    machine.fire('b');
+    assertEquals(s3, machine.getCurrentState());
+    assertEquals(Arrays.asList("s1-a-s2", "s2-null-s1", "s1-a-s2", "s2-b-s3"), seen);
+
+    assertEquals(2, recorder.statistics(s1, 'a').count());
+    assertEquals(0, recorder.statistics(s1, 'a').guardLatency().max());
+    assertEquals(1, recorder.statistics(s2, null).count());
+    assertEquals(1, recorder.statistics(s2, 'b').count());
+    assertTrue(recorder.statistics(s2, 'b').guardLatency().max() > 0);
+    assertNull(recorder.statistics(s2, 'a'));
+
+    final AtomicLong total = new AtomicLong();
+    recorder.forEach(pair -> total.addAndGet(pair.count()));
+    assertEquals(4, total.get());
+    assertEquals(3, recorder.report().split(System.lineSeparator()).length);
+  }
+
+  @Test
+  public void latencyHistogramTest() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.valueAtPercentile(99));
+
+    for (long value=1; value<=1000; ++value) {
+      histogram.record(value);
+    }
+    histogram.record(-5); // clock going backward : counted as 0
+
+    assertEquals(1001, histogram.count());
+    assertEquals(500.0, histogram.mean(), 0.5);
+    // within the 6.25% bucket precision
+    assertEquals(500, histogram.valueAtPercentile(50), 500 / 16);
+    assertEquals(990, histogram.valueAtPercentile(99), 990 / 16);
+    assertTrue(histogram.max() >= 1000);
+    assertTrue(histogram.max() <= 1000 + 1000 / 16);
+
+    histogram.record(Long.MAX_VALUE);
+    assertTrue(histogram.max() > 1000000000000L);
+  }
+
+  @Test
+  public void flightRecorderEventsTest() throws MissingStateConfigurationException, IOException {
+    Assume.assumeTrue(FlightRecorderEvents.AVAILABLE);
+
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .when('a').moveTo(s2);
+
+    configuration.state(s2)
+                 .moveAfter(Duration.ofHours(1), s1)
+                 .when('b').moveToIf(s3, (event, transition, sourceContext, destinationContext, machineContext) -> true);
+
+    configuration.state(s3);
+
+    final HashedWheelTimerService                         timer   = new HashedWheelTimerService();
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(configuration.compile(), timer);
+    final Path                                            file    = Files.createTempFile("fsm", ".jfr");
+
+    try (final Recording recording = new Recording()) {
+      recording.enable("net.meta8.fsm.Transition").withThreshold(Duration.ZERO);
+      recording.enable("net.meta8.fsm.Timeout");
+      recording.enable("net.meta8.fsm.RejectedTrigger");
+      recording.start();
+
+      machine.fire('a');
+      machine.fire('b');
+      try {
+        machine.fire('z');
+        fail();
+      }
+      catch (final UnknownTriggerException expected) {
+      }
+
+      recording.stop();
+      recording.dump(file);
+
+      final List<String> events = new ArrayList<>();
+      for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        switch (event.getEventType().getName()) {
+          case "net.meta8.fsm.Transition":
+            assertTrue(event.getLong("guardDuration") >= 0);
+            events.add("transition " + event.getString("source") + "-" + event.getString("trigger") + "-" + event.getString("target"));
+            break;
+          case "net.meta8.fsm.Timeout":
+            events.add("timeout " + event.getString("action") + " " + event.getString("state") + " " + event.getLong("delay"));
+            break;
+          case "net.meta8.fsm.RejectedTrigger":
+            events.add("rejected " + event.getString("state") + " " + event.getString("trigger"));
+            break;
+          default:
+            break;
+        }
+      }
+      assertEquals(Arrays.asList("transition s1-a-s2", "timeout scheduled s2 3600000", "transition s2-b-s3", "timeout cancelled s3 0", "rejected s3 z"), events);
+    }
+    finally {
+      Files.delete(file);
+      machine.close();
+      timer.close();
+    }
+  }
+
+  @Test
+  public void eventJournalTest() throws MissingStateConfigurationException, IOException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicInteger                                                entries       = new AtomicInteger();
+
+    configuration.state(s1)
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2);
+
+    configuration.state(s2)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> entries.incrementAndGet())
+                 .moveAfter(Duration.ofHours(1), s3)
+                 .when('b').moveTo(s1);
+
+    configuration.state(s3);
+
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    // keeps the last timeout task, run by hand
+    final AtomicReference<Runnable> timeout = new AtomicReference<>();
+    final TimerService              timer   = (task, delay, unit) -> {
+      timeout.set(task);
+      return(new TimerHandle() {
+        @Override
+        public boolean cancel() {
+          return(true);
+        }
+
+        @Override
+        public boolean isDone() {
+          return(false);
+        }
+      });
+    };
+
+    final Path directory = Files.createTempDirectory("fsm-journal");
+    try {
+      // tiny segments : records roll over several of them
+      try (final EventJournal<Character>                                journal  = EventJournal.open(directory, Codecs.characters(), 128, Duration.ofMillis(5));
+           final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, 16)) {
+        registry.recover(journal);
+        registry.create(1);
+        registry.create(2);
+        registry.create(3);
+        registry.fire(1, 'a');
+        timeout.get().run();
+        registry.fire(2, 'x');
+        assertEquals(FireResult.REJECTED, registry.tryFire(2, 'b'));
+        registry.fire(3, 'a');
+        registry.remove(3);
+        assertEquals(2, entries.get());
+      }
+
+      final List<String> records = new ArrayList<>();
+      try (final EventJournal<Character> journal = EventJournal.open(directory, Codecs.characters(), 128, Duration.ofMillis(5))) {
+        journal.replay((type, id, timestamp, event) -> records.add(type + " " + id + " " + event));
+      }
+      assertEquals(Arrays.asList("CREATE 1 null", "CREATE 2 null", "CREATE 3 null", "FIRE 1 a", "TIMEOUT 1 null", "FIRE 2 x", "FIRE 3 a", "REMOVE 3 null"), records);
+      assertTrue(Files.list(directory).count() > 1);
+
+      // a power loss right after a roll can leave the new segment without its header : it's started again
+      Files.write(directory.resolve(String.format("%020d.journal", Files.list(directory).count())), new byte[128]);
+
+      try (final EventJournal<Character>                                journal  = EventJournal.open(directory, Codecs.characters(), 128, Duration.ofMillis(5));
+           final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, 16)) {
+        registry.recover(journal);
+        assertEquals(2, entries.get()); // no action replayed
+        assertEquals(s3, registry.get(1));
+        assertEquals(s1, registry.get(2));
+        assertNull(registry.get(3));
+
+        // the sequence goes on where it was
+        assertEquals(FireResult.ACCEPTED, registry.tryFire(2, 'y'));
+        registry.fire(2, 'a');
+        assertEquals(3, entries.get());
+
+        try {
+          registry.recover(journal);
+          fail();
+        }
+        catch (final IllegalStateException expected) {
+        }
+      }
+
+      try (final EventJournal<Character>                                journal  = EventJournal.open(directory, Codecs.characters(), 128, Duration.ZERO);
+           final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, 16)) {
+        registry.recover(journal);
+        assertEquals(s2, registry.get(2));
+
+        // recovered timeouts are armed again
+        timeout.get().run();
+        assertEquals(s3, registry.get(2));
+      }
+    }
+    finally {
+      Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void snapshotTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, AtomicInteger, AtomicInteger> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.of(new AtomicInteger()), Optional.of(context -> new AtomicInteger(context.get())));
+    final AtomicInteger                                                                  entries       = new AtomicInteger();
+
+    configuration.state(s1)
+                 .initialContext(new AtomicInteger(), context -> new AtomicInteger(context.get()))
+                 .acceptSequence('x', 'y')
+                 .when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> {
+                   sourceContext.get().addAndGet(5);
+                   machineContext.get().addAndGet(7);
+                 });
+
+    configuration.state(s2)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> entries.incrementAndGet())
+                 .moveAfter(Duration.ofHours(1), s3)
+                 .when('b').moveTo(s1);
+
+    configuration.state(s3);
+
+    final MachineDefinition<TestStates, Character, AtomicInteger, AtomicInteger> definition = configuration.compile();
+    final Codec<AtomicInteger>                                                   codec      = new Codec<AtomicInteger>() {
+      @Override
+      public void encode(final AtomicInteger value, final ByteBuffer buffer) {
+        buffer.putInt(value.get());
+      }
+
+      @Override
+      public AtomicInteger decode(final ByteBuffer buffer) {
+        return(new AtomicInteger(buffer.getInt()));
+      }
+    };
+
+    // keeps the last delay and timeout task, run by hand
+    final AtomicReference<Runnable> timeout = new AtomicReference<>();
+    final AtomicLong                delay   = new AtomicLong(-1);
+    final TimerService              timer   = (task, taskDelay, unit) -> {
+      timeout.set(task);
+      delay.set(unit.toMillis(taskDelay));
+      return(new TimerHandle() {
+        @Override
+        public boolean cancel() {
+          return(true);
+        }
+
+        @Override
+        public boolean isDone() {
+          return(false);
+        }
+      });
+    };
+
+    final StateMachine<TestStates, Character, AtomicInteger, AtomicInteger> sequenced = new StateMachine<>(definition, timer);
+    final StateMachine<TestStates, Character, AtomicInteger, AtomicInteger> waiting   = new StateMachine<>(definition, timer);
+    sequenced.fire('x');
+    waiting.fire('a');
+    assertEquals(1, entries.get());
+
+    // back to back in the same buffer
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    sequenced.snapshot(buffer, codec, codec);
+    waiting.snapshot(buffer, codec, codec);
+    buffer.flip();
+
+    delay.set(-1);
+    final StateMachine<TestStates, Character, AtomicInteger, AtomicInteger> restoredSequenced = new StateMachine<>(definition, timer, ExecutionMode.PLATFORM_THREADS, buffer, codec, codec);
+    assertEquals(-1, delay.get()); // nothing pending
+    final StateMachine<TestStates, Character, AtomicInteger, AtomicInteger> restoredWaiting   = new StateMachine<>(definition, timer, ExecutionMode.PLATFORM_THREADS, buffer, codec, codec);
+    assertFalse(buffer.hasRemaining());
+    assertEquals(1, entries.get()); // no entry action on restore
+
+    // the sequence goes on where it was
+    assertEquals(s1, restoredSequenced.getCurrentState());
+    assertEquals(FireResult.ACCEPTED, restoredSequenced.tryFire('y'));
+
+    // contexts come back, the pending timeout is armed for what's left
+    assertEquals(s2, restoredWaiting.getCurrentState());
+    assertTrue((delay.get() > Duration.ofMinutes(59).toMillis())&&(delay.get() <= Duration.ofHours(1).toMillis()));
+    assertEquals(s1, restoredWaiting.fire('b'));
+    assertEquals(s2, restoredWaiting.fire('a'));
+    final ByteBuffer contexts = ByteBuffer.allocate(64);
+    restoredWaiting.snapshot(contexts, codec, codec);
+    contexts.flip().position(contexts.limit() - 8);
+    assertEquals(10, contexts.getInt()); // s1 local context
+    assertEquals(14, contexts.getInt()); // global context
+    timeout.get().run();
+    assertEquals(s3, restoredWaiting.getCurrentState());
+
+    // too small : the buffer is left as it was
+    final ByteBuffer small = ByteBuffer.allocate(12);
+    small.putShort((short) 1);
+    try {
+      waiting.snapshot(small, codec, codec);
+      fail();
+    }
+    catch (final BufferOverflowException expected) {
+      assertEquals(2, small.position());
+    }
+
+    // contexts need codecs, snapshots need the same definition
+    try {
+      waiting.snapshot(ByteBuffer.allocate(64));
+      fail();
+    }
+    catch (final IllegalArgumentException expected) {
+    }
+    final StateMachineConfiguration<TestStates, Character, Void, Void> other = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    other.state(s1);
+    final StateMachine<TestStates, Character, Void, Void> plain = new StateMachine<>(other.compile(), timer);
+    final ByteBuffer                                      newer = ByteBuffer.allocate(16);
+    plain.snapshot(newer);
+    newer.flip().put(0, (byte) (newer.get(0) + 1));
+    try {
+      new StateMachine<>(other.compile(), timer, newer);
+      fail();
+    }
+    catch (final IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void timeoutStoreTest() throws MissingStateConfigurationException, IOException, InterruptedException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .when('a').moveTo(s2)
+                 .when('b').moveTo(s3);
+
+    configuration.state(s2)
+                 .moveAfter(Duration.ofHours(1), s3)
+                 .when('b').moveTo(s1);
+
+    configuration.state(s3)
+                 .moveAfter(Duration.ofMillis(1), s1);
+
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    // keeps the scheduled tasks and their delay, run by hand
+    final List<Runnable> tasks  = new ArrayList<>();
+    final List<Long>     delays = new ArrayList<>();
+    final TimerService   timer  = (task, delay, unit) -> {
+      tasks.add(task);
+      delays.add(unit.toMillis(delay));
+      return(new TimerHandle() {
+        @Override
+        public boolean cancel() {
+          return(true);
+        }
+
+        @Override
+        public boolean isDone() {
+          return(false);
+        }
+      });
+    };
+
+    final Path directory = Files.createTempDirectory("fsm-timeouts");
+    final Path file      = directory.resolve("timeouts");
+    try {
+      try (final EventJournal<Character>                                journal  = EventJournal.open(directory.resolve("journal"), Codecs.characters());
+           final TimeoutStore                                            store    = TimeoutStore.open(file, 2, Duration.ofMillis(5));
+           final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, 16)) {
+        registry.recover(journal, store);
+        for (long id=1; id<=5; ++id) {
+          registry.create(id);
+        }
+        registry.fire(1, 'a');
+        registry.fire(2, 'b');
+        registry.fire(3, 'a');
+        registry.fire(4, 'a');
+        registry.fire(5, 'a');
+        registry.fire(5, 'b'); // cancelled : its record is left behind
+        registry.remove(3);
+        assertEquals(4, store.size()); // grown past its initial capacity, without the removed machine
+
+        // records are kept when the registry is closed, replaced when a timeout fires into another one
+        tasks.get(3).run();
+        assertEquals(s3, registry.get(4));
+        assertEquals(4, store.size());
+      }
+      Thread.sleep(10); // past the deadline of machines 2 and 4
+
+      tasks.clear();
+      delays.clear();
+      try (final EventJournal<Character>                                journal  = EventJournal.open(directory.resolve("journal"), Codecs.characters());
+           final TimeoutStore                                            store    = TimeoutStore.open(file, 2, Duration.ofMillis(5));
+           final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, 16)) {
+        assertEquals(4, store.size());
+        registry.recover(journal, store);
+
+        // overdue timeouts fired, the other one armed for what's left, the stale record dropped
+        assertEquals(s1, registry.get(2));
+        assertEquals(s1, registry.get(4));
+        assertEquals(s1, registry.get(5));
+        assertEquals(s2, registry.get(1));
+        assertEquals(1, tasks.size());
+        assertTrue((delays.get(0) > Duration.ofMinutes(59).toMillis())&&(delays.get(0) <= Duration.ofHours(1).toMillis()));
+        assertEquals(1, store.size());
+
+        tasks.get(0).run();
+        assertEquals(s3, registry.get(1));
+        final List<String> records = new ArrayList<>();
+        store.forEach((id, state, deadline) -> records.add(id + " " + TestStates.values()[state]));
+        assertEquals(Collections.singletonList("1 s3"), records);
+      }
+
+      // records come back by increasing deadline
+      Files.delete(file);
+      try (final TimeoutStore store = TimeoutStore.open(file, 16, Duration.ZERO)) {
+        store.put(10, 0, 300);
+        store.put(11, 0, 100);
+        store.put(12, 0, 200);
+        store.put(13, 0, 50);
+        store.put(10, 0, 150);
+        assertTrue(store.remove(13));
+        assertFalse(store.remove(13));
+      }
+      try (final TimeoutStore store = TimeoutStore.open(file)) {
+        final List<Long> ids = new ArrayList<>();
+        store.forEach((id, state, deadline) -> ids.add(id));
+        assertEquals(Arrays.asList(11L, 10L, 12L), ids);
+      }
+    }
+    finally {
+      Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void stripedRegistryTest() throws MissingStateConfigurationException, IOException, InterruptedException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .when('a').moveTo(s2)
+                 .when('w').moveTo(s3, (event, transition, sourceContext, destinationContext, machineContext) -> {
+                   try {
+                     Thread.sleep(200); // a blocking call
+                   }
+                   catch (final InterruptedException interrupted) {
+                     Thread.currentThread().interrupt();
+                   }
+                 });
+
+    configuration.state(s2)
+                 .moveAfter(Duration.ofMillis(1), s3);
+
+    configuration.state(s3);
+
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    // blocking actions of machines in different stripes don't wait for each other
+    try (final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, HashedWheelTimerService.shared(), 64, ExecutionMode.PLATFORM_THREADS, 64)) {
+      assertEquals(64, registry.stripeCount());
+      final List<Thread> threads = new ArrayList<>();
+      for (long id=0; id<8; ++id) {
+        final long machine = id;
+        registry.create(machine);
+        threads.add(new Thread(() -> registry.fire(machine, 'w')));
+      }
+      final long start = System.nanoTime();
+      threads.forEach(Thread::start);
+      for (final Thread thread : threads) {
+        thread.join();
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(8 * 200 / 2));
+      assertEquals(8, registry.size());
+      for (long id=0; id<8; ++id) {
+        assertEquals(s3, registry.get(id));
+      }
+    }
+    try (final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition)) {
+      assertEquals(1, registry.stripeCount());
+    }
+
+    // keeps the scheduled tasks, never run : timeouts are overdue on recovery
+    final TimerService timer = (task, delay, unit) -> new TimerHandle() {
+      @Override
+      public boolean cancel() {
+        return(true);
+      }
+
+      @Override
+      public boolean isDone() {
+        return(false);
+      }
+    };
+
+    // journal and timeout store don't depend on the stripe count, both are read once
+    final Path directory = Files.createTempDirectory("fsm-stripes");
+    try {
+      try (final EventJournal<Character>                                journal  = EventJournal.open(directory.resolve("journal"), Codecs.characters());
+           final TimeoutStore                                            store    = TimeoutStore.open(directory.resolve("timeouts"));
+           final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, 16, ExecutionMode.PLATFORM_THREADS, 8)) {
+        registry.recover(journal, store);
+        for (long id=0; id<100; ++id) {
+          registry.create(id);
+          if (id % 2 == 0) {
+            registry.fire(id, 'a');
+          }
+          if (id % 5 == 0) {
+            registry.remove(id);
+          }
+        }
+        assertEquals(80, registry.size());
+      }
+      Thread.sleep(10); // past the deadlines
+
+      try (final EventJournal<Character>                                journal  = EventJournal.open(directory.resolve("journal"), Codecs.characters());
+           final TimeoutStore                                            store    = TimeoutStore.open(directory.resolve("timeouts"));
+           final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition, timer, 16, ExecutionMode.PLATFORM_THREADS, 3)) {
+        registry.recover(journal, store);
+        assertEquals(80, registry.size());
+        for (long id=0; id<100; ++id) {
+          assertEquals((id % 5 == 0) ? null : (id % 2 == 0) ? s3 : s1, registry.get(id));
+        }
+        assertEquals(0, store.size());
+      }
+    }
+    finally {
+      Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void lazyLocalContextTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, AtomicInteger, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final AtomicInteger                                                          clones        = new AtomicInteger();
+    final Function<AtomicInteger, AtomicInteger>                                 clone         = context -> {
+      clones.incrementAndGet();
+      return(new AtomicInteger(context.get()));
+    };
+
+    configuration.state(s1)
+                 .initialContext(new AtomicInteger(), clone)
+                 .when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> destinationContext.get().incrementAndGet())
+                 .when('b').stayIf((event, transition, sourceContext, destinationContext, machineContext) -> false);
+    configuration.state(s2)
+                 .initialContext(new AtomicInteger(), clone)
+                 .when('c').moveToIf(s3, (event, transition, sourceContext, destinationContext, machineContext) -> destinationContext.get().get() > 0);
+    configuration.state(s3)
+                 .initialContext(new AtomicInteger(), clone);
+
+    final MachineDefinition<TestStates, Character, AtomicInteger, Void> definition = configuration.compile();
+
+    // only the initial state context is cloned up front
+    final StateMachine<TestStates, Character, AtomicInteger, Void> machine = new StateMachine<>(definition);
+    assertEquals(1, clones.get());
+    assertEquals(FireResult.REJECTED, machine.tryFire('b'));
+    assertEquals(1, clones.get());
+
+    // on entry
+    assertEquals(s2, machine.fire('a'));
+    assertEquals(2, clones.get());
+
+    // snapshots keep the contexts not cloned yet as such
+    final Codec<AtomicInteger> codec = new Codec<AtomicInteger>() {
+      @Override
+      public void encode(final AtomicInteger value, final ByteBuffer buffer) {
+        buffer.putInt(value.get());
+      }
+
+      @Override
+      public AtomicInteger decode(final ByteBuffer buffer) {
+        return(new AtomicInteger(buffer.getInt()));
+      }
+    };
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    machine.snapshot(buffer, codec, null);
+    buffer.flip();
+    assertEquals(8 + 2 * (1 + 4) + 1, buffer.limit()); // s3 context is only a marker
+    final StateMachine<TestStates, Character, AtomicInteger, Void> restored = new StateMachine<>(definition, HashedWheelTimerService.shared(), ExecutionMode.PLATFORM_THREADS, buffer, codec, null);
+    assertEquals(2, clones.get());
+
+    // on access from a guard
+    assertEquals(FireResult.REJECTED, restored.tryFire('c'));
+    assertEquals(3, clones.get());
+  }
+
+  @Test
+  public void hierarchyTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final StringBuilder                                                 log           = new StringBuilder();
+
+    // s2 and s3 are nested in s1
+    configuration.state(s2)
+                 .parent(s1)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> log.append("+2"))
+                 .onExit((event, transition, sourceContext, destinationContext, machineContext) -> log.append("-2"))
+                 .when('x').moveToIf(s3, (event, transition, sourceContext, destinationContext, machineContext) -> false);
+    configuration.state(s3)
+                 .parent(s1)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> log.append("+3"))
+                 .onExit((event, transition, sourceContext, destinationContext, machineContext) -> log.append("-3"))
+                 .when('y').moveTo(s2);
+    configuration.state(s1)
+                 .onEntry((event, transition, sourceContext, destinationContext, machineContext) -> log.append("+1"))
+                 .onExit((event, transition, sourceContext, destinationContext, machineContext) -> log.append("-1"))
+                 .when('x').moveTo(s3)
+                 .when('r').moveTo(s1)
+                 .other().stayIf((event, transition, sourceContext, destinationContext, machineContext) -> event == 'o');
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+    assertEquals("+1+2", log.toString());
+
+    // s2 guard fails : bubbles up to s1, which is neither left nor entered
+    assertEquals(s3, machine.fire('x'));
+    assertEquals("+1+2-2+3", log.toString());
+    assertEquals(s2, machine.fire('y'));
+    assertEquals("+1+2-2+3-3+2", log.toString());
+
+    // an inherited 'stay' keeps the nested state
+    assertEquals(s2, machine.fire('o'));
+    assertEquals(FireResult.REJECTED, machine.tryFire('z'));
+    assertEquals("+1+2-2+3-3+2", log.toString());
+
+    // moving to an ancestor leaves and enters it again
+    assertEquals(s1, machine.fire('r'));
+    assertEquals("+1+2-2+3-3+2-2-1+1", log.toString());
+    assertEquals(s3, machine.fire('x'));
+    assertEquals("+1+2-2+3-3+2-2-1+1+3", log.toString());
+
+    try {
+      configuration.state(s2).parent(s2);
+      fail("Should not work");
+    }
+    catch (final StateConfigurationError e) {
+      // expected
+    }
+
+    configuration.state(s1).parent(s2);
+    configuration.state(s2).parent(s1);
+    try {
+      configuration.compile();
+      fail("Should not work");
+    }
+    catch (final StateConfigurationError e) {
+      // expected
+    }
+
+    final StateMachineConfiguration<TestStates, Character, Void, Void> orphan = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    orphan.state(s1).parent(s3);
+    try {
+      orphan.compile();
+      fail("Should not work");
+    }
+    catch (final MissingStateConfigurationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void regionTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, AtomicInteger> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.of(new AtomicInteger()), Optional.of(context -> new AtomicInteger(context.get())));
+
+    final AtomicInteger                                                         handled       = new AtomicInteger();
+
+    // s1 <-> s2 in one region, s3 in the other
+    configuration.regions(s1, s3);
+    configuration.state(s1)
+                 .when('a').moveTo(s2, (event, transition, sourceContext, destinationContext, machineContext) -> machineContext.get().incrementAndGet())
+                 .when('x').moveTo(s2);
+    configuration.state(s2)
+                 .when('b').moveTo(s1)
+                 .when('g').moveToIf(s1, (event, transition, sourceContext, destinationContext, machineContext) -> machineContext.get().get() == 2)
+                 .when('y').stay((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   throw(new IllegalStateException("y"));
+                 });
+    configuration.state(s3)
+                 .when('a').stay((event, transition, sourceContext, destinationContext, machineContext) -> machineContext.get().incrementAndGet())
+                 .when('c').stay()
+                 .when('x').stay((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   throw(new IllegalStateException("x"));
+                 })
+                 .when('y').stay((event, transition, sourceContext, destinationContext, machineContext) -> handled.incrementAndGet());
+
+    final List<MachineDefinition<TestStates, Character, Void, AtomicInteger>> definitions = configuration.compileRegions();
+    assertEquals(2, definitions.size());
+
+    final ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      for (final ForkJoinPool somePool : Arrays.asList(null, pool)) {
+        final RegionStateMachine<TestStates, Character, Void, AtomicInteger> machine = new RegionStateMachine<>(definitions, HashedWheelTimerService.shared(), somePool);
+        assertEquals(Arrays.asList(s1, s3), machine.getCurrentStates());
+
+        // both regions share the global context
+        assertEquals(2, machine.fire('a'));
+        assertEquals(Arrays.asList(s2, s3), machine.getCurrentStates());
+        assertEquals(1, machine.fire('g'));
+        assertEquals(2, machine.fire('a'));
+        assertEquals(1, machine.fire('c'));
+        assertEquals(1, machine.fire('b'));
+        assertEquals(Arrays.asList(s1, s3), machine.getCurrentStates());
+
+        try {
+          machine.fire('z');
+          fail("Should not work");
+        }
+        catch (final UnknownTriggerException e) {
+          // expected
+        }
+
+        // a failing region doesn't prevent the others from handling the event
+        try {
+          machine.fire('x');
+          fail("Should not work");
+        }
+        catch (final IllegalStateException e) {
+          assertEquals(s2, machine.getCurrentState(0));
+        }
+
+        // nor the ones after it
+        handled.set(0);
+        try {
+          machine.fire('y');
+          fail("Should not work");
+        }
+        catch (final IllegalStateException e) {
+          assertEquals("y", e.getMessage());
+          assertEquals(1, handled.get());
+        }
+        machine.close();
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+
+    // regions can't share a state
+    configuration.regions(s2);
+    try {
+      configuration.compileRegions();
+      fail("Should not work");
+    }
+    catch (final StateConfigurationError e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void regionTimeoutTest() throws MissingStateConfigurationException, InterruptedException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    configuration.regions(s1, s3);
+    configuration.state(s1)
+                 .moveAfter(Duration.ofMillis(1), s2);
+    configuration.state(s2);
+    configuration.state(s3)
+                 .when('c').stay();
+
+    // keeps the scheduled tasks, run by hand
+    final List<Runnable> tasks = new ArrayList<>();
+    final TimerService   timer = (task, delay, unit) -> {
+      tasks.add(task);
+      return(new TimerHandle() {
+        @Override
+        public boolean cancel() {
+          return(true);
+        }
+
+        @Override
+        public boolean isDone() {
+          return(false);
+        }
+      });
+    };
+
+    final RegionStateMachine<TestStates, Character, Void, Void> machine = new RegionStateMachine<>(configuration.compileRegions(), timer, null);
+    assertEquals(1, tasks.size());
+
+    // a region timeout waits for the monitor fire() holds
+    final Thread timeout = new Thread(tasks.get(0));
+    synchronized (machine) {
+      timeout.start();
+      timeout.join(100);
+      assertTrue(timeout.isAlive());
+      assertEquals(s1, machine.getCurrentState(0));
+    }
+    timeout.join();
+    assertEquals(Arrays.asList(s2, s3), machine.getCurrentStates());
+  }
+
+  @Test
+  public void deferredEventTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final StringBuilder                                                 log           = new StringBuilder();
+
+    configuration.deferredCapacity(2);
+    configuration.state(s1)
+                 .defer('b', 'c')
+                 .when('a').moveTo(s2);
+    configuration.state(s2)
+                 .when('b').moveTo(s3, (event, transition, sourceContext, destinationContext, machineContext) -> log.append(event));
+    configuration.state(s3)
+                 .when('c').stay((event, transition, sourceContext, destinationContext, machineContext) -> log.append(event))
+                 .when('d').moveTo(s1);
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+    assertEquals(s1, machine.fire('b'));
+    assertEquals(FireResult.DEFERRED, machine.tryFire('c'));
+    assertEquals(2, machine.deferredCount());
+
+    // full
+    assertEquals(FireResult.REJECTED, machine.tryFire('b'));
+    try {
+      machine.fire('z');
+      fail("Should not work");
+    }
+    catch (final UnknownTriggerException e) {
+      // expected
+    }
+
+    // 'b' moves to s3, which accepts 'c'
+    assertEquals(s3, machine.fire('a'));
+    assertEquals("bc", log.toString());
+    assertEquals(0, machine.deferredCount());
+
+    // s2 neither accepts nor defers 'c' : dropped
+    assertEquals(s1, machine.fire('d'));
+    assertEquals(1, machine.fireAll('c'));
+    assertEquals(s2, machine.fire('a'));
+    assertEquals(0, machine.deferredCount());
+    assertEquals("bc", log.toString());
+
+    // snapshots carry the queue, through an event codec
+    assertEquals(s3, machine.fire('b'));
+    assertEquals(s1, machine.fire('d'));
+    assertEquals(FireResult.DEFERRED, machine.tryFire('b'));
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    try {
+      machine.snapshot(buffer);
+      fail("Should not work");
+    }
+    catch (final IllegalStateException expected) {
+      assertEquals(0, buffer.position());
+    }
+    machine.snapshot(buffer, null, null, Codecs.characters());
+    buffer.flip();
+    final StateMachine<TestStates, Character, Void, Void> restored = new StateMachine<>(configuration.compile(), HashedWheelTimerService.shared(), ExecutionMode.PLATFORM_THREADS, buffer, null, null, Codecs.characters());
+    assertEquals(1, restored.deferredCount());
+    assertEquals(s3, restored.fire('a'));
+    assertEquals("bcbb", log.toString());
+
+    // tables have no queue
+    try {
+      new StateMachineRegistry<>(configuration.compile());
+      fail("Should not work");
+    }
+    catch (final IllegalArgumentException expected) {
+      // expected
+    }
+
+    // no queue without deferred events
+    final StateMachineConfiguration<TestStates, Character, Void, Void> withoutDeferredEvents = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    withoutDeferredEvents.state(s1)
+                         .when('a').stay();
+    assertEquals(0, withoutDeferredEvents.compile().deferredCapacity());
+  }
+
+  @Test
+  public void deferredEventTimeoutTest() throws MissingStateConfigurationException, InterruptedException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .defer('b')
+                 .when('a').stay()
+                 .moveAfter(Duration.ofSeconds(10), s2);
+    configuration.state(s2)
+                 .when('b').moveTo(s3);
+    configuration.state(s3)
+                 .when('a').moveTo(s1);
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(configuration.compile(), HashedWheelTimerService.shared());
+    final ByteBuffer                                      buffer  = ByteBuffer.allocate(64);
+    machine.snapshot(buffer);
+    final long deadline = buffer.getLong(8);
+
+    // deferring is not a transition : the timeout is left alone
+    Thread.sleep(20);
+    assertEquals(1, machine.fireAll('b'));
+    buffer.clear();
+    machine.snapshot(buffer, null, null, Codecs.characters());
+    assertEquals(deadline, buffer.getLong(8));
+
+    // a transition re-arms it
+    assertEquals(2, machine.fireAll('b', 'a'));
+    buffer.clear();
+    machine.snapshot(buffer, null, null, Codecs.characters());
+    assertTrue(buffer.getLong(8) > deadline);
+    assertEquals(2, machine.deferredCount());
+    machine.close();
+  }
+
+  @Test
+  public void deferredEventThrowingTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .defer('b')
+                 .when('a').moveTo(s2)
+                 .moveAfter(Duration.ofSeconds(10), s3);
+    configuration.state(s2)
+                 .when('b').stay((event, transition, sourceContext, destinationContext, machineContext) -> {
+                   throw(new IllegalStateException("replayed"));
+                 })
+                 .moveAfter(Duration.ofMillis(100), s3);
+    configuration.state(s3);
+
+    // a replayed event throwing still leaves s2 with its timeout
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(configuration.compile(), HashedWheelTimerService.shared());
+    assertEquals(FireResult.DEFERRED, machine.tryFire('b'));
+    try {
+      machine.fire('a');
+      fail("Should not work");
+    }
+    catch (final IllegalStateException expected) {
+      assertEquals("replayed", expected.getMessage());
+    }
+    assertEquals(s3, machine.awaitState(Duration.ofSeconds(5), s3).get());
+  }
+
+  @Test
+  public void timeoutTransitionTest() throws UnknownTriggerException, MissingStateConfigurationException, InterruptedException, ExecutionException {
+    {
+      final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+      final AtomicLong     count   = new AtomicLong();
+      final CountDownLatch entries = new CountDownLatch(4);
+
+      configuration.state(s1)
+                   .onEntry((character, transition, sourceContext, destinationContext, machineContext) -> { count.incrementAndGet(); entries.countDown(); })
+                   .moveAfter(Duration.ofMillis(1000), s1);
+
+      final long                                            start   = System.nanoTime();
+      final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+
+      assertEquals(1, count.intValue());
+
+      // s1 re-enters itself : awaitState(s1) would complete at once, count the entries instead
+      assertTrue(entries.await(5, TimeUnit.SECONDS));
+
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(2900));
+      assertEquals(s1, machine.getCurrentState());
+      assertEquals(4, count.intValue());
+
+      machine.close();
+    }
+    System.out.println("------------------");
+    {
+      final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+      configuration.state(s1)
+                   .moveAfter(Duration.ofMillis(3000), s2);
+
+      configuration.state(s2);
+
+      final long                                            start   = System.nanoTime();
+      final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+
+      assertEquals(s2, machine.awaitState(Duration.ofSeconds(5), s2).get());
+
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(2900));
+      assertEquals(s2, machine.getCurrentState());
+    }
+  }
+
+  @Test
+  public void sharedTimerTest() throws MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final ConcurrentLinkedQueue<String>                                threads       = new ConcurrentLinkedQueue<>();
+
+    configuration.state(s1)
+                 .moveAfter(Duration.ofMillis(20), s2, (event, transition, sourceContext, destinationContext, machineContext) -> threads.add(Thread.currentThread().getName()));
+    configuration.state(s2);
+    final MachineDefinition<TestStates, Character, Void, Void> definition = configuration.compile();
+
+    // timeout actions never run on the shared wheel thread, neither for a machine nor for a registry
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(definition);
+    assertEquals(s2, machine.awaitState(Duration.ofSeconds(5), s2).get());
+
+    final StateMachineRegistry<TestStates, Character, Void, Void> registry = new StateMachineRegistry<>(definition);
+    registry.create(1L);
+    final long deadline = System.currentTimeMillis() + 5000;
+    while ((registry.get(1L) != s2)&&(System.currentTimeMillis() < deadline)) {
+      Thread.sleep(10);
+    }
+    assertEquals(s2, registry.get(1L));
+
+    assertEquals(2, threads.size());
+    for (final String thread : threads) {
+      assertNotEquals("fsm-shared-timer", thread);
+    }
+    registry.close();
+  }
+
+  @Test
+  public void awaitStateTest() throws UnknownTriggerException, MissingStateConfigurationException, InterruptedException, ExecutionException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .when('a').moveTo(s2)
+                 .defer('c');
+    configuration.state(s2)
+                 .when('b').moveTo(s3)
+                 .when('c').moveTo(s3);
+    configuration.state(s3)
+                 .when('a').moveTo(s1)
+                 .moveAfter(Duration.ofMillis(100), s1);
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(configuration.compile(), HashedWheelTimerService.shared());
+
+    // already there
+    final CompletableFuture<TestStates> current = machine.awaitState(s1);
+    assertTrue(current.isDone());
+    assertEquals(s1, current.get());
+
+    // the first state entered wins, the same future waits in both lists
+    final CompletableFuture<TestStates> either = machine.awaitState(s2, s3);
+    final CompletableFuture<TestStates> third  = machine.awaitState(s3);
+    assertFalse(either.isDone());
+    machine.fire('a');
+    assertEquals(s2, either.get());
+    assertFalse(third.isDone());
+    machine.fire('b');
+    assertEquals(s3, third.get());
+
+    // entered by the timeout transition
+    assertEquals(s1, machine.awaitState(Duration.ofSeconds(5), s1).get());
+
+    // crossed by a replayed deferred event
+    final CompletableFuture<TestStates> crossed = machine.awaitState(s2);
+    machine.fire('c');
+    assertFalse(crossed.isDone());
+    machine.fire('a');
+    assertEquals(s2, crossed.get());
+    assertEquals(s1, machine.awaitState(Duration.ofSeconds(5), s1).get());
+
+    // never entered in time
+    try {
+      machine.awaitState(Duration.ofMillis(50), s3).get();
+      fail();
+    }
+    catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof TimeoutException);
+    }
+
+    // failed off the timer thread
+    final Thread failedOn = machine.awaitState(Duration.ofMillis(50), s3).handle((state, failure) -> Thread.currentThread()).get();
+    assertNotEquals("fsm-shared-timer", failedOn.getName());
+
+    // cancelled while the machine is busy : nothing waits for its monitor
+    final CompletableFuture<TestStates> cancelled = machine.awaitState(s2, s3);
+    synchronized (machine) {
+      final Thread canceller = new Thread(() -> cancelled.cancel(false));
+      canceller.start();
+      canceller.join(5_000);
+      assertFalse(canceller.isAlive());
+    }
+
+    // many callers, no thread
+    final List<CompletableFuture<TestStates>> waiting = new ArrayList<>();
+    for (int i=0; i<10_000; ++i) {
+      waiting.add(machine.awaitState(s2));
+    }
+    machine.fire('a');
+    CompletableFuture.allOf(waiting.toArray(new CompletableFuture<?>[0])).get();
+    for (final CompletableFuture<TestStates> future : waiting) {
+      assertEquals(s2, future.getNow(null));
+    }
+
+    try {
+      machine.awaitState();
+      fail();
+    }
+    catch (final IllegalArgumentException expected) {
+      // ok
+    }
+    machine.close();
+  }
+
+  @Test
+  public void timeoutTransitionTimerServiceTest() throws UnknownTriggerException, MissingStateConfigurationException, InterruptedException {
+    try (final HashedWheelTimerService timer = new HashedWheelTimerService(Duration.ofMillis(1), 64, Thread::new)) {
+      final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+      configuration.state(s1)
+                   .moveAfter(Duration.ofMillis(200), s3)
+                   .when('a').moveTo(s2);
+
+      configuration.state(s2)
+                   .moveAfter(Duration.ofMillis(200), s3)
+                   .when('b').moveTo(s1);
+
+      configuration.state(s3);
+
+      // many machines, one timer thread
+      final List<StateMachine<TestStates, Character, Void, Void>> machines = new ArrayList<>();
+      for (int i=0; i<1000; ++i) {
+        machines.add(new StateMachine<>(TestStates.class, configuration, timer));
+      }
+      assertEquals(1000, timer.pendingTimeouts());
+
+      // a regular transition cancels the pending timeout and arms the one of the new state
+      machines.get(0).fire('a');
+      machines.get(1).fire('a');
+      machines.get(1).close();
+      assertEquals(999, timer.pendingTimeouts());
+
+      Thread.sleep(500);
+
+      assertEquals(0, timer.pendingTimeouts());
+      assertEquals(s3, machines.get(0).getCurrentState());
+      assertEquals(s2, machines.get(1).getCurrentState());
+      assertEquals(s3, machines.get(999).getCurrentState());
+    }
+  }
+
+  @Ignore
+  @Test
+  public void timeoutTransitionWithoutExitEntryTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+  }
+
+  @Ignore
+  @Test
+  public void timeoutTransitionWithExitEntryTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+  }
+
+  @Ignore
+  @Test
+  public void multipleStateMachineTest() throws MissingStateConfigurationException {
+    final StateMachineConfiguration<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+  }
+
+  @Test
+  public void simpleExample() throws UnknownTriggerException, MissingStateConfigurationException {
+    final StateMachineConfigurationDSL<TestStates, Character, Void, Void> configuration = new StateMachineConfiguration<>(TestStates.class, Optional.empty(), Optional.empty());
+
+    configuration.state(s1)
+                 .onEntryIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
+                            (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onEntry s1"))
+                 .onExitIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
+                           (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onExit s1"))
+                 .when('a').moveToIf(s2,
+                                     (character, transition, sourceContext, destinationContext, machineContext) -> true,
+                                     (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("moveTo to s2"))
+                 .when('b').moveTo(s2);
+
+    configuration.state(s2)
+                 .onEntryIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
+                            (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onEntry s2"))
+                 .onExitIf((character, transition, sourceContext, destinationContext, machineContext) -> true,
+                           (character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onExit S2"))
+                 .when('c').moveTo(s3);
+
+    configuration.state(s3)
+                 .onEntry((character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onEntry S3"))
+                 .onExit((character, transition, sourceContext, destinationContext, machineContext) -> System.out.println("onExit S3"))
+                 .when('c').moveTo(s3)
+                 .when('d').stay();
+
+    final StateMachine<TestStates, Character, Void, Void> machine = new StateMachine<>(TestStates.class, configuration);
+
+    TestStates s = TestStates.s1;
+    System.out.println("From "+s.name()+" - fire 'a'");
+    s = machine.fire('a');
+    System.out.println("Now : "+s.name());
+
+    System.out.println("From "+s.name()+" - fire 'c'");
+    s = machine.fire('c');
+    System.out.println("Now : "+s.name());
+
+    System.out.println("From "+s.name()+" - fire 'd'");
+    s = machine.fire('d');
+    System.out.println("Now : "+s.name());
+
+    System.out.println("From "+s.name()+" - fire 'c'");
+    s = machine.fire('c');
+    System.out.println("Now : "+s.name());
+  }
+}
+
+enum TestStates implements States {
+  s1, s2, s3
+}
+
+enum TestEvents {
+  a, b, c, d
 }